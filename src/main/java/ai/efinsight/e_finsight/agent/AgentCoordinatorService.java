@@ -1,18 +1,27 @@
 package ai.efinsight.e_finsight.agent;
 
+import ai.efinsight.e_finsight.config.AgentConfig;
 import ai.efinsight.e_finsight.dto.CitationDto;
 import ai.efinsight.e_finsight.dto.PlanResponseDto;
 import ai.efinsight.e_finsight.model.Transaction;
 import ai.efinsight.e_finsight.rag.RagService;
+import ai.efinsight.e_finsight.rag.VectorStoreService;
 import ai.efinsight.e_finsight.repository.TransactionRepository;
+import ai.efinsight.e_finsight.service.DataVersionService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -20,11 +29,22 @@ import java.util.regex.Pattern;
 public class AgentCoordinatorService {
     private static final Logger log = LoggerFactory.getLogger(AgentCoordinatorService.class);
 
-    private final SpendingAnalyst spendingAnalyst;
-    private final BudgetPlanner budgetPlanner;
-    private final InvestmentAdvisor investmentAdvisor;
+    private final AgentRegistry agentRegistry;
     private final RagService ragService;
     private final TransactionRepository transactionRepository;
+    private final AgentExecutor agentExecutor;
+    private final DataVersionService dataVersionService;
+    private final CombinedPlanner combinedPlanner;
+    private final AgentConfig agentConfig;
+
+    // Plan modes: one LLM call per section, or all sections in one structured call
+    public static final String MODE_AGENTS = "agents";
+    public static final String MODE_COMBINED = "combined";
+    private static final String COMBINED_TASK = "combined_plan";
+
+    private static final int CITATION_COUNT = 15;
+    // Matches retrieved per plan; agents re-rank this pool and take their own top 10
+    private static final int RETRIEVAL_POOL_SIZE = 30;
 
     // Pattern to parse transaction text: "Transaction: MERCHANT | Amount: -5.00 GBP | Category: PURCHASE | Date: 2025-11-14T00:00:00Z"
     private static final Pattern TRANSACTION_PATTERN = Pattern.compile(
@@ -32,52 +52,44 @@ public class AgentCoordinatorService {
     );
 
     public AgentCoordinatorService(
-            SpendingAnalyst spendingAnalyst,
-            BudgetPlanner budgetPlanner,
-            InvestmentAdvisor investmentAdvisor,
+            AgentRegistry agentRegistry,
             RagService ragService,
-            TransactionRepository transactionRepository) {
-        this.spendingAnalyst = spendingAnalyst;
-        this.budgetPlanner = budgetPlanner;
-        this.investmentAdvisor = investmentAdvisor;
+            TransactionRepository transactionRepository,
+            AgentExecutor agentExecutor,
+            DataVersionService dataVersionService,
+            CombinedPlanner combinedPlanner,
+            AgentConfig agentConfig) {
+        this.agentRegistry = agentRegistry;
         this.ragService = ragService;
         this.transactionRepository = transactionRepository;
+        this.agentExecutor = agentExecutor;
+        this.dataVersionService = dataVersionService;
+        this.combinedPlanner = combinedPlanner;
+        this.agentConfig = agentConfig;
     }
 
     // Generate a comprehensive plan for the user
     public PlanResponse generatePlan(Long userId, String query) {
         log.info("Generating comprehensive plan for user: {} with query: {}", userId, query);
         
-        List<RagService.RagContext> contexts = ragService.retrieveContext(userId, query, 15);
+        PlanExecutionContext context = createContext(userId, query);
         List<String> activeAgents = determineActiveAgents(query);
         
         Map<String, String> agentResponses = new HashMap<>();
-        List<CitationDto> citations = buildStructuredCitations(contexts);
-        
-        if (activeAgents.contains("spending")) {
-            try {
-                agentResponses.put("spending_analysis", spendingAnalyst.analyzeSpending(userId, query));
-            } catch (Exception e) {
-                log.error("Error in SpendingAnalyst", e);
-                agentResponses.put("spending_analysis", "Unable to analyze spending at this time. Error: " + e.getMessage());
-            }
-        }
+        List<CitationDto> citations = buildStructuredCitations(context);
         
-        if (activeAgents.contains("budget")) {
-            try {
-                agentResponses.put("budget_plan", budgetPlanner.createBudget(userId, query));
-            } catch (Exception e) {
-                log.error("Error in BudgetPlanner", e);
-                agentResponses.put("budget_plan", "Unable to create budget plan at this time. Error: " + e.getMessage());
-            }
-        }
-        
-        if (activeAgents.contains("investment")) {
-            try {
-                agentResponses.put("investment_advice", investmentAdvisor.provideAdvice(userId, query));
-            } catch (Exception e) {
-                log.error("Error in InvestmentAdvisor", e);
-                agentResponses.put("investment_advice", "Unable to provide investment advice at this time. Error: " + e.getMessage());
+        // Independent agents run concurrently; a failed or timed-out agent gets its fallback text
+        PlanExecutionContext run = forRun(context);
+        Map<String, AgentExecutor.AgentResult> results = agentExecutor.runGraph(
+            planGraph(activeAgents, agent -> inputs -> agent.run(run, inputs)));
+        for (Map.Entry<String, AgentExecutor.AgentResult> result : results.entrySet()) {
+            PlanAgent agent = agentRegistry.get(result.getKey());
+            if (result.getValue().isSuccess()) {
+                agentResponses.put(agent.section(), result.getValue().content);
+            } else {
+                Exception e = result.getValue().error;
+                log.error("Error in {}", agent.name(), e);
+                agentResponses.put(agent.section(), agent.fallback() + " Error: " + e.getMessage());
             }
         }
         
@@ -90,16 +102,52 @@ public class AgentCoordinatorService {
         return new PlanResponse(plan, citationStrings, agentResponses);
     }
 
-    // Build structured citations from RAG contexts
-    private List<CitationDto> buildStructuredCitations(List<RagService.RagContext> contexts) {
+    // Embed the query and search once, then load the matched transactions in a single query.
+    // Citations and every agent read from this instead of repeating the retrieval.
+    private PlanExecutionContext createContext(Long userId, String query) {
+        // Read before retrieving: if data changes meanwhile, answers land under the old version
+        long dataVersion = dataVersionService.getVersion(userId);
+        float[] queryEmbedding = null;
+        try {
+            queryEmbedding = ragService.embedQuery(userId, query);
+        } catch (Exception e) {
+            log.error("Error embedding query for user: {}", userId, e);
+        }
+
+        List<VectorStoreService.ChunkSimilarity> matches = ragService.searchWithScores(userId, queryEmbedding, RETRIEVAL_POOL_SIZE);
+        Set<Long> transactionIds = new HashSet<>();
+        for (VectorStoreService.ChunkSimilarity match : matches) {
+            transactionIds.add(match.chunk.getTransactionId());
+        }
+        Map<Long, Transaction> transactions = new HashMap<>();
+        for (Transaction transaction : transactionRepository.findAllById(transactionIds)) {
+            transactions.put(transaction.getId(), transaction);
+        }
+
+        log.info("Retrieved {} matches ({} transactions) for plan context", matches.size(), transactions.size());
+        return new PlanExecutionContext(userId, query, queryEmbedding, dataVersion, matches, transactions, 0);
+    }
+
+    // Each AgentExecutor run gives its agents agents.timeout-seconds from when it starts (when they run
+    // concurrently; inline runs have no limit), so the deadline is set per run. A fan-out after a timed-out
+    // combined call must not inherit the time that call used up.
+    private PlanExecutionContext forRun(PlanExecutionContext context) {
+        long deadlineNanos = agentConfig.isParallel()
+            ? System.nanoTime() + TimeUnit.SECONDS.toNanos(agentConfig.getTimeoutSeconds())
+            : 0;
+        return context.withDeadline(deadlineNanos);
+    }
+
+    // Build structured citations from the plan's top matches
+    private List<CitationDto> buildStructuredCitations(PlanExecutionContext context) {
         List<CitationDto> citations = new ArrayList<>();
         
-        for (RagService.RagContext ctx : contexts) {
+        for (RagService.RagContext ctx : context.topContexts(CITATION_COUNT)) {
             CitationDto citation = new CitationDto();
             citation.setTransactionId(ctx.sourceId);
             
-            // Try to fetch actual transaction for accurate data
-            Transaction transaction = transactionRepository.findById(ctx.sourceId).orElse(null);
+            // Use the transaction loaded with the context for accurate data
+            Transaction transaction = context.getTransaction(ctx.sourceId);
             
             if (transaction != null) {
                 // Use actual transaction data
@@ -202,48 +250,97 @@ public class AgentCoordinatorService {
 
     // Generate structured plan response DTO
     public PlanResponseDto generateStructuredPlan(Long userId, String query) {
-        log.info("Generating structured plan for user: {} with query: {}", userId, query);
-        
-        List<RagService.RagContext> contexts = ragService.retrieveContext(userId, query, 15);
+        return generateStructuredPlan(userId, query, null);
+    }
+
+    // mode is MODE_AGENTS or MODE_COMBINED; null uses agents.plan-mode
+    public PlanResponseDto generateStructuredPlan(Long userId, String query, String mode) {
+        String planMode = mode != null ? mode : agentConfig.getPlanMode();
+        if (!MODE_AGENTS.equalsIgnoreCase(planMode) && !MODE_COMBINED.equalsIgnoreCase(planMode)) {
+            throw new IllegalArgumentException("Unknown plan mode: " + planMode);
+        }
+        log.info("Generating structured plan for user: {} with query: {} (mode: {})", userId, query, planMode);
+
+        PlanExecutionContext context = createContext(userId, query);
         List<String> activeAgents = determineActiveAgents(query);
-        
+        List<CitationDto> citations = buildStructuredCitations(context);
+
+        if (MODE_COMBINED.equalsIgnoreCase(planMode)) {
+            PlanResponseDto plan = combinedPlan(context, activeAgents, citations);
+            if (plan != null) {
+                return plan;
+            }
+        }
+        return fanOutPlan(context, activeAgents, citations);
+    }
+
+    // One structured call for every active section. Returns null when the call fails or times out,
+    // so the caller can fall back to the per-agent fan-out with the same context.
+    private PlanResponseDto combinedPlan(PlanExecutionContext context, List<String> activeAgents, List<CitationDto> citations) {
+        PlanExecutionContext run = forRun(context);
+        AgentExecutor.AgentResult result = agentExecutor
+            .runAll(Map.of(COMBINED_TASK, () -> combinedPlanner.generatePlan(run, activeAgents)))
+            .get(COMBINED_TASK);
+        CombinedPlanner.CombinedPlan combined;
+        try {
+            if (!result.isSuccess()) {
+                throw result.error;
+            }
+            combined = combinedPlanner.parse(result.content);
+        } catch (Exception e) {
+            log.warn("Combined plan failed for user: {}, falling back to agents", context.getUserId(), e);
+            return null;
+        }
+
+        // Only requested sections are kept; one missing from the answer gets its fallback text, like a failed agent
         Map<String, String> agentResponses = new HashMap<>();
-        List<CitationDto> citations = buildStructuredCitations(contexts);
-        
-        // Execute agents
-        String spendingAnalysis = null;
-        String budgetPlan = null;
-        String investmentAdvice = null;
-        
+        PlanResponseDto.PlanSections sections = new PlanResponseDto.PlanSections();
         if (activeAgents.contains("spending")) {
-            try {
-                spendingAnalysis = spendingAnalyst.analyzeSpending(userId, query);
-                agentResponses.put("spending_analysis", spendingAnalysis);
-            } catch (Exception e) {
-                log.error("Error in SpendingAnalyst", e);
-                spendingAnalysis = "Unable to analyze spending at this time.";
-            }
+            sections.setSpendingAnalysis(section(agentResponses, "spending_analysis", combined.sections.getSpendingAnalysis()));
         }
-        
         if (activeAgents.contains("budget")) {
-            try {
-                budgetPlan = budgetPlanner.createBudget(userId, query);
-                agentResponses.put("budget_plan", budgetPlan);
-            } catch (Exception e) {
-                log.error("Error in BudgetPlanner", e);
-                budgetPlan = "Unable to create budget plan at this time.";
-            }
+            sections.setBudgetRecommendations(section(agentResponses, "budget_plan", combined.sections.getBudgetRecommendations()));
         }
-        
         if (activeAgents.contains("investment")) {
-            try {
-                investmentAdvice = investmentAdvisor.provideAdvice(userId, query);
-                agentResponses.put("investment_advice", investmentAdvice);
-            } catch (Exception e) {
-                log.error("Error in InvestmentAdvisor", e);
-                investmentAdvice = "Unable to provide investment advice at this time.";
+            sections.setInvestmentAdvice(section(agentResponses, "investment_advice", combined.sections.getInvestmentAdvice()));
+        }
+
+        String summary = combined.summary != null && !combined.summary.isBlank()
+            ? combined.summary
+            : extractSummary(sections.getSpendingAnalysis(), sections.getBudgetRecommendations(), sections.getInvestmentAdvice());
+        return new PlanResponseDto(true, context.getQuery(), summary, sections, citations, agentResponses);
+    }
+
+    private String section(Map<String, String> agentResponses, String section, String content) {
+        if (content == null || content.isBlank()) {
+            return agentRegistry.get(section).fallback();
+        }
+        agentResponses.put(section, content);
+        return content;
+    }
+
+    private PlanResponseDto fanOutPlan(PlanExecutionContext context, List<String> activeAgents, List<CitationDto> citations) {
+        String query = context.getQuery();
+        Map<String, String> agentResponses = new HashMap<>();
+
+        // Execute agents concurrently, each as soon as the sections it reads are done
+        Map<String, String> sectionTexts = new HashMap<>();
+        PlanExecutionContext run = forRun(context);
+        Map<String, AgentExecutor.AgentResult> results = agentExecutor.runGraph(
+            planGraph(activeAgents, agent -> inputs -> agent.run(run, inputs)));
+        for (Map.Entry<String, AgentExecutor.AgentResult> result : results.entrySet()) {
+            PlanAgent agent = agentRegistry.get(result.getKey());
+            if (result.getValue().isSuccess()) {
+                sectionTexts.put(agent.section(), result.getValue().content);
+                agentResponses.put(agent.section(), result.getValue().content);
+            } else {
+                log.error("Error in {}", agent.name(), result.getValue().error);
+                sectionTexts.put(agent.section(), agent.fallback());
             }
         }
+        String spendingAnalysis = sectionTexts.get("spending_analysis");
+        String budgetPlan = sectionTexts.get("budget_plan");
+        String investmentAdvice = sectionTexts.get("investment_advice");
         
         // Extract summary from spending analysis (first paragraph)
         String summary = extractSummary(spendingAnalysis, budgetPlan, investmentAdvice);
@@ -258,6 +355,118 @@ public class AgentCoordinatorService {
         return new PlanResponseDto(true, query, summary, sections, citations, agentResponses);
     }
 
+    // Same plan as generateStructuredPlan, delivered incrementally: citations as soon as retrieval is done,
+    // then each section's tokens while the agent generates them. Returns the assembled response at the end.
+    public PlanResponseDto streamStructuredPlan(Long userId, String query, PlanStreamListener listener) {
+        log.info("Streaming structured plan for user: {} with query: {}", userId, query);
+
+        PlanExecutionContext context = createContext(userId, query);
+        List<CitationDto> citations = buildStructuredCitations(context);
+        listener.onCitations(citations);
+
+        List<String> activeAgents = determineActiveAgents(query);
+        Map<String, String> agentResponses = new HashMap<>();
+
+        // Independent sections stream concurrently, so their token events interleave (each carries its section);
+        // a section that reads another starts once that one is complete. Listener calls are serialized here
+        // so implementations need not be thread-safe.
+        PlanStreamListener serialized = synchronizedListener(listener);
+        PlanExecutionContext run = forRun(context);
+        Map<String, AgentExecutor.GraphNode> graph = planGraph(activeAgents, agent -> inputs -> streamSection(agent.section(),
+            serialized, onToken -> agent.stream(run, inputs, onToken)));
+
+        Map<String, String> sectionTexts = new HashMap<>();
+        for (Map.Entry<String, AgentExecutor.AgentResult> result : agentExecutor.runGraph(graph).entrySet()) {
+            String section = result.getKey();
+            String fallback = agentRegistry.get(section).fallback();
+            AgentExecutor.AgentResult outcome = result.getValue();
+            if (outcome.error instanceof ListenerFailedException) {
+                throw (RuntimeException) outcome.error.getCause();
+            }
+            if (outcome.isSuccess()) {
+                sectionTexts.put(section, outcome.content);
+                agentResponses.put(section, outcome.content);
+            } else {
+                // Timed out (or failed outside the agent): close the section with the fallback
+                log.error("Error streaming {}", section, outcome.error);
+                sectionTexts.put(section, fallback);
+                serialized.onSectionComplete(section, fallback);
+            }
+        }
+        String spendingAnalysis = sectionTexts.get("spending_analysis");
+        String budgetPlan = sectionTexts.get("budget_plan");
+        String investmentAdvice = sectionTexts.get("investment_advice");
+
+        String summary = extractSummary(spendingAnalysis, budgetPlan, investmentAdvice);
+        PlanResponseDto.PlanSections sections = new PlanResponseDto.PlanSections(
+            spendingAnalysis,
+            budgetPlan,
+            investmentAdvice
+        );
+        return new PlanResponseDto(true, query, summary, sections, citations, agentResponses);
+    }
+
+    // Agent failures propagate to the caller, which applies the fallback; listener failures (client gone)
+    // are wrapped in ListenerFailedException so they abort the whole plan instead
+    private String streamSection(String section, PlanStreamListener listener, Function<Consumer<String>, String> agent) {
+        notify(() -> listener.onSectionStart(section));
+        String content = agent.apply(token -> notify(() -> listener.onToken(section, token)));
+        notify(() -> listener.onSectionComplete(section, content));
+        return content;
+    }
+
+    private void notify(Runnable listenerCall) {
+        try {
+            listenerCall.run();
+        } catch (RuntimeException e) {
+            throw new ListenerFailedException(e);
+        }
+    }
+
+    private PlanStreamListener synchronizedListener(PlanStreamListener listener) {
+        return new PlanStreamListener() {
+            @Override
+            public synchronized void onCitations(List<CitationDto> citations) {
+                listener.onCitations(citations);
+            }
+
+            @Override
+            public synchronized void onSectionStart(String section) {
+                listener.onSectionStart(section);
+            }
+
+            @Override
+            public synchronized void onToken(String section, String token) {
+                listener.onToken(section, token);
+            }
+
+            @Override
+            public synchronized void onSectionComplete(String section, String content) {
+                listener.onSectionComplete(section, content);
+            }
+        };
+    }
+
+    // Section key -> node for each active agent, in dependency order. An agent reads the sections it
+    // declares as inputs when they are in this plan too; one asked about on its own works from the
+    // retrieved transactions alone rather than waiting for an upstream section nobody asked for.
+    private Map<String, AgentExecutor.GraphNode> planGraph(List<String> activeAgents,
+                                                           Function<PlanAgent, AgentExecutor.NodeCall> call) {
+        List<PlanAgent> agents = agentRegistry.plan(activeAgents);
+        Set<String> planned = new HashSet<>();
+        for (PlanAgent agent : agents) {
+            planned.add(agent.section());
+        }
+        Map<String, AgentExecutor.GraphNode> graph = new LinkedHashMap<>();
+        for (PlanAgent agent : agents) {
+            List<String> inputs = agentConfig.isUpstreamInputsEnabled()
+                ? agent.inputs().stream().filter(planned::contains).toList()
+                : List.of();
+            graph.put(agent.section(), new AgentExecutor.GraphNode(inputs, call.apply(agent)));
+        }
+        return graph;
+    }
+
     // Extract a concise summary from agent responses
     private String extractSummary(String spendingAnalysis, String budgetPlan, String investmentAdvice) {
         if (spendingAnalysis != null && !spendingAnalysis.isEmpty()) {
@@ -284,6 +493,13 @@ public class AgentCoordinatorService {
         return "Financial analysis based on your transaction history.";
     }
 
+    // Marks listener failures so they are not mistaken for agent failures
+    private static class ListenerFailedException extends RuntimeException {
+        ListenerFailedException(RuntimeException cause) {
+            super(cause);
+        }
+    }
+
     // Plan response is the response from the agent coordinator service
     public static class PlanResponse {
         private final String plan;
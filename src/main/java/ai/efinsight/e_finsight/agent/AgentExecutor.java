@@ -0,0 +1,238 @@
+package ai.efinsight.e_finsight.agent;
+
+import ai.efinsight.e_finsight.config.AgentConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs a plan's agents side by side, so a plan takes as long as its slowest chain of dependent agents
+ * rather than the sum of all of them. Agents run on virtual threads, bounded by agents.max-concurrency
+ * across all requests. Each agent has until a shared deadline; an agent that misses it is cancelled.
+ * Cancelling interrupts its thread, which aborts the in-flight HTTP call.
+ */
+@Component
+public class AgentExecutor {
+    private static final Logger log = LoggerFactory.getLogger(AgentExecutor.class);
+
+    private final AgentConfig config;
+    private final MeterRegistry meterRegistry;
+    private final Semaphore permits;
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("agent-", 0).factory());
+
+    public AgentExecutor(AgentConfig config, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.meterRegistry = meterRegistry;
+        this.permits = new Semaphore(Math.max(1, config.getMaxConcurrency()));
+    }
+
+    // Runs every task and returns one result per name, in the given order. Never throws for a task's
+    // failure; callers decide the fallback per agent.
+    public Map<String, AgentResult> runAll(Map<String, Callable<String>> tasks) {
+        Map<String, GraphNode> nodes = new LinkedHashMap<>();
+        for (Map.Entry<String, Callable<String>> task : tasks.entrySet()) {
+            nodes.put(task.getKey(), new GraphNode(List.of(), inputs -> task.getValue().call()));
+        }
+        return runGraph(nodes);
+    }
+
+    // Runs a dependency graph of tasks and returns one result per name, in the given order. A node must
+    // come after the nodes it reads; it starts as soon as they have all finished, so nodes that do not
+    // depend on each other run side by side. A failed or timed-out input does not fail the node: it runs
+    // without that input. Every node shares the one deadline.
+    public Map<String, AgentResult> runGraph(Map<String, GraphNode> nodes) {
+        checkOrder(nodes);
+        Map<String, AgentResult> results = new LinkedHashMap<>();
+        if (!config.isParallel()) {
+            for (Map.Entry<String, GraphNode> node : nodes.entrySet()) {
+                Map<String, String> inputs = completedInputs(node.getValue(), results);
+                results.put(node.getKey(), runInline(node.getKey(), () -> node.getValue().call.call(inputs)));
+            }
+            return results;
+        }
+
+        Map<String, Future<String>> futures = new LinkedHashMap<>();
+        // Set once the waiting side gives up on this plan's agents
+        AtomicBoolean cancelled = new AtomicBoolean();
+        for (Map.Entry<String, GraphNode> node : nodes.entrySet()) {
+            Map<String, Future<String>> inputs = new LinkedHashMap<>();
+            for (String input : node.getValue().inputs) {
+                inputs.put(input, futures.get(input));
+            }
+            futures.put(node.getKey(), executor.submit(() -> {
+                Map<String, String> upstream = awaitInputs(inputs);
+                return runWithPermit(node.getKey(), () -> node.getValue().call.call(upstream), cancelled);
+            }));
+        }
+
+        long submitted = System.nanoTime();
+        long deadline = submitted + TimeUnit.SECONDS.toNanos(config.getTimeoutSeconds());
+        try {
+            for (Map.Entry<String, Future<String>> future : futures.entrySet()) {
+                results.put(future.getKey(), await(future.getKey(), future.getValue(), submitted, deadline, cancelled));
+            }
+        } finally {
+            // Interrupted (request cancelled) or a result missing: don't leave agents generating for nobody
+            for (Future<String> future : futures.values()) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    private static void checkOrder(Map<String, GraphNode> nodes) {
+        Set<String> seen = new HashSet<>();
+        for (Map.Entry<String, GraphNode> node : nodes.entrySet()) {
+            for (String input : node.getValue().inputs) {
+                if (!seen.contains(input)) {
+                    throw new IllegalArgumentException("Node " + node.getKey() + " reads " + input + ", which does not come before it");
+                }
+            }
+            seen.add(node.getKey());
+        }
+    }
+
+    // Inputs are awaited before taking a permit, so waiting nodes never hold slots the running ones need
+    private static Map<String, String> awaitInputs(Map<String, Future<String>> inputs) throws InterruptedException {
+        Map<String, String> outputs = new LinkedHashMap<>();
+        for (Map.Entry<String, Future<String>> input : inputs.entrySet()) {
+            try {
+                outputs.put(input.getKey(), input.getValue().get());
+            } catch (ExecutionException | CancellationException e) {
+                // Failed or timed out: the node runs without it
+            }
+        }
+        return outputs;
+    }
+
+    private static Map<String, String> completedInputs(GraphNode node, Map<String, AgentResult> results) {
+        Map<String, String> outputs = new LinkedHashMap<>();
+        for (String input : node.inputs) {
+            AgentResult result = results.get(input);
+            if (result.isSuccess()) {
+                outputs.put(input, result.content);
+            }
+        }
+        return outputs;
+    }
+
+    private AgentResult await(String agent, Future<String> future, long submitted, long deadline, AtomicBoolean cancelled) {
+        try {
+            return AgentResult.success(future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+        } catch (TimeoutException e) {
+            cancelled.set(true);
+            future.cancel(true);
+            log.warn("Agent {} timed out after {}s and was cancelled", agent, config.getTimeoutSeconds());
+            record(agent, "timeout", System.nanoTime() - submitted);
+            return AgentResult.failure(new TimeoutException("Agent " + agent + " timed out after " + config.getTimeoutSeconds() + "s"));
+        } catch (ExecutionException e) {
+            return AgentResult.failure(e.getCause() instanceof Exception cause ? cause : e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return AgentResult.failure(e);
+        }
+    }
+
+    private String runWithPermit(String agent, Callable<String> task, AtomicBoolean cancelled) throws Exception {
+        permits.acquire();
+        try {
+            long start = System.nanoTime();
+            String outcome = "error";
+            try {
+                String result = task.call();
+                outcome = "success";
+                return result;
+            } finally {
+                // A cancelled agent is recorded once, as a timeout, by the waiting side
+                if (!cancelled.get() || "success".equals(outcome)) {
+                    record(agent, outcome, System.nanoTime() - start);
+                }
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private AgentResult runInline(String agent, Callable<String> task) {
+        long start = System.nanoTime();
+        try {
+            String result = task.call();
+            record(agent, "success", System.nanoTime() - start);
+            return AgentResult.success(result);
+        } catch (Exception e) {
+            record(agent, "error", System.nanoTime() - start);
+            return AgentResult.failure(e);
+        }
+    }
+
+    private void record(String agent, String outcome, long nanos) {
+        Timer.builder("agent.execution")
+            .tag("agent", agent)
+            .tag("outcome", outcome)
+            .register(meterRegistry)
+            .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // A task in a plan graph: the nodes whose output it reads, and the call that receives their outputs
+    public static class GraphNode {
+        public final List<String> inputs;
+        public final NodeCall call;
+
+        public GraphNode(List<String> inputs, NodeCall call) {
+            this.inputs = List.copyOf(inputs);
+            this.call = call;
+        }
+    }
+
+    @FunctionalInterface
+    public interface NodeCall {
+        // inputs holds the output of each input node that succeeded
+        String call(Map<String, String> inputs) throws Exception;
+    }
+
+    public static class AgentResult {
+        public final String content;
+        public final Exception error;
+
+        private AgentResult(String content, Exception error) {
+            this.content = content;
+            this.error = error;
+        }
+
+        static AgentResult success(String content) {
+            return new AgentResult(content, null);
+        }
+
+        static AgentResult failure(Exception error) {
+            return new AgentResult(null, error);
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package ai.efinsight.e_finsight.agent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Every PlanAgent bean, in dependency order: each agent comes after the sections it reads, otherwise
+ * in @Order (plan) order. Unknown inputs and dependency cycles fail at startup.
+ */
+@Component
+public class AgentRegistry {
+    private static final Logger log = LoggerFactory.getLogger(AgentRegistry.class);
+
+    private final List<PlanAgent> agents;
+    private final Map<String, PlanAgent> bySection = new LinkedHashMap<>();
+
+    public AgentRegistry(List<PlanAgent> agents) {
+        for (PlanAgent agent : agents) {
+            if (bySection.put(agent.section(), agent) != null) {
+                throw new IllegalStateException("Two agents write section " + agent.section());
+            }
+        }
+        for (PlanAgent agent : agents) {
+            for (String input : agent.inputs()) {
+                if (!bySection.containsKey(input)) {
+                    throw new IllegalStateException(agent.name() + " reads unknown section " + input);
+                }
+            }
+        }
+        this.agents = dependencyOrder(agents);
+        log.info("Plan agents: {}", this.agents.stream()
+            .map(agent -> agent.inputs().isEmpty() ? agent.name() : agent.name() + " <- " + agent.inputs())
+            .toList());
+    }
+
+    // Repeatedly takes the first agent whose inputs are all placed; stable, so independent agents keep their order
+    private static List<PlanAgent> dependencyOrder(List<PlanAgent> agents) {
+        List<PlanAgent> remaining = new ArrayList<>(agents);
+        List<PlanAgent> ordered = new ArrayList<>();
+        Set<String> placed = new HashSet<>();
+        while (!remaining.isEmpty()) {
+            PlanAgent next = remaining.stream()
+                .filter(agent -> placed.containsAll(agent.inputs()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("Agent inputs form a cycle: "
+                    + remaining.stream().map(PlanAgent::name).collect(Collectors.joining(", "))));
+            remaining.remove(next);
+            ordered.add(next);
+            placed.add(next.section());
+        }
+        return List.copyOf(ordered);
+    }
+
+    public PlanAgent get(String section) {
+        return bySection.get(section);
+    }
+
+    // Agents activated by the given topics, in dependency order
+    public List<PlanAgent> plan(Collection<String> topics) {
+        return agents.stream().filter(agent -> topics.contains(agent.topic())).toList();
+    }
+}
@@ -0,0 +1,164 @@
+package ai.efinsight.e_finsight.agent;
+
+import ai.efinsight.e_finsight.config.AgentConfig;
+import ai.efinsight.e_finsight.rag.CacheStats;
+import ai.efinsight.e_finsight.rag.VectorStoreService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Semantic cache of agent answers. Entries are grouped by (user, agent, data version) and matched
+ * by the cosine similarity of the query embedding, so a paraphrase of an earlier question gets
+ * the earlier answer. Callers fold anything else the answer depends on (answer variant, upstream
+ * sections) into the agent key. New transactions bump the user's data version, which makes older entries
+ * unreachable. Bounded by agents.response-cache-max-entries (least recently used groups go first)
+ * and by a TTL.
+ */
+@Component
+public class AgentResponseCache implements CacheStats {
+
+    // Nearest-neighbour lookup is a linear scan, so each group keeps only its latest answers
+    private static final int MAX_ENTRIES_PER_KEY = 16;
+
+    private final AgentConfig config;
+    private final Map<String, Deque<Entry>> groups = new LinkedHashMap<>(256, 0.75f, true);
+    private int entryCount;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public AgentResponseCache(AgentConfig config, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.hits = meterRegistry.counter("agent.response.cache", "result", "hit");
+        this.misses = meterRegistry.counter("agent.response.cache", "result", "miss");
+    }
+
+    public boolean isEnabled() {
+        return config.isResponseCacheEnabled() && config.getResponseCacheMaxEntries() > 0;
+    }
+
+    // The cached answer closest to the query embedding, if it is at least as similar as the threshold
+    public String lookup(Long userId, String agent, long dataVersion, float[] queryEmbedding) {
+        if (!isEnabled() || queryEmbedding == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        String best = null;
+        double bestSimilarity = config.getResponseCacheSimilarity();
+        synchronized (groups) {
+            Deque<Entry> entries = groups.get(key(userId, agent, dataVersion));
+            if (entries != null) {
+                for (Iterator<Entry> it = entries.iterator(); it.hasNext(); ) {
+                    Entry entry = it.next();
+                    if (entry.expiresAt < now) {
+                        it.remove();
+                        entryCount--;
+                        continue;
+                    }
+                    double similarity = VectorStoreService.cosineSimilarity(queryEmbedding, entry.queryEmbedding);
+                    if (similarity >= bestSimilarity) {
+                        bestSimilarity = similarity;
+                        best = entry.response;
+                    }
+                }
+            }
+        }
+        (best != null ? hits : misses).increment();
+        return best;
+    }
+
+    public void store(Long userId, String agent, long dataVersion, float[] queryEmbedding, String response) {
+        if (!isEnabled() || queryEmbedding == null || response == null) {
+            return;
+        }
+        Entry entry = new Entry(queryEmbedding, response, System.currentTimeMillis() + config.getResponseCacheTtlSeconds() * 1000L);
+        synchronized (groups) {
+            Deque<Entry> entries = groups.computeIfAbsent(key(userId, agent, dataVersion), key -> new ArrayDeque<>());
+            entries.addFirst(entry);
+            entryCount++;
+            if (entries.size() > MAX_ENTRIES_PER_KEY) {
+                entries.removeLast();
+                entryCount--;
+            }
+            evict();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Deque<Entry>>> it = groups.entrySet().iterator();
+        while (entryCount > config.getResponseCacheMaxEntries() && it.hasNext()) {
+            entryCount -= it.next().getValue().size();
+            it.remove();
+        }
+    }
+
+    private static String key(Long userId, String agent, long dataVersion) {
+        return userId + ":" + agent + ":" + dataVersion;
+    }
+
+    @Override
+    public String getCacheName() {
+        return "agent-response";
+    }
+
+    @Override
+    public long getSize() {
+        synchronized (groups) {
+            return entryCount;
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return (long) hits.count();
+    }
+
+    @Override
+    public long getMissCount() {
+        return (long) misses.count();
+    }
+
+    @Override
+    public long getEstimatedBytes() {
+        return estimateBytes(null);
+    }
+
+    @Override
+    public long getEstimatedBytesForUser(Long userId) {
+        return estimateBytes(userId);
+    }
+
+    private long estimateBytes(Long userId) {
+        synchronized (groups) {
+            long bytes = 0;
+            for (Map.Entry<String, Deque<Entry>> group : groups.entrySet()) {
+                if (userId != null && !group.getKey().startsWith(userId + ":")) {
+                    continue;
+                }
+                for (Entry entry : group.getValue()) {
+                    bytes += 64 + 16 + 4L * entry.queryEmbedding.length + 40 + 2L * entry.response.length();
+                }
+            }
+            return bytes;
+        }
+    }
+
+    private static class Entry {
+        final float[] queryEmbedding;
+        final String response;
+        final long expiresAt;
+
+        Entry(float[] queryEmbedding, String response, long expiresAt) {
+            this.queryEmbedding = queryEmbedding;
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
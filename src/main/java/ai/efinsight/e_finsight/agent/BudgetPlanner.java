@@ -3,12 +3,18 @@ package ai.efinsight.e_finsight.agent;
 import ai.efinsight.e_finsight.rag.RagService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 @Component
-public class BudgetPlanner {
+@Order(2)
+public class BudgetPlanner implements PlanAgent {
     private static final Logger log = LoggerFactory.getLogger(BudgetPlanner.class);
 
     private static final String SYSTEM_PROMPT = """
@@ -25,31 +31,81 @@ public class BudgetPlanner {
         Be specific with amounts and categories. Use the transaction data to inform your recommendations.
         """;
 
-    private final RagService ragService;
+    // A budget is planned from current habits, so last month's transactions win close similarity ties
+    private static final double RECENT_BOOST = 0.05;
+    private static final Duration RECENT_WINDOW = Duration.ofDays(30);
+    private static final int CONTEXT_SIZE = 10;
+    // With the spending analysis summarized in the prompt, fewer raw transactions are needed
+    private static final int CONTEXT_SIZE_WITH_INPUTS = 5;
+
     private final LLMAgent llmAgent;
+    private final PromptBuilder promptBuilder;
 
-    public BudgetPlanner(RagService ragService, LLMAgent llmAgent) {
-        this.ragService = ragService;
+    public BudgetPlanner(LLMAgent llmAgent, PromptBuilder promptBuilder) {
         this.llmAgent = llmAgent;
+        this.promptBuilder = promptBuilder;
     }
 
-    public String createBudget(Long userId, String query) {
-        log.info("BudgetPlanner creating budget for user: {}", userId);
-        
-        List<RagService.RagContext> contexts = ragService.retrieveContext(userId, query, 10);
-        String contextString = ragService.buildContextString(contexts);
-        
-        String userPrompt = String.format("""
-            Based on the following transaction data, create a comprehensive budget plan:
-            
-            %s
-            
-            User's question: %s
-            
-            Provide a detailed budget plan with specific category allocations and recommendations.
-            """, contextString, query);
-        
-        return llmAgent.generateResponse(SYSTEM_PROMPT, userPrompt);
+    @Override
+    public String name() {
+        return "BudgetPlanner";
+    }
+
+    @Override
+    public String section() {
+        return "budget_plan";
+    }
+
+    @Override
+    public String topic() {
+        return "budget";
+    }
+
+    // A budget starts from where the money goes now, so it reads the spending analysis
+    @Override
+    public List<String> inputs() {
+        return List.of("spending_analysis");
+    }
+
+    @Override
+    public String fallback() {
+        return "Unable to create budget plan at this time.";
+    }
+
+    // Plan variants: slice the coordinator's shared retrieval instead of embedding and searching again;
+    // answers are cached per user, data version and upstream sections (see AgentResponseCache)
+    @Override
+    public String run(PlanExecutionContext context, Map<String, String> inputs) {
+        return llmAgent.generateResponse(context, name(), SYSTEM_PROMPT, inputs, () -> buildPrompt(context, inputs));
+    }
+
+    @Override
+    public String stream(PlanExecutionContext context, Map<String, String> inputs, Consumer<String> onToken) {
+        return llmAgent.streamResponse(context, name(), SYSTEM_PROMPT, inputs, () -> buildPrompt(context, inputs), onToken);
+    }
+
+    private String buildPrompt(PlanExecutionContext context, Map<String, String> inputs) {
+        log.info("BudgetPlanner creating budget for user: {}", context.getUserId());
+        Instant recent = Instant.now().minus(RECENT_WINDOW);
+        List<RagService.RagContext> contexts = context.rerankedContexts(inputs.isEmpty() ? CONTEXT_SIZE : CONTEXT_SIZE_WITH_INPUTS,
+            transaction -> transaction.getTimestamp() != null && transaction.getTimestamp().isAfter(recent) ? RECENT_BOOST : 0);
+        return buildPrompt(inputs, contexts, context.getQuery());
+    }
+
+    // Contexts are in rank order; the prompt builder drops the lowest-ranked ones beyond the token budget.
+    // Summaries of the sections read come first, so the model budgets from them instead of redoing the analysis.
+    private String buildPrompt(Map<String, String> inputs, List<RagService.RagContext> contexts, String query) {
+        String reuse = inputs.isEmpty() ? "" : " Build on the findings above rather than repeating them.";
+        return promptBuilder.buildUserPrompt(name(), SYSTEM_PROMPT, inputs, contexts,
+            contextString -> String.format("""
+                Based on the following transaction data, create a comprehensive budget plan:
+                
+                %s
+                
+                User's question: %s
+                
+                Provide a detailed budget plan with specific category allocations and recommendations.%s
+                """, contextString, query, reuse));
     }
 }
 
@@ -0,0 +1,123 @@
+package ai.efinsight.e_finsight.agent;
+
+import ai.efinsight.e_finsight.dto.PlanResponseDto;
+import ai.efinsight.e_finsight.rag.RagService;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single-call alternative to the agent fan-out: one system prompt covering the spending, budget and
+ * investment roles, the shared context sent once, and a JSON answer (structured output) with one
+ * field per requested section, parsed straight into {@link PlanResponseDto.PlanSections}.
+ */
+@Component
+public class CombinedPlanner {
+    private static final Logger log = LoggerFactory.getLogger(CombinedPlanner.class);
+
+    private static final String AGENT_NAME = "CombinedPlanner";
+    private static final String SCHEMA_NAME = "financial_plan";
+    private static final String SUMMARY_FIELD = "summary";
+    // The union of what the three agents would each have picked from the shared pool
+    private static final int CONTEXT_SIZE = 15;
+
+    private static final String SPENDING_ROLE = """
+        spendingAnalysis - act as a financial spending analyst: spending categories and amounts, recurring
+        expenses, unusual or large transactions, trends over time, and areas where spending could be optimized.
+        """;
+    private static final String BUDGET_ROLE = """
+        budgetRecommendations - act as a budget planning expert: category-based budgets with realistic limits
+        from the spending history, monthly/weekly breakdowns, areas for cost reduction and savings goals.
+        """;
+    private static final String INVESTMENT_ROLE = """
+        investmentAdvice - act as an investment advisor: disposable income from the spending patterns,
+        strategies (savings accounts, stocks, bonds, etc.) at an appropriate risk level and actionable steps.
+        Be realistic and conservative.
+        """;
+
+    private final LLMAgent llmAgent;
+    private final PromptBuilder promptBuilder;
+    private final ObjectMapper objectMapper = new ObjectMapper()
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    public CombinedPlanner(LLMAgent llmAgent, PromptBuilder promptBuilder) {
+        this.llmAgent = llmAgent;
+        this.promptBuilder = promptBuilder;
+    }
+
+    // activeAgents uses the coordinator's names ("spending", "budget", "investment"). Returns the raw
+    // JSON answer; see parse.
+    public String generatePlan(PlanExecutionContext context, List<String> activeAgents) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder roles = new StringBuilder();
+        if (activeAgents.contains("spending")) {
+            fields.add("spendingAnalysis");
+            roles.append("- ").append(SPENDING_ROLE);
+        }
+        if (activeAgents.contains("budget")) {
+            fields.add("budgetRecommendations");
+            roles.append("- ").append(BUDGET_ROLE);
+        }
+        if (activeAgents.contains("investment")) {
+            fields.add("investmentAdvice");
+            roles.append("- ").append(INVESTMENT_ROLE);
+        }
+        fields.add(SUMMARY_FIELD);
+
+        String systemPrompt = """
+            You are a team of financial experts answering together from the user's transaction data.
+            Respond with a single JSON object. Write each field as markdown text:
+            %s- summary - one or two sentences summarizing the most important findings.
+
+            Be specific, data-driven and actionable, with concrete examples from the transactions.
+            """.formatted(roles);
+
+        // Cached per section set, so a spending-only answer is never served for a full plan
+        return llmAgent.generateJsonResponse(context, AGENT_NAME, String.join(",", fields), systemPrompt,
+            () -> buildPrompt(context, systemPrompt), SCHEMA_NAME, fields);
+    }
+
+    private String buildPrompt(PlanExecutionContext context, String systemPrompt) {
+        log.info("CombinedPlanner creating plan for user: {}", context.getUserId());
+        List<RagService.RagContext> contexts = context.topContexts(CONTEXT_SIZE);
+        return promptBuilder.buildUserPrompt(AGENT_NAME, systemPrompt, contexts,
+            contextString -> String.format("""
+                Based on the following transaction data:
+
+                %s
+
+                User's question: %s
+                """, contextString, context.getQuery()));
+    }
+
+    // Sections that were not requested stay null
+    public CombinedPlan parse(String response) {
+        try {
+            JsonNode json = objectMapper.readTree(response);
+            if (json == null || !json.isObject()) {
+                throw new IllegalStateException("Expected a JSON object");
+            }
+            PlanResponseDto.PlanSections sections = objectMapper.treeToValue(json, PlanResponseDto.PlanSections.class);
+            String summary = json.path(SUMMARY_FIELD).isTextual() ? json.get(SUMMARY_FIELD).asText() : null;
+            return new CombinedPlan(sections, summary);
+        } catch (Exception e) {
+            throw new RuntimeException("Combined plan response is not valid JSON: " + e.getMessage(), e);
+        }
+    }
+
+    public static class CombinedPlan {
+        public final PlanResponseDto.PlanSections sections;
+        public final String summary;
+
+        public CombinedPlan(PlanResponseDto.PlanSections sections, String summary) {
+            this.sections = sections;
+            this.summary = summary;
+        }
+    }
+}
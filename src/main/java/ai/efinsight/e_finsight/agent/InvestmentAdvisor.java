@@ -3,12 +3,16 @@ package ai.efinsight.e_finsight.agent;
 import ai.efinsight.e_finsight.rag.RagService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 @Component
-public class InvestmentAdvisor {
+@Order(3)
+public class InvestmentAdvisor implements PlanAgent {
     private static final Logger log = LoggerFactory.getLogger(InvestmentAdvisor.class);
 
     private static final String SYSTEM_PROMPT = """
@@ -25,31 +29,78 @@ public class InvestmentAdvisor {
         Be realistic and conservative. Base recommendations on actual financial data.
         """;
 
-    private final RagService ragService;
+    // Income and transfers show what is available to invest, so they win close similarity ties
+    private static final double CREDIT_BOOST = 0.05;
+    private static final int CONTEXT_SIZE = 10;
+    // The spending summary already covers outgoings; the remaining chunks are mostly income
+    private static final int CONTEXT_SIZE_WITH_INPUTS = 5;
+
     private final LLMAgent llmAgent;
+    private final PromptBuilder promptBuilder;
 
-    public InvestmentAdvisor(RagService ragService, LLMAgent llmAgent) {
-        this.ragService = ragService;
+    public InvestmentAdvisor(LLMAgent llmAgent, PromptBuilder promptBuilder) {
         this.llmAgent = llmAgent;
+        this.promptBuilder = promptBuilder;
     }
 
-    public String provideAdvice(Long userId, String query) {
-        log.info("InvestmentAdvisor providing advice for user: {}", userId);
-        
-        List<RagService.RagContext> contexts = ragService.retrieveContext(userId, query, 10);
-        String contextString = ragService.buildContextString(contexts);
-        
-        String userPrompt = String.format("""
-            Based on the following transaction data, provide investment recommendations:
-            
-            %s
-            
-            User's question: %s
-            
-            Provide detailed investment advice with specific recommendations and strategies.
-            """, contextString, query);
-        
-        return llmAgent.generateResponse(SYSTEM_PROMPT, userPrompt);
+    @Override
+    public String name() {
+        return "InvestmentAdvisor";
+    }
+
+    @Override
+    public String section() {
+        return "investment_advice";
+    }
+
+    @Override
+    public String topic() {
+        return "investment";
+    }
+
+    // What can be invested follows from what is spent; independent of the budget, so both run side by side
+    @Override
+    public List<String> inputs() {
+        return List.of("spending_analysis");
+    }
+
+    @Override
+    public String fallback() {
+        return "Unable to provide investment advice at this time.";
+    }
+
+    // Plan variants: slice the coordinator's shared retrieval instead of embedding and searching again;
+    // answers are cached per user, data version and upstream sections (see AgentResponseCache)
+    @Override
+    public String run(PlanExecutionContext context, Map<String, String> inputs) {
+        return llmAgent.generateResponse(context, name(), SYSTEM_PROMPT, inputs, () -> buildPrompt(context, inputs));
+    }
+
+    @Override
+    public String stream(PlanExecutionContext context, Map<String, String> inputs, Consumer<String> onToken) {
+        return llmAgent.streamResponse(context, name(), SYSTEM_PROMPT, inputs, () -> buildPrompt(context, inputs), onToken);
+    }
+
+    private String buildPrompt(PlanExecutionContext context, Map<String, String> inputs) {
+        log.info("InvestmentAdvisor providing advice for user: {}", context.getUserId());
+        List<RagService.RagContext> contexts = context.rerankedContexts(inputs.isEmpty() ? CONTEXT_SIZE : CONTEXT_SIZE_WITH_INPUTS,
+            transaction -> "CREDIT".equalsIgnoreCase(transaction.getTransactionType()) ? CREDIT_BOOST : 0);
+        return buildPrompt(inputs, contexts, context.getQuery());
+    }
+
+    // Contexts are in rank order; the prompt builder drops the lowest-ranked ones beyond the token budget
+    private String buildPrompt(Map<String, String> inputs, List<RagService.RagContext> contexts, String query) {
+        String reuse = inputs.isEmpty() ? "" : " Build on the findings above rather than repeating them.";
+        return promptBuilder.buildUserPrompt(name(), SYSTEM_PROMPT, inputs, contexts,
+            contextString -> String.format("""
+                Based on the following transaction data, provide investment recommendations:
+                
+                %s
+                
+                User's question: %s
+                
+                Provide detailed investment advice with specific recommendations and strategies.%s
+                """, contextString, query, reuse));
     }
 }
 
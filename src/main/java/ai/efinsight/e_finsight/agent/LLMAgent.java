@@ -1,18 +1,107 @@
 package ai.efinsight.e_finsight.agent;
 
 import ai.efinsight.e_finsight.llm.LLMClient;
+import ai.efinsight.e_finsight.llm.ModelRouter;
+import ai.efinsight.e_finsight.util.Hashing;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
 @Component
 public class LLMAgent {
+    private static final Logger log = LoggerFactory.getLogger(LLMAgent.class);
+
     private final LLMClient llmClient;
+    private final AgentResponseCache responseCache;
+    private final ObjectMapper objectMapper = new ObjectMapper();
 
-    public LLMAgent(LLMClient llmClient) {
+    public LLMAgent(LLMClient llmClient, AgentResponseCache responseCache) {
         this.llmClient = llmClient;
+        this.responseCache = responseCache;
     }
 
-    public String generateResponse(String systemPrompt, String userMessage) {
-        return llmClient.chatCompletion(systemPrompt, userMessage);
+    // Plan variants: answer from the semantic cache when the user asked something close enough before
+    // (with the same data and upstream sections); otherwise build the prompt, call the LLM and cache the answer.
+    // inputs are the upstream sections the prompt is built from.
+    public String generateResponse(PlanExecutionContext context, String agent, String systemPrompt, Map<String, String> inputs,
+                                   Supplier<String> userMessage) {
+        String cacheKey = cacheKey(agent, inputs);
+        String cached = responseCache.lookup(context.getUserId(), cacheKey, context.getDataVersion(), context.getQueryEmbedding());
+        if (cached != null) {
+            log.info("{} answered from response cache for user: {}", agent, context.getUserId());
+            return cached;
+        }
+        String response = llmClient.chatCompletion(context.getUserId(), systemPrompt, userMessage.get(), hints(context, agent));
+        responseCache.store(context.getUserId(), cacheKey, context.getDataVersion(), context.getQueryEmbedding(), response);
+        return response;
+    }
+
+    // Structured variant: the answer is a JSON object with the given string fields. Answers are cached
+    // per agent and variant; only answers that parse as a JSON object are cached, so a malformed reply
+    // is not served again.
+    public String generateJsonResponse(PlanExecutionContext context, String agent, String variant, String systemPrompt,
+                                       Supplier<String> userMessage, String schemaName, List<String> fields) {
+        String cacheKey = agent + ":" + variant;
+        String cached = responseCache.lookup(context.getUserId(), cacheKey, context.getDataVersion(), context.getQueryEmbedding());
+        if (cached != null) {
+            log.info("{} answered from response cache for user: {}", agent, context.getUserId());
+            return cached;
+        }
+        String response = llmClient.chatCompletionJson(context.getUserId(), systemPrompt, userMessage.get(), schemaName, fields,
+            hints(context, agent));
+        if (isJsonObject(response)) {
+            responseCache.store(context.getUserId(), cacheKey, context.getDataVersion(), context.getQueryEmbedding(), response);
+        }
+        return response;
+    }
+
+    private ModelRouter.Hints hints(PlanExecutionContext context, String agent) {
+        return ModelRouter.Hints.of(agent, context.getQuery(), context.getDeadlineNanos());
     }
-}
 
+    private boolean isJsonObject(String response) {
+        try {
+            return response != null && objectMapper.readTree(response).isObject();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    // A cached answer is delivered as a single token
+    public String streamResponse(PlanExecutionContext context, String agent, String systemPrompt, Map<String, String> inputs,
+                                 Supplier<String> userMessage, Consumer<String> onToken) {
+        String cacheKey = cacheKey(agent, inputs);
+        String cached = responseCache.lookup(context.getUserId(), cacheKey, context.getDataVersion(), context.getQueryEmbedding());
+        if (cached != null) {
+            log.info("{} answered from response cache for user: {}", agent, context.getUserId());
+            onToken.accept(cached);
+            return cached;
+        }
+        String response = llmClient.streamChatCompletion(context.getUserId(), systemPrompt, userMessage.get(), onToken,
+            hints(context, agent));
+        responseCache.store(context.getUserId(), cacheKey, context.getDataVersion(), context.getQueryEmbedding(), response);
+        return response;
+    }
+
+    // The same agent answers differently with and without upstream sections, and with different upstream
+    // text (a regenerated analysis), so the section names and a hash of their text are part of the key
+    private static String cacheKey(String agent, Map<String, String> inputs) {
+        if (inputs == null || inputs.isEmpty()) {
+            return agent;
+        }
+        Map<String, String> sorted = new TreeMap<>(inputs);
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, String> input : sorted.entrySet()) {
+            String value = input.getValue() != null ? input.getValue() : "";
+            text.append(input.getKey()).append('\n').append(value.length()).append('\n').append(value);
+        }
+        return agent + "<" + String.join(",", sorted.keySet()) + ":" + Hashing.sha256Hex(text.toString());
+    }
+}
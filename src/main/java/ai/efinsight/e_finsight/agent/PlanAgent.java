@@ -0,0 +1,36 @@
+package ai.efinsight.e_finsight.agent;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * An agent that writes one section of a plan. Agents declare the sections they read as inputs; when
+ * those are part of the same plan, the agent runs after them and gets their output (summarized by
+ * PromptBuilder) instead of working everything out again from raw transactions.
+ */
+public interface PlanAgent {
+
+    // Agent name for logs, metrics, token budgets and the response cache, e.g. "SpendingAnalyst"
+    String name();
+
+    // Key of the section this agent writes, e.g. "spending_analysis"
+    String section();
+
+    // Topic that activates the agent for a query ("spending", "budget", "investment")
+    String topic();
+
+    // Sections this agent reads when they are in the same plan
+    default List<String> inputs() {
+        return List.of();
+    }
+
+    // Section text used when the agent fails or times out
+    String fallback();
+
+    // inputs holds the output of each input section that is in the plan and succeeded
+    String run(PlanExecutionContext context, Map<String, String> inputs);
+
+    // Streaming variant: onToken receives the answer as it is generated
+    String stream(PlanExecutionContext context, Map<String, String> inputs, Consumer<String> onToken);
+}
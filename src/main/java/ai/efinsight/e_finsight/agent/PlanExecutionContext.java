@@ -0,0 +1,98 @@
+package ai.efinsight.e_finsight.agent;
+
+import ai.efinsight.e_finsight.model.Transaction;
+import ai.efinsight.e_finsight.rag.RagService;
+import ai.efinsight.e_finsight.rag.VectorStoreService;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * One plan's shared retrieval: the query embedding, a pool of scored matches and their transactions,
+ * loaded once by the coordinator. Agents take their slices from it and re-rank locally instead of
+ * embedding the query and searching the vector store again. Read-only after construction, so it is
+ * safe to share between concurrently running agents.
+ */
+public class PlanExecutionContext {
+    private final Long userId;
+    private final String query;
+    private final float[] queryEmbedding;
+    private final List<VectorStoreService.ChunkSimilarity> matches;
+    private final Map<Long, Transaction> transactions;
+    // User's data version when the retrieval ran; answers built from it are cached under this version
+    private final long dataVersion;
+    // System.nanoTime() by which the run executing the agents must finish (0 = no deadline); caps chat
+    // calls and drives model routing
+    private final long deadlineNanos;
+
+    public PlanExecutionContext(Long userId, String query, float[] queryEmbedding, long dataVersion,
+                                List<VectorStoreService.ChunkSimilarity> matches, Map<Long, Transaction> transactions,
+                                long deadlineNanos) {
+        this.userId = userId;
+        this.query = query;
+        this.queryEmbedding = queryEmbedding;
+        this.dataVersion = dataVersion;
+        this.deadlineNanos = deadlineNanos;
+        this.matches = List.copyOf(matches);
+        this.transactions = Map.copyOf(transactions);
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public float[] getQueryEmbedding() {
+        return queryEmbedding;
+    }
+
+    public long getDataVersion() {
+        return dataVersion;
+    }
+
+    public long getDeadlineNanos() {
+        return deadlineNanos;
+    }
+
+    // The same retrieval for another run of agents, with that run's deadline
+    public PlanExecutionContext withDeadline(long deadlineNanos) {
+        return new PlanExecutionContext(userId, query, queryEmbedding, dataVersion, matches, transactions, deadlineNanos);
+    }
+
+    public Transaction getTransaction(Long transactionId) {
+        return transactions.get(transactionId);
+    }
+
+    // The topK best matches by similarity, as returned by the vector store
+    public List<RagService.RagContext> topContexts(int topK) {
+        List<RagService.RagContext> contexts = new ArrayList<>();
+        for (int i = 0; i < Math.min(topK, matches.size()); i++) {
+            contexts.add(RagService.toContext(matches.get(i).chunk));
+        }
+        return contexts;
+    }
+
+    // The topK matches after adding an agent-specific boost to each similarity; matches whose
+    // transaction could not be loaded get no boost
+    public List<RagService.RagContext> rerankedContexts(int topK, ToDoubleFunction<Transaction> boost) {
+        List<VectorStoreService.ChunkSimilarity> ranked = new ArrayList<>(matches);
+        ranked.sort(Comparator.comparingDouble((VectorStoreService.ChunkSimilarity match) -> score(match, boost)).reversed());
+
+        List<RagService.RagContext> contexts = new ArrayList<>();
+        for (int i = 0; i < Math.min(topK, ranked.size()); i++) {
+            contexts.add(RagService.toContext(ranked.get(i).chunk));
+        }
+        return contexts;
+    }
+
+    private double score(VectorStoreService.ChunkSimilarity match, ToDoubleFunction<Transaction> boost) {
+        Transaction transaction = transactions.get(match.chunk.getTransactionId());
+        return match.similarity + (transaction != null ? boost.applyAsDouble(transaction) : 0);
+    }
+}
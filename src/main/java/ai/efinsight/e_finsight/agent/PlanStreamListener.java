@@ -0,0 +1,17 @@
+package ai.efinsight.e_finsight.agent;
+
+import ai.efinsight.e_finsight.dto.CitationDto;
+
+import java.util.List;
+
+// Receives a structured plan while it is being generated. Throwing from any callback aborts generation.
+public interface PlanStreamListener {
+
+    void onCitations(List<CitationDto> citations);
+
+    void onSectionStart(String section);
+
+    void onToken(String section, String token);
+
+    void onSectionComplete(String section, String content);
+}
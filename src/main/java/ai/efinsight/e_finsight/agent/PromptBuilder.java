@@ -0,0 +1,135 @@
+package ai.efinsight.e_finsight.agent;
+
+import ai.efinsight.e_finsight.config.AgentConfig;
+import ai.efinsight.e_finsight.llm.ProviderRegistry;
+import ai.efinsight.e_finsight.llm.TokenEstimator;
+import ai.efinsight.e_finsight.rag.RagService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Assembles agent prompts within a token budget. Retrieved chunks are added in rank order until the
+ * agent's context budget (agents.context-token-budget, or a per-agent override) is used up, so the
+ * lowest-ranked chunks are the ones dropped. Downstream agents also get summaries of the sections they
+ * read. The estimated size of every prompt is recorded.
+ */
+@Component
+public class PromptBuilder {
+    private static final Logger log = LoggerFactory.getLogger(PromptBuilder.class);
+
+    private static final String UPSTREAM_HEADER = "Findings from earlier in this plan (summarized):\n\n";
+    // Amounts, percentages, counts and dates all contain a digit
+    private static final Pattern FIGURE = Pattern.compile("\\d");
+
+    private final AgentConfig config;
+    private final ProviderRegistry providers;
+    private final MeterRegistry meterRegistry;
+
+    public PromptBuilder(AgentConfig config, ProviderRegistry providers, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.providers = providers;
+        this.meterRegistry = meterRegistry;
+    }
+
+    // template receives the formatted context block and returns the complete user prompt
+    public String buildUserPrompt(String agent, String systemPrompt, List<RagService.RagContext> rankedContexts,
+                                  Function<String, String> template) {
+        return buildUserPrompt(agent, systemPrompt, Map.of(), rankedContexts, template);
+    }
+
+    // Downstream variant: the outputs of upstream sections lead the context block, each cut to a summary of
+    // at most agents.upstream-summary-tokens. Summaries are paid for out of the context budget, so the
+    // prompt is never longer than one built from chunks alone.
+    public String buildUserPrompt(String agent, String systemPrompt, Map<String, String> upstream,
+                                  List<RagService.RagContext> rankedContexts, Function<String, String> template) {
+        TokenEstimator.Tokenizer tokenizer = TokenEstimator.tokenizerFor(providers.primaryChatEndpoint().getProvider());
+        int budget = config.getContextTokenBudget(agent);
+
+        String findings = "";
+        if (!upstream.isEmpty()) {
+            StringBuilder summaries = new StringBuilder(UPSTREAM_HEADER);
+            for (Map.Entry<String, String> section : upstream.entrySet()) {
+                summaries.append("From the ").append(section.getKey().replace('_', ' ')).append(":\n")
+                    .append(summarize(section.getValue(), config.getUpstreamSummaryTokens(), tokenizer)).append("\n");
+            }
+            findings = summaries.toString();
+            budget -= TokenEstimator.estimate(findings, tokenizer);
+        }
+
+        StringBuilder context = new StringBuilder(RagService.CONTEXT_HEADER);
+        int contextTokens = TokenEstimator.estimate(RagService.CONTEXT_HEADER, tokenizer);
+        int included = 0;
+        for (RagService.RagContext ctx : rankedContexts) {
+            String line = RagService.formatContextLine(included + 1, ctx);
+            int lineTokens = TokenEstimator.estimate(line, tokenizer);
+            if (contextTokens + lineTokens > budget) {
+                break;
+            }
+            context.append(line);
+            contextTokens += lineTokens;
+            included++;
+        }
+        int trimmed = rankedContexts.size() - included;
+
+        String prompt = template.apply(findings + (included > 0 ? context.toString() : RagService.NO_CONTEXT));
+        int promptTokens = TokenEstimator.estimate(systemPrompt, tokenizer) + TokenEstimator.estimate(prompt, tokenizer);
+
+        DistributionSummary.builder("llm.prompt.tokens")
+            .tag("agent", agent)
+            .baseUnit("tokens")
+            .register(meterRegistry)
+            .record(promptTokens);
+        if (trimmed > 0) {
+            Counter.builder("llm.prompt.chunks.trimmed")
+                .tag("agent", agent)
+                .register(meterRegistry)
+                .increment(trimmed);
+            log.debug("{}: kept {} of {} chunks within {} context tokens", agent, included, rankedContexts.size(), budget);
+        }
+        return prompt;
+    }
+
+    // Extractive summary: headings and the lines carrying figures, in their original order, until the budget
+    // is spent. Text without any figures keeps its opening lines instead.
+    static String summarize(String text, int budget, TokenEstimator.Tokenizer tokenizer) {
+        List<String> lines = text.lines().map(String::strip).filter(line -> !line.isEmpty()).toList();
+        List<String> keyLines = lines.stream()
+            .filter(line -> line.startsWith("#") || FIGURE.matcher(line).find())
+            .toList();
+        boolean hasFigures = keyLines.stream().anyMatch(line -> !line.startsWith("#"));
+
+        List<String> kept = new ArrayList<>();
+        int tokens = 0;
+        for (String line : hasFigures ? keyLines : lines) {
+            String plain = line.replace("**", "");
+            int lineTokens = TokenEstimator.estimate(plain + "\n", tokenizer);
+            // A long line is skipped rather than cut; shorter ones after it may still fit
+            if (tokens + lineTokens > budget) {
+                continue;
+            }
+            kept.add(plain);
+            tokens += lineTokens;
+        }
+
+        // Headings with nothing kept under them carry no findings
+        StringBuilder summary = new StringBuilder();
+        for (int i = 0; i < kept.size(); i++) {
+            boolean heading = kept.get(i).startsWith("#");
+            if (heading && (i + 1 == kept.size() || kept.get(i + 1).startsWith("#"))) {
+                continue;
+            }
+            summary.append(kept.get(i)).append("\n");
+        }
+        return summary.toString();
+    }
+}
@@ -3,12 +3,16 @@ package ai.efinsight.e_finsight.agent;
 import ai.efinsight.e_finsight.rag.RagService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 @Component
-public class SpendingAnalyst {
+@Order(1)
+public class SpendingAnalyst implements PlanAgent {
     private static final Logger log = LoggerFactory.getLogger(SpendingAnalyst.class);
 
     private static final String SYSTEM_PROMPT = """
@@ -25,31 +29,69 @@ public class SpendingAnalyst {
         Provide clear, concise insights with specific examples from the transaction data.
         """;
 
-    private final RagService ragService;
+    // Outgoing payments are what a spending analysis is about, so they win close similarity ties
+    private static final double DEBIT_BOOST = 0.05;
+    private static final int CONTEXT_SIZE = 10;
+
     private final LLMAgent llmAgent;
+    private final PromptBuilder promptBuilder;
 
-    public SpendingAnalyst(RagService ragService, LLMAgent llmAgent) {
-        this.ragService = ragService;
+    public SpendingAnalyst(LLMAgent llmAgent, PromptBuilder promptBuilder) {
         this.llmAgent = llmAgent;
+        this.promptBuilder = promptBuilder;
     }
 
-    public String analyzeSpending(Long userId, String query) {
-        log.info("SpendingAnalyst analyzing spending for user: {}", userId);
-        
-        List<RagService.RagContext> contexts = ragService.retrieveContext(userId, query, 10);
-        String contextString = ragService.buildContextString(contexts);
-        
-        String userPrompt = String.format("""
-            Based on the following transaction data, analyze the user's spending patterns:
-            
-            %s
-            
-            User's question: %s
-            
-            Provide a detailed spending analysis with specific insights and recommendations.
-            """, contextString, query);
-        
-        return llmAgent.generateResponse(SYSTEM_PROMPT, userPrompt);
+    @Override
+    public String name() {
+        return "SpendingAnalyst";
+    }
+
+    @Override
+    public String section() {
+        return "spending_analysis";
+    }
+
+    @Override
+    public String topic() {
+        return "spending";
+    }
+
+    @Override
+    public String fallback() {
+        return "Unable to analyze spending at this time.";
+    }
+
+    // Plan variants: slice the coordinator's shared retrieval instead of embedding and searching again;
+    // answers are cached per user, data version and upstream sections (see AgentResponseCache)
+    @Override
+    public String run(PlanExecutionContext context, Map<String, String> inputs) {
+        return llmAgent.generateResponse(context, name(), SYSTEM_PROMPT, inputs, () -> buildPrompt(context));
+    }
+
+    @Override
+    public String stream(PlanExecutionContext context, Map<String, String> inputs, Consumer<String> onToken) {
+        return llmAgent.streamResponse(context, name(), SYSTEM_PROMPT, inputs, () -> buildPrompt(context), onToken);
+    }
+
+    private String buildPrompt(PlanExecutionContext context) {
+        log.info("SpendingAnalyst analyzing spending for user: {}", context.getUserId());
+        List<RagService.RagContext> contexts = context.rerankedContexts(CONTEXT_SIZE,
+            transaction -> "DEBIT".equalsIgnoreCase(transaction.getTransactionType()) ? DEBIT_BOOST : 0);
+        return buildPrompt(contexts, context.getQuery());
+    }
+
+    // Contexts are in rank order; the prompt builder drops the lowest-ranked ones beyond the token budget
+    private String buildPrompt(List<RagService.RagContext> contexts, String query) {
+        return promptBuilder.buildUserPrompt("SpendingAnalyst", SYSTEM_PROMPT, contexts,
+            contextString -> String.format("""
+                Based on the following transaction data, analyze the user's spending patterns:
+                
+                %s
+                
+                User's question: %s
+                
+                Provide a detailed spending analysis with specific insights and recommendations.
+                """, contextString, query));
     }
 }
 
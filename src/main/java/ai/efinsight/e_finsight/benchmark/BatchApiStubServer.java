@@ -0,0 +1,228 @@
+package ai.efinsight.e_finsight.benchmark;
+
+import ai.efinsight.e_finsight.config.BackfillConfig;
+import ai.efinsight.e_finsight.rag.LocalEmbeddingModel;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stand-in for the OpenAI Files + Batches API (backfill.stub-server-port > 0). Accepts
+ * JSONL uploads, "runs" each /v1/embeddings request with LocalEmbeddingModel in the background,
+ * and serves the output file, so the backfill pipeline can be exercised without network access.
+ */
+@Component
+@ConditionalOnExpression("${backfill.stub-server-port:0} > 0")
+public class BatchApiStubServer {
+    private static final Logger log = LoggerFactory.getLogger(BatchApiStubServer.class);
+
+    private final BackfillConfig config;
+    private final LocalEmbeddingModel embeddingModel;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+    private final Map<String, ObjectNode> batches = new ConcurrentHashMap<>();
+    private final AtomicInteger ids = new AtomicInteger();
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+    private HttpServer server;
+
+    public BatchApiStubServer(BackfillConfig config, LocalEmbeddingModel embeddingModel) {
+        this.config = config;
+        this.embeddingModel = embeddingModel;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", config.getStubServerPort()), 0);
+        server.setExecutor(workers);
+        server.createContext("/v1/files", this::handleFiles);
+        server.createContext("/v1/batches", this::handleBatches);
+        server.start();
+        log.info("Batch API stub listening on http://localhost:{}/v1", config.getStubServerPort());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+        workers.shutdownNow();
+    }
+
+    private void handleFiles(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        if ("POST".equals(exchange.getRequestMethod()) && path.equals("/v1/files")) {
+            byte[] content = extractFilePart(exchange);
+            String id = "file-" + ids.incrementAndGet();
+            files.put(id, content);
+            ObjectNode file = objectMapper.createObjectNode();
+            file.put("id", id);
+            file.put("object", "file");
+            file.put("bytes", content.length);
+            file.put("purpose", "batch");
+            respond(exchange, 200, file);
+        } else if ("GET".equals(exchange.getRequestMethod()) && path.endsWith("/content")) {
+            String id = path.substring("/v1/files/".length(), path.length() - "/content".length());
+            byte[] content = files.get(id);
+            if (content == null) {
+                respond(exchange, 404, error("No such file: " + id));
+                return;
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/jsonl");
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(content);
+            }
+        } else if ("DELETE".equals(exchange.getRequestMethod()) && path.startsWith("/v1/files/")) {
+            String id = path.substring("/v1/files/".length());
+            if (files.remove(id) == null) {
+                respond(exchange, 404, error("No such file: " + id));
+                return;
+            }
+            ObjectNode deleted = objectMapper.createObjectNode();
+            deleted.put("id", id);
+            deleted.put("object", "file");
+            deleted.put("deleted", true);
+            respond(exchange, 200, deleted);
+        } else {
+            respond(exchange, 404, error("Unsupported: " + exchange.getRequestMethod() + " " + path));
+        }
+    }
+
+    private void handleBatches(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        if ("POST".equals(exchange.getRequestMethod()) && path.equals("/v1/batches")) {
+            JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+            String inputFileId = request.path("input_file_id").asText();
+            if (!files.containsKey(inputFileId)) {
+                respond(exchange, 400, error("Unknown input_file_id: " + inputFileId));
+                return;
+            }
+            ObjectNode batch = objectMapper.createObjectNode();
+            batch.put("id", "batch-" + ids.incrementAndGet());
+            batch.put("object", "batch");
+            batch.put("endpoint", request.path("endpoint").asText());
+            batch.put("input_file_id", inputFileId);
+            batch.put("status", "validating");
+            batch.putNull("output_file_id");
+            batches.put(batch.get("id").asText(), batch);
+            workers.submit(() -> process(batch));
+            respond(exchange, 200, batch);
+        } else if ("GET".equals(exchange.getRequestMethod())) {
+            ObjectNode batch = batches.get(path.substring("/v1/batches/".length()));
+            if (batch == null) {
+                respond(exchange, 404, error("No such batch"));
+                return;
+            }
+            synchronized (batch) {
+                respond(exchange, 200, batch);
+            }
+        } else {
+            respond(exchange, 404, error("Unsupported: " + exchange.getRequestMethod() + " " + path));
+        }
+    }
+
+    private void process(ObjectNode batch) {
+        try {
+            String[] lines = new String(files.get(batch.get("input_file_id").asText()), StandardCharsets.UTF_8).split("\n");
+            synchronized (batch) {
+                batch.put("status", "in_progress");
+            }
+            StringBuilder output = new StringBuilder();
+            int completed = 0;
+            for (String line : lines) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JsonNode request = objectMapper.readTree(line);
+                JsonNode body = request.path("body");
+                int dimension = body.path("dimensions").asInt(LocalEmbeddingModel.DEFAULT_DIMENSION);
+                float[] embedding = embeddingModel.embed(body.path("input").asText(), dimension);
+
+                ObjectNode result = objectMapper.createObjectNode();
+                result.put("custom_id", request.path("custom_id").asText());
+                ObjectNode response = result.putObject("response");
+                response.put("status_code", 200);
+                ArrayNode values = response.putObject("body").putArray("data").addObject().putArray("embedding");
+                for (float value : embedding) {
+                    values.add(value);
+                }
+                result.putNull("error");
+                output.append(objectMapper.writeValueAsString(result)).append('\n');
+                completed++;
+            }
+
+            String outputId = "file-" + ids.incrementAndGet();
+            files.put(outputId, output.toString().getBytes(StandardCharsets.UTF_8));
+            synchronized (batch) {
+                batch.put("status", "completed");
+                batch.put("output_file_id", outputId);
+                ObjectNode counts = batch.putObject("request_counts");
+                counts.put("total", completed);
+                counts.put("completed", completed);
+                counts.put("failed", 0);
+            }
+        } catch (Exception e) {
+            log.error("Stub batch {} failed", batch.get("id"), e);
+            synchronized (batch) {
+                batch.put("status", "failed");
+            }
+        }
+    }
+
+    // Minimal multipart/form-data parsing: returns the body of the part named "file"
+    private byte[] extractFilePart(HttpExchange exchange) throws IOException {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        String boundary = "--" + contentType.substring(contentType.indexOf("boundary=") + "boundary=".length()).replace("\"", "");
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.ISO_8859_1);
+
+        for (String part : body.split(java.util.regex.Pattern.quote(boundary))) {
+            int headerEnd = part.indexOf("\r\n\r\n");
+            if (headerEnd < 0 || !part.substring(0, headerEnd).contains("name=\"file\"")) {
+                continue;
+            }
+            String content = part.substring(headerEnd + 4);
+            if (content.endsWith("\r\n")) {
+                content = content.substring(0, content.length() - 2);
+            }
+            return content.getBytes(StandardCharsets.ISO_8859_1);
+        }
+        throw new IOException("Multipart upload without a 'file' part");
+    }
+
+    private ObjectNode error(String message) {
+        ObjectNode error = objectMapper.createObjectNode();
+        error.putObject("error").put("message", message);
+        return error;
+    }
+
+    private void respond(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        objectMapper.writeValue(buffer, body);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, buffer.size());
+        try (OutputStream out = exchange.getResponseBody()) {
+            buffer.writeTo(out);
+        }
+    }
+}
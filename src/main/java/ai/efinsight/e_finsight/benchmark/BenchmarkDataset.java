@@ -0,0 +1,199 @@
+package ai.efinsight.e_finsight.benchmark;
+
+import ai.efinsight.e_finsight.rag.EmbeddingService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Labelled query/chunk set used by the retrieval benchmark.
+ * Either generated synthetically (clustered unit vectors) or loaded from a JSON file.
+ */
+public class BenchmarkDataset {
+
+    private static final String[] MERCHANTS = {
+        "TESCO", "LOTHIAN BUSES", "AMAZON", "SPOTIFY", "PRET A MANGER", "SHELL", "NETFLIX", "SAINSBURYS"
+    };
+    private static final String[] CATEGORIES = {
+        "PURCHASE", "TRANSFER", "DIRECT_DEBIT", "BILL_PAYMENT", "CREDIT"
+    };
+
+    public final int dimension;
+    public final List<Chunk> chunks;
+    public final List<Query> queries;
+
+    public BenchmarkDataset(int dimension, List<Chunk> chunks, List<Query> queries) {
+        this.dimension = dimension;
+        this.chunks = chunks;
+        this.queries = queries;
+    }
+
+    // Generate clustered vectors so that nearest neighbours are meaningful (transactions group by merchant/category)
+    public static BenchmarkDataset generate(int chunkCount, int dimension, int queryCount, int topK, long seed) {
+        Random random = new Random(seed);
+        int clusterCount = Math.max(1, chunkCount / 50);
+
+        float[][] centroids = new float[clusterCount][];
+        for (int c = 0; c < clusterCount; c++) {
+            centroids[c] = randomUnitVector(random, dimension);
+        }
+
+        List<Chunk> chunks = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            int cluster = random.nextInt(clusterCount);
+            float[] embedding = perturb(random, centroids[cluster], 0.35f);
+            String text = String.format("Transaction: %s | Amount: -%d.%02d GBP | Category: %s | Date: 2025-%02d-%02dT00:00:00Z",
+                MERCHANTS[cluster % MERCHANTS.length], random.nextInt(200), random.nextInt(100),
+                CATEGORIES[cluster % CATEGORIES.length], 1 + random.nextInt(12), 1 + random.nextInt(28));
+            chunks.add(new Chunk((long) i + 1, text, embedding));
+        }
+
+        List<Query> queries = new ArrayList<>(queryCount);
+        for (int q = 0; q < queryCount; q++) {
+            Chunk anchor = chunks.get(random.nextInt(chunks.size()));
+            float[] embedding = perturb(random, anchor.embedding, 0.15f);
+            queries.add(new Query(embedding, exactTopK(chunks, embedding, topK)));
+        }
+
+        return new BenchmarkDataset(dimension, chunks, queries);
+    }
+
+    // Load a labelled set: {"chunks":[{"id","text","embedding"}], "queries":[{"embedding","relevantChunkIds"}]}
+    // Queries without labels are labelled with the exact top-k
+    public static BenchmarkDataset load(String path, int topK) throws IOException {
+        JsonNode root = new ObjectMapper().readTree(new File(path));
+
+        List<Chunk> chunks = new ArrayList<>();
+        for (JsonNode node : root.get("chunks")) {
+            chunks.add(new Chunk(node.get("id").asLong(), node.path("text").asText(""), toFloatArray(node.get("embedding"))));
+        }
+        if (chunks.isEmpty()) {
+            throw new IllegalArgumentException("Benchmark dataset contains no chunks: " + path);
+        }
+
+        List<Query> queries = new ArrayList<>();
+        for (JsonNode node : root.get("queries")) {
+            float[] embedding = toFloatArray(node.get("embedding"));
+            Set<Long> relevant = new HashSet<>();
+            if (node.has("relevantChunkIds")) {
+                for (JsonNode id : node.get("relevantChunkIds")) {
+                    relevant.add(id.asLong());
+                }
+            } else {
+                relevant = exactTopK(chunks, embedding, topK);
+            }
+            queries.add(new Query(embedding, relevant));
+        }
+
+        return new BenchmarkDataset(chunks.get(0).embedding.length, chunks, queries);
+    }
+
+    // Same chunks and queries with every vector cut to the first `dimension` values and re-normalised.
+    // Relevant ids are kept from the full-size vectors, so recall measures what the reduction costs.
+    public BenchmarkDataset truncated(int dimension) {
+        List<Chunk> truncatedChunks = new ArrayList<>(chunks.size());
+        for (Chunk chunk : chunks) {
+            truncatedChunks.add(new Chunk(chunk.id, chunk.text, EmbeddingService.truncateAndNormalize(chunk.embedding, dimension)));
+        }
+        List<Query> truncatedQueries = new ArrayList<>(queries.size());
+        for (Query query : queries) {
+            truncatedQueries.add(new Query(EmbeddingService.truncateAndNormalize(query.embedding, dimension), query.relevantChunkIds));
+        }
+        return new BenchmarkDataset(dimension, truncatedChunks, truncatedQueries);
+    }
+
+    // Ground truth: exact cosine top-k on the raw float vectors
+    static Set<Long> exactTopK(List<Chunk> chunks, float[] query, int topK) {
+        List<double[]> scored = new ArrayList<>(chunks.size());
+        for (Chunk chunk : chunks) {
+            scored.add(new double[] { chunk.id, cosine(query, chunk.embedding) });
+        }
+        scored.sort((a, b) -> Double.compare(b[1], a[1]));
+
+        Set<Long> result = new HashSet<>();
+        for (int i = 0; i < Math.min(topK, scored.size()); i++) {
+            result.add((long) scored.get(i)[0]);
+        }
+        return result;
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0.0;
+        double normA = 0.0;
+        double normB = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            dot += (double) a[i] * b[i];
+            normA += (double) a[i] * a[i];
+            normB += (double) b[i] * b[i];
+        }
+        return normA == 0.0 || normB == 0.0 ? 0.0 : dot / (Math.sqrt(normA) * Math.sqrt(normB));
+    }
+
+    private static float[] randomUnitVector(Random random, int dimension) {
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return normalize(vector);
+    }
+
+    private static float[] perturb(Random random, float[] base, float noise) {
+        float[] vector = new float[base.length];
+        float scale = noise / (float) Math.sqrt(base.length);
+        for (int i = 0; i < base.length; i++) {
+            vector[i] = base[i] + (float) random.nextGaussian() * scale;
+        }
+        return normalize(vector);
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0.0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        if (norm > 0) {
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = (float) (vector[i] / norm);
+            }
+        }
+        return vector;
+    }
+
+    private static float[] toFloatArray(JsonNode array) {
+        float[] result = new float[array.size()];
+        for (int i = 0; i < array.size(); i++) {
+            result[i] = (float) array.get(i).asDouble();
+        }
+        return result;
+    }
+
+    public static class Chunk {
+        public final Long id;
+        public final String text;
+        public final float[] embedding;
+
+        public Chunk(Long id, String text, float[] embedding) {
+            this.id = id;
+            this.text = text;
+            this.embedding = embedding;
+        }
+    }
+
+    public static class Query {
+        public final float[] embedding;
+        public final Set<Long> relevantChunkIds;
+
+        public Query(float[] embedding, Set<Long> relevantChunkIds) {
+            this.embedding = embedding;
+            this.relevantChunkIds = relevantChunkIds;
+        }
+    }
+}
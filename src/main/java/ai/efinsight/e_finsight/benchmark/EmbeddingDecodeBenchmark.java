@@ -0,0 +1,119 @@
+package ai.efinsight.e_finsight.benchmark;
+
+import ai.efinsight.e_finsight.rag.EmbeddingResponseDecoder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares bytes allocated and time spent decoding embedding responses with the
+ * String + JsonNode tree approach versus the streaming EmbeddingResponseDecoder.
+ */
+@Service
+@ConditionalOnProperty(name = "benchmark.enabled", havingValue = "true")
+public class EmbeddingDecodeBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(EmbeddingDecodeBenchmark.class);
+
+    private final EmbeddingResponseDecoder decoder;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public EmbeddingDecodeBenchmark(EmbeddingResponseDecoder decoder) {
+        this.decoder = decoder;
+    }
+
+    public Map<String, Object> run(int vectors, int dimension, int iterations) throws IOException {
+        byte[] geminiBody = buildResponse(vectors, dimension, true);
+        byte[] openAiBody = buildResponse(vectors, dimension, false);
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        results.add(measure("gemini-tree", geminiBody, iterations, body -> treeDecode(body, "embeddings", "values")));
+        results.add(measure("gemini-streaming", geminiBody, iterations, body -> decoder.decodeGemini(new ByteArrayInputStream(body), vectors)));
+        results.add(measure("openai-tree", openAiBody, iterations, body -> treeDecode(body, "data", "embedding")));
+        results.add(measure("openai-streaming", openAiBody, iterations, body -> decoder.decodeOpenAI(new ByteArrayInputStream(body), vectors)));
+
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("vectors", vectors);
+        config.put("dimension", dimension);
+        config.put("iterations", iterations);
+        config.put("responseBytes", geminiBody.length);
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("config", config);
+        report.put("results", results);
+        return report;
+    }
+
+    private Map<String, Object> measure(String name, byte[] body, int iterations, Decoder decode) throws IOException {
+        // Warm up so JIT compilation is not attributed to the measured runs
+        for (int i = 0; i < 3; i++) {
+            decode.decode(body);
+        }
+
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocatedBefore = threadBean.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            decode.decode(body);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threadBean.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("decoder", name);
+        result.put("allocatedBytesPerResponse", allocated / Math.max(1, iterations));
+        result.put("msPerResponse", Math.round(elapsed / 1_000.0 / Math.max(1, iterations)) / 1_000.0);
+        log.info("Decode benchmark {}: {} bytes/response, {} ms/response",
+            name, result.get("allocatedBytesPerResponse"), result.get("msPerResponse"));
+        return result;
+    }
+
+    // The previous decoding path: whole body as String, JsonNode tree, asDouble() per element
+    private List<float[]> treeDecode(byte[] body, String listField, String valuesField) throws IOException {
+        JsonNode root = objectMapper.readTree(new String(body, StandardCharsets.UTF_8));
+        List<float[]> embeddings = new ArrayList<>();
+        for (JsonNode item : root.get(listField)) {
+            JsonNode values = item.get(valuesField);
+            float[] embedding = new float[values.size()];
+            for (int i = 0; i < values.size(); i++) {
+                embedding[i] = (float) values.get(i).asDouble();
+            }
+            embeddings.add(embedding);
+        }
+        return embeddings;
+    }
+
+    private byte[] buildResponse(int vectors, int dimension, boolean gemini) {
+        Random random = new Random(7);
+        StringBuilder sb = new StringBuilder(vectors * dimension * 12);
+        sb.append(gemini ? "{\"embeddings\":[" : "{\"object\":\"list\",\"data\":[");
+        for (int v = 0; v < vectors; v++) {
+            if (v > 0) sb.append(',');
+            sb.append(gemini ? "{\"values\":[" : "{\"object\":\"embedding\",\"index\":" + v + ",\"embedding\":[");
+            for (int d = 0; d < dimension; d++) {
+                if (d > 0) sb.append(',');
+                sb.append((float) (random.nextGaussian() * 0.05));
+            }
+            sb.append("]}");
+        }
+        sb.append(gemini ? "]}" : "],\"model\":\"text-embedding-3-small\",\"usage\":{\"prompt_tokens\":0,\"total_tokens\":0}}");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @FunctionalInterface
+    private interface Decoder {
+        List<float[]> decode(byte[] body) throws IOException;
+    }
+}
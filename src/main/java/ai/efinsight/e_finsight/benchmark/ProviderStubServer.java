@@ -0,0 +1,332 @@
+package ai.efinsight.e_finsight.benchmark;
+
+import ai.efinsight.e_finsight.llm.LLMConfig;
+import ai.efinsight.e_finsight.rag.LocalEmbeddingModel;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * In-process stand-in for the OpenAI and Gemini chat and embedding APIs (llm.stub-server-port > 0),
+ * for exercising multi-endpoint balancing and failover offline. The first path segment names a stub
+ * instance, so several endpoints can point at one server:
+ * llm.endpoints[0].base-url=http://localhost:9090/primary, llm.endpoints[1].base-url=http://localhost:9090/backup.
+ * Faults are injected per instance with POST /_control/{instance}?failureRate=0.5&latencyMs=800;
+ * failed requests answer 503. Embeddings come from LocalEmbeddingModel, so every instance returns
+ * the same vector for the same text. Usage blocks count one token per word.
+ * <p>
+ * Test and load-run tooling only: never enable it in production. /_control is unauthenticated, so the
+ * server only listens on the loopback interface.
+ */
+@Component
+@ConditionalOnExpression("${llm.stub-server-port:0} > 0")
+public class ProviderStubServer {
+    private static final Logger log = LoggerFactory.getLogger(ProviderStubServer.class);
+
+    private static final String CONTROL_PREFIX = "/_control/";
+
+    private final LLMConfig config;
+    private final LocalEmbeddingModel embeddingModel;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Map<String, Faults> faults = new ConcurrentHashMap<>();
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+    private HttpServer server;
+
+    public ProviderStubServer(LLMConfig config, LocalEmbeddingModel embeddingModel) {
+        this.config = config;
+        this.embeddingModel = embeddingModel;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), config.getStubServerPort()), 0);
+        server.setExecutor(workers);
+        server.createContext("/", this::handle);
+        server.start();
+        log.warn("Provider API stub listening on http://{}:{}/{instance} (test only, never enable in production)",
+            InetAddress.getLoopbackAddress().getHostAddress(), config.getStubServerPort());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+        workers.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        if (path.startsWith(CONTROL_PREFIX)) {
+            handleControl(exchange, path.substring(CONTROL_PREFIX.length()));
+            return;
+        }
+        int slash = path.indexOf('/', 1);
+        if (!"POST".equals(exchange.getRequestMethod()) || slash < 0) {
+            respond(exchange, 404, error(404, "Unsupported: " + exchange.getRequestMethod() + " " + path));
+            return;
+        }
+        String instance = path.substring(1, slash);
+        String operation = path.substring(slash);
+
+        Faults instanceFaults = faults.getOrDefault(instance, Faults.NONE);
+        if (instanceFaults.latencyMs > 0) {
+            try {
+                Thread.sleep(instanceFaults.latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (ThreadLocalRandom.current().nextDouble() < instanceFaults.failureRate) {
+            respond(exchange, 503, error(503, "Injected failure on " + instance));
+            return;
+        }
+
+        JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+        if (operation.equals("/chat/completions")) {
+            openAIChat(exchange, instance, request);
+        } else if (operation.equals("/embeddings")) {
+            openAIEmbeddings(exchange, request);
+        } else if (operation.endsWith(":generateContent")) {
+            geminiGenerate(exchange, instance, request);
+        } else if (operation.endsWith(":streamGenerateContent")) {
+            geminiStream(exchange, instance, request);
+        } else if (operation.endsWith(":batchEmbedContents")) {
+            geminiEmbeddings(exchange, request);
+        } else {
+            respond(exchange, 404, error(404, "Unsupported operation: " + operation));
+        }
+    }
+
+    // POST /_control/{instance}?failureRate=0..1&latencyMs=n; omitted parameters reset to 0
+    private void handleControl(HttpExchange exchange, String instance) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getQuery();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    params.put(pair.substring(0, eq), pair.substring(eq + 1));
+                }
+            }
+        }
+        Faults instanceFaults = new Faults(Double.parseDouble(params.getOrDefault("failureRate", "0")),
+            Long.parseLong(params.getOrDefault("latencyMs", "0")));
+        faults.put(instance, instanceFaults);
+        log.info("Stub instance {}: failureRate={}, latencyMs={}", instance, instanceFaults.failureRate, instanceFaults.latencyMs);
+
+        ObjectNode body = objectMapper.createObjectNode();
+        body.put("instance", instance);
+        body.put("failureRate", instanceFaults.failureRate);
+        body.put("latencyMs", instanceFaults.latencyMs);
+        respond(exchange, 200, body);
+    }
+
+    private void openAIChat(HttpExchange exchange, String instance, JsonNode request) throws IOException {
+        JsonNode messages = request.path("messages");
+        String answer = answer(instance, request.path("model").asText(), messages.path(messages.size() - 1).path("content").asText());
+        long promptTokens = 0;
+        for (JsonNode message : messages) {
+            promptTokens += words(message.path("content").asText());
+        }
+        JsonNode schema = request.path("response_format").path("json_schema").path("schema");
+        if (!schema.isMissingNode()) {
+            answer = jsonAnswer(schema, answer);
+        }
+
+        if (request.path("stream").asBoolean(false)) {
+            StringBuilder events = new StringBuilder();
+            for (String token : tokens(answer)) {
+                ObjectNode chunk = objectMapper.createObjectNode();
+                chunk.putArray("choices").addObject().putObject("delta").put("content", token);
+                events.append("data: ").append(objectMapper.writeValueAsString(chunk)).append("\n\n");
+            }
+            if (request.path("stream_options").path("include_usage").asBoolean(false)) {
+                ObjectNode usageChunk = objectMapper.createObjectNode();
+                usageChunk.putArray("choices");
+                openAIUsage(usageChunk, promptTokens, words(answer));
+                events.append("data: ").append(objectMapper.writeValueAsString(usageChunk)).append("\n\n");
+            }
+            events.append("data: [DONE]\n\n");
+            respondEvents(exchange, events);
+            return;
+        }
+        ObjectNode response = objectMapper.createObjectNode();
+        response.put("model", request.path("model").asText());
+        response.putArray("choices").addObject().putObject("message")
+            .put("role", "assistant")
+            .put("content", answer);
+        openAIUsage(response, promptTokens, words(answer));
+        respond(exchange, 200, response);
+    }
+
+    private void openAIEmbeddings(HttpExchange exchange, JsonNode request) throws IOException {
+        int dimension = request.path("dimensions").asInt(LocalEmbeddingModel.DEFAULT_DIMENSION);
+        ObjectNode response = objectMapper.createObjectNode();
+        ArrayNode data = response.putArray("data");
+        int index = 0;
+        long promptTokens = 0;
+        for (JsonNode input : request.path("input")) {
+            ObjectNode item = data.addObject();
+            item.put("index", index++);
+            addValues(item.putArray("embedding"), embeddingModel.embed(input.asText(), dimension));
+            promptTokens += words(input.asText());
+        }
+        response.putObject("usage").put("prompt_tokens", promptTokens).put("total_tokens", promptTokens);
+        respond(exchange, 200, response);
+    }
+
+    private void geminiGenerate(HttpExchange exchange, String instance, JsonNode request) throws IOException {
+        String answer = answer(instance, modelOf(exchange), geminiPrompt(request));
+        JsonNode schema = request.path("generationConfig").path("responseSchema");
+        if (!schema.isMissingNode()) {
+            answer = jsonAnswer(schema, answer);
+        }
+        ObjectNode response = geminiResponse(answer);
+        geminiUsage(response, words(geminiPrompt(request)), words(answer));
+        respond(exchange, 200, response);
+    }
+
+    private void geminiStream(HttpExchange exchange, String instance, JsonNode request) throws IOException {
+        StringBuilder events = new StringBuilder();
+        long promptTokens = words(geminiPrompt(request));
+        long completionTokens = 0;
+        for (String token : tokens(answer(instance, modelOf(exchange), geminiPrompt(request)))) {
+            ObjectNode event = geminiResponse(token);
+            completionTokens += words(token);
+            geminiUsage(event, promptTokens, completionTokens);
+            events.append("data: ").append(objectMapper.writeValueAsString(event)).append("\n\n");
+        }
+        respondEvents(exchange, events);
+    }
+
+    private void geminiEmbeddings(HttpExchange exchange, JsonNode request) throws IOException {
+        ObjectNode response = objectMapper.createObjectNode();
+        ArrayNode embeddings = response.putArray("embeddings");
+        for (JsonNode embedRequest : request.path("requests")) {
+            int dimension = embedRequest.path("outputDimensionality").asInt(LocalEmbeddingModel.DEFAULT_DIMENSION);
+            String text = embedRequest.path("content").path("parts").path(0).path("text").asText();
+            addValues(embeddings.addObject().putArray("values"), embeddingModel.embed(text, dimension));
+        }
+        respond(exchange, 200, response);
+    }
+
+    private String answer(String instance, String model, String prompt) {
+        String excerpt = prompt.length() > 80 ? prompt.substring(0, 80) + "..." : prompt;
+        return "Stub answer from " + instance + " (" + model + ") to: " + excerpt;
+    }
+
+    // An object with every schema property set, so structured-output callers can parse it
+    private String jsonAnswer(JsonNode schema, String answer) throws IOException {
+        ObjectNode json = objectMapper.createObjectNode();
+        schema.path("properties").fieldNames().forEachRemaining(field -> json.put(field, answer));
+        return objectMapper.writeValueAsString(json);
+    }
+
+    private static long words(String text) {
+        return text.isBlank() ? 0 : text.trim().split("\\s+").length;
+    }
+
+    private static void openAIUsage(ObjectNode response, long promptTokens, long completionTokens) {
+        response.putObject("usage")
+            .put("prompt_tokens", promptTokens)
+            .put("completion_tokens", completionTokens)
+            .put("total_tokens", promptTokens + completionTokens);
+    }
+
+    private static void geminiUsage(ObjectNode response, long promptTokens, long completionTokens) {
+        response.putObject("usageMetadata")
+            .put("promptTokenCount", promptTokens)
+            .put("candidatesTokenCount", completionTokens)
+            .put("totalTokenCount", promptTokens + completionTokens);
+    }
+
+    private static String[] tokens(String answer) {
+        return answer.split("(?<= )");
+    }
+
+    private ObjectNode geminiResponse(String text) {
+        ObjectNode response = objectMapper.createObjectNode();
+        response.putArray("candidates").addObject().putObject("content").putArray("parts").addObject().put("text", text);
+        return response;
+    }
+
+    private static String geminiPrompt(JsonNode request) {
+        return request.path("contents").path(0).path("parts").path(0).path("text").asText();
+    }
+
+    // .../models/{model}:method
+    private static String modelOf(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getPath();
+        int start = path.indexOf("/models/") + "/models/".length();
+        int end = path.indexOf(':', start);
+        return end > start ? path.substring(start, end) : "unknown";
+    }
+
+    private static void addValues(ArrayNode values, float[] embedding) {
+        for (float value : embedding) {
+            values.add(value);
+        }
+    }
+
+    private ObjectNode error(int code, String message) {
+        ObjectNode error = objectMapper.createObjectNode();
+        error.putObject("error").put("code", code).put("message", message);
+        return error;
+    }
+
+    private void respondEvents(HttpExchange exchange, StringBuilder events) throws IOException {
+        byte[] bytes = events.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        objectMapper.writeValue(buffer, body);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, buffer.size());
+        try (OutputStream out = exchange.getResponseBody()) {
+            buffer.writeTo(out);
+        }
+    }
+
+    private static class Faults {
+        static final Faults NONE = new Faults(0, 0);
+
+        final double failureRate;
+        final long latencyMs;
+
+        Faults(double failureRate, long latencyMs) {
+            this.failureRate = failureRate;
+            this.latencyMs = latencyMs;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package ai.efinsight.e_finsight.benchmark;
+
+import ai.efinsight.e_finsight.model.TransactionChunk;
+import ai.efinsight.e_finsight.rag.EmbeddingService;
+import ai.efinsight.e_finsight.rag.VectorStoreService;
+import ai.efinsight.e_finsight.rag.VertexAIVectorStoreService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs every retrieval strategy against the same labelled query/chunk set and reports
+ * recall@k, latency percentiles and estimated memory per user as JSON-friendly maps.
+ */
+@Service
+@ConditionalOnProperty(name = "benchmark.enabled", havingValue = "true")
+public class RetrievalBenchmark {
+    private static final Logger log = LoggerFactory.getLogger(RetrievalBenchmark.class);
+
+    private static final int WARMUP_QUERIES = 3;
+
+    private final VectorStoreService vectorStoreService;
+    private final EmbeddingService embeddingService;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // File locations are server configuration only, never taken from a request
+    private final String datasetPath;
+    private final String outputPath;
+
+    public RetrievalBenchmark(VectorStoreService vectorStoreService, EmbeddingService embeddingService,
+                              @Value("${benchmark.dataset-path:}") String datasetPath,
+                              @Value("${benchmark.output-path:}") String outputPath) {
+        this.vectorStoreService = vectorStoreService;
+        this.embeddingService = embeddingService;
+        this.datasetPath = datasetPath.isBlank() ? null : datasetPath;
+        this.outputPath = outputPath.isBlank() ? null : outputPath;
+    }
+
+    public Map<String, Object> run(BenchmarkConfig config) throws IOException {
+        log.info("Running retrieval benchmark: sizes={}, dimension={}, queries={}, topK={}, dataset={}",
+            config.sizes, config.dimension, config.queries, config.topK, datasetPath);
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        if (datasetPath != null) {
+            BenchmarkDataset dataset = BenchmarkDataset.load(datasetPath, config.topK);
+            results.addAll(runAllStrategies(dataset, config.topK));
+            results.addAll(runTruncated(dataset, config));
+        } else {
+            for (Integer size : config.sizes) {
+                BenchmarkDataset dataset = BenchmarkDataset.generate(size, config.dimension, config.queries, config.topK, config.seed);
+                results.addAll(runAllStrategies(dataset, config.topK));
+                results.addAll(runTruncated(dataset, config));
+            }
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        Map<String, Object> configMap = config.toMap();
+        configMap.put("datasetPath", datasetPath);
+        report.put("config", configMap);
+        report.put("results", results);
+
+        if (outputPath != null) {
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(outputPath), report);
+            log.info("Wrote retrieval benchmark report to {}", outputPath);
+        }
+        return report;
+    }
+
+    private List<RetrievalStrategy> strategies() {
+        List<RetrievalStrategy> strategies = new ArrayList<>();
+        strategies.add(new ExactScanStrategy());
+        strategies.add(new VertexStubStrategy());
+        return strategies;
+    }
+
+    private List<Map<String, Object>> runAllStrategies(BenchmarkDataset dataset, int topK) {
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (RetrievalStrategy strategy : strategies()) {
+            results.add(runStrategy(strategy, dataset, topK));
+        }
+        return results;
+    }
+
+    // Exact scan over reduced-dimension copies of the dataset, scored against full-dimension ground truth.
+    // Synthetic vectors carry information evenly across dimensions, so use benchmark.dataset-path with real
+    // provider embeddings to see the trade-off of Matryoshka-style truncation.
+    private List<Map<String, Object>> runTruncated(BenchmarkDataset dataset, BenchmarkConfig config) {
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (Integer dimension : config.truncateDimensions) {
+            if (dimension == null || dimension <= 0 || dimension >= dataset.dimension) {
+                continue;
+            }
+            results.add(runStrategy(new ExactScanStrategy("exact-scan@" + dimension), dataset.truncated(dimension), config.topK));
+        }
+        return results;
+    }
+
+    private Map<String, Object> runStrategy(RetrievalStrategy strategy, BenchmarkDataset dataset, int topK) {
+        long buildStart = System.nanoTime();
+        strategy.build(dataset);
+        long buildNanos = System.nanoTime() - buildStart;
+
+        for (int i = 0; i < Math.min(WARMUP_QUERIES, dataset.queries.size()); i++) {
+            strategy.search(dataset.queries.get(i).embedding, topK);
+        }
+
+        long[] latencies = new long[dataset.queries.size()];
+        double recallSum = 0.0;
+        for (int i = 0; i < dataset.queries.size(); i++) {
+            BenchmarkDataset.Query query = dataset.queries.get(i);
+            long start = System.nanoTime();
+            List<Long> retrieved = strategy.search(query.embedding, topK);
+            latencies[i] = System.nanoTime() - start;
+            recallSum += recall(retrieved, query);
+        }
+        Arrays.sort(latencies);
+
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("p50", nanosToMillis(percentile(latencies, 0.50)));
+        latency.put("p99", nanosToMillis(percentile(latencies, 0.99)));
+        latency.put("max", nanosToMillis(latencies.length == 0 ? 0 : latencies[latencies.length - 1]));
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("strategy", strategy.name());
+        result.put("chunks", dataset.chunks.size());
+        result.put("dimension", dataset.dimension);
+        result.put("queries", dataset.queries.size());
+        result.put("topK", topK);
+        result.put("recallAtK", dataset.queries.isEmpty() ? 0.0 : recallSum / dataset.queries.size());
+        result.put("latencyMs", latency);
+        result.put("buildMs", nanosToMillis(buildNanos));
+        result.put("estimatedResidentBytesPerUser", strategy.estimatedResidentBytes());
+        result.put("estimatedRemoteBytesPerUser", strategy.estimatedRemoteBytes());
+
+        log.info("Benchmark {} @ {} chunks: recall@{}={}, p50={}ms, p99={}ms",
+            strategy.name(), dataset.chunks.size(), topK, result.get("recallAtK"), latency.get("p50"), latency.get("p99"));
+        return result;
+    }
+
+    private double recall(List<Long> retrieved, BenchmarkDataset.Query query) {
+        if (query.relevantChunkIds.isEmpty()) {
+            return 1.0;
+        }
+        long hits = retrieved.stream().filter(query.relevantChunkIds::contains).count();
+        return (double) hits / query.relevantChunkIds.size();
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static double nanosToMillis(long nanos) {
+        return Math.round(nanos / 1_000.0) / 1_000.0;
+    }
+
+    // Shallow heap estimate for a compact (Latin-1) String: header + byte[] header + payload, 8-byte aligned
+    static long stringBytes(String s) {
+        return s == null ? 0 : align(24) + align(16 + s.length());
+    }
+
+    static long floatArrayBytes(float[] array) {
+        return array == null ? 0 : align(16 + 4L * array.length);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    interface RetrievalStrategy {
+        String name();
+
+        void build(BenchmarkDataset dataset);
+
+        List<Long> search(float[] queryEmbedding, int topK);
+
+        long estimatedResidentBytes();
+
+        default long estimatedRemoteBytes() {
+            return 0;
+        }
+    }
+
+    // The PostgreSQL fallback path: entities with string embeddings, parsed and scanned on every query
+    private class ExactScanStrategy implements RetrievalStrategy {
+        private final String name;
+        private List<TransactionChunk> chunks;
+
+        ExactScanStrategy() {
+            this("exact-scan");
+        }
+
+        ExactScanStrategy(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public void build(BenchmarkDataset dataset) {
+            chunks = new ArrayList<>(dataset.chunks.size());
+            for (BenchmarkDataset.Chunk source : dataset.chunks) {
+                chunks.add(toEntity(source));
+            }
+        }
+
+        @Override
+        public List<Long> search(float[] queryEmbedding, int topK) {
+            List<Long> ids = new ArrayList<>(topK);
+            for (VectorStoreService.ChunkSimilarity cs : vectorStoreService.rankBySimilarity(chunks, queryEmbedding, topK)) {
+                ids.add(cs.chunk.getId());
+            }
+            return ids;
+        }
+
+        @Override
+        public long estimatedResidentBytes() {
+            long bytes = 0;
+            for (TransactionChunk chunk : chunks) {
+                bytes += 64 + stringBytes(chunk.getChunkText()) + stringBytes(chunk.getEmbedding());
+            }
+            return bytes;
+        }
+    }
+
+    // The Vertex AI path with the remote index replaced by an in-process dot-product stub.
+    // Exercises the distance-to-similarity conversion and the datapoint-to-chunk mapping step.
+    private class VertexStubStrategy implements RetrievalStrategy {
+        private String[] datapointIds;
+        private float[][] vectors;
+        private Map<String, TransactionChunk> chunksByDatapoint;
+
+        @Override
+        public String name() {
+            return "vertex-stub";
+        }
+
+        @Override
+        public void build(BenchmarkDataset dataset) {
+            int n = dataset.chunks.size();
+            datapointIds = new String[n];
+            vectors = new float[n][];
+            chunksByDatapoint = new HashMap<>(n * 2);
+            for (int i = 0; i < n; i++) {
+                BenchmarkDataset.Chunk source = dataset.chunks.get(i);
+                String datapointId = String.format("user_%d_tx_%d_chunk_%d", 0L, source.id, source.id);
+                TransactionChunk chunk = toEntity(source);
+                chunk.setVertexDatapointId(datapointId);
+                datapointIds[i] = datapointId;
+                vectors[i] = source.embedding;
+                chunksByDatapoint.put(datapointId, chunk);
+            }
+        }
+
+        @Override
+        public List<Long> search(float[] queryEmbedding, int topK) {
+            List<double[]> neighbors = new ArrayList<>(vectors.length);
+            for (int i = 0; i < vectors.length; i++) {
+                double dot = 0.0;
+                float[] v = vectors[i];
+                for (int d = 0; d < v.length; d++) {
+                    dot += queryEmbedding[d] * v[d];
+                }
+                neighbors.add(new double[] { i, VertexAIVectorStoreService.distanceToSimilarity(dot) });
+            }
+            neighbors.sort((a, b) -> Double.compare(b[1], a[1]));
+
+            List<Long> ids = new ArrayList<>(topK);
+            for (int i = 0; i < Math.min(topK, neighbors.size()); i++) {
+                TransactionChunk chunk = chunksByDatapoint.get(datapointIds[(int) neighbors.get(i)[0]]);
+                if (chunk != null) {
+                    ids.add(chunk.getId());
+                }
+            }
+            return ids;
+        }
+
+        @Override
+        public long estimatedResidentBytes() {
+            // Only the datapoint mapping stays in the application; vectors live in the remote index
+            long bytes = 0;
+            for (String id : datapointIds) {
+                bytes += stringBytes(id);
+            }
+            return bytes;
+        }
+
+        @Override
+        public long estimatedRemoteBytes() {
+            long bytes = 0;
+            for (float[] v : vectors) {
+                bytes += floatArrayBytes(v);
+            }
+            return bytes;
+        }
+    }
+
+    private TransactionChunk toEntity(BenchmarkDataset.Chunk source) {
+        TransactionChunk chunk = new TransactionChunk();
+        chunk.setId(source.id);
+        chunk.setUserId(0L);
+        chunk.setTransactionId(source.id);
+        chunk.setChunkText(source.text);
+        chunk.setEmbedding(embeddingService.embeddingToString(source.embedding));
+        chunk.setChunkIndex(0);
+        return chunk;
+    }
+
+    public static class BenchmarkConfig {
+        public List<Integer> sizes = List.of(1_000, 10_000, 100_000);
+        public int dimension = 256;
+        public int queries = 20;
+        public int topK = 10;
+        public long seed = 42L;
+        // Also run the exact scan with vectors truncated to these sizes (must be below dimension)
+        public List<Integer> truncateDimensions = List.of();
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("sizes", sizes);
+            map.put("dimension", dimension);
+            map.put("queries", queries);
+            map.put("topK", topK);
+            map.put("seed", seed);
+            map.put("truncateDimensions", truncateDimensions);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package ai.efinsight.e_finsight.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Configuration
+@ConfigurationProperties(prefix = "agents")
+public class AgentConfig {
+    // Run the plan's agents concurrently; false runs them one after another on the request thread
+    private boolean parallel = true;
+    // Agent calls in flight across all requests; the rest wait for a slot
+    private int maxConcurrency = 16;
+    // Per-agent limit, counted from when the plan's agents are submitted; late agents are cancelled
+    private int timeoutSeconds = 60;
+    // Semantic answer cache: a question whose embedding is at least this similar to an earlier one
+    // (same user, agent and data) reuses that answer
+    private boolean responseCacheEnabled = true;
+    private double responseCacheSimilarity = 0.92;
+    private int responseCacheTtlSeconds = 1800;
+    private int responseCacheMaxEntries = 2_000;
+    // Estimated tokens of retrieved context per agent prompt; lowest-ranked chunks beyond it are dropped
+    private int contextTokenBudget = 2_000;
+    // Per-agent overrides, keyed by agent class name (e.g. agents.context-token-budgets.SpendingAnalyst=3000)
+    private Map<String, Integer> contextTokenBudgets = new HashMap<>();
+    // Default plan mode when a request does not choose one: "agents" fans out to one LLM call per
+    // section, "combined" asks for all sections in a single structured (JSON) call
+    private String planMode = "agents";
+    // Agents that read another section (budget and investment read the spending analysis) run after it
+    // and get a summary of it in their prompt, with fewer retrieved chunks; false runs every agent
+    // independently on retrieved chunks alone
+    private boolean upstreamInputsEnabled = true;
+    // Estimated tokens of each upstream section summary in a downstream agent's prompt
+    private int upstreamSummaryTokens = 300;
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public void setMaxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public int getTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+
+    public void setTimeoutSeconds(int timeoutSeconds) {
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    public boolean isResponseCacheEnabled() {
+        return responseCacheEnabled;
+    }
+
+    public void setResponseCacheEnabled(boolean responseCacheEnabled) {
+        this.responseCacheEnabled = responseCacheEnabled;
+    }
+
+    public double getResponseCacheSimilarity() {
+        return responseCacheSimilarity;
+    }
+
+    public void setResponseCacheSimilarity(double responseCacheSimilarity) {
+        this.responseCacheSimilarity = responseCacheSimilarity;
+    }
+
+    public int getResponseCacheTtlSeconds() {
+        return responseCacheTtlSeconds;
+    }
+
+    public void setResponseCacheTtlSeconds(int responseCacheTtlSeconds) {
+        this.responseCacheTtlSeconds = responseCacheTtlSeconds;
+    }
+
+    public int getContextTokenBudget() {
+        return contextTokenBudget;
+    }
+
+    public void setContextTokenBudget(int contextTokenBudget) {
+        this.contextTokenBudget = contextTokenBudget;
+    }
+
+    public int getContextTokenBudget(String agent) {
+        return contextTokenBudgets.getOrDefault(agent, contextTokenBudget);
+    }
+
+    public Map<String, Integer> getContextTokenBudgets() {
+        return contextTokenBudgets;
+    }
+
+    public void setContextTokenBudgets(Map<String, Integer> contextTokenBudgets) {
+        this.contextTokenBudgets = contextTokenBudgets;
+    }
+
+    public int getResponseCacheMaxEntries() {
+        return responseCacheMaxEntries;
+    }
+
+    public void setResponseCacheMaxEntries(int responseCacheMaxEntries) {
+        this.responseCacheMaxEntries = responseCacheMaxEntries;
+    }
+
+    public String getPlanMode() {
+        return planMode;
+    }
+
+    public void setPlanMode(String planMode) {
+        this.planMode = planMode;
+    }
+
+    public boolean isUpstreamInputsEnabled() {
+        return upstreamInputsEnabled;
+    }
+
+    public void setUpstreamInputsEnabled(boolean upstreamInputsEnabled) {
+        this.upstreamInputsEnabled = upstreamInputsEnabled;
+    }
+
+    public int getUpstreamSummaryTokens() {
+        return upstreamSummaryTokens;
+    }
+
+    public void setUpstreamSummaryTokens(int upstreamSummaryTokens) {
+        this.upstreamSummaryTokens = upstreamSummaryTokens;
+    }
+}
@@ -0,0 +1,87 @@
+package ai.efinsight.e_finsight.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties(prefix = "backfill")
+public class BackfillConfig {
+    // OpenAI-compatible Files + Batches API; defaults to the primary embedding endpoint (or the local stub when it is enabled)
+    private String apiUrl;
+    // Defaults to the primary embedding endpoint's API key
+    private String apiKey;
+    private String completionWindow = "24h";
+    // OpenAI accepts at most 50,000 requests per batch input file
+    private int maxRequestsPerFile = 50_000;
+    private int pollIntervalSeconds = 30;
+    // Where JSONL input/output files are written; defaults to java.io.tmpdir
+    private String workDir;
+    // Finished jobs stay visible to GET /backfill/{jobId} this long, then are forgotten
+    private int jobRetentionMinutes = 1440;
+    // > 0 starts the in-process Batch API stand-in on this port (local embeddings, for tests and load runs)
+    private int stubServerPort = 0;
+
+    public String getApiUrl() {
+        return apiUrl;
+    }
+
+    public void setApiUrl(String apiUrl) {
+        this.apiUrl = apiUrl;
+    }
+
+    public String getApiKey() {
+        return apiKey;
+    }
+
+    public void setApiKey(String apiKey) {
+        this.apiKey = apiKey;
+    }
+
+    public String getCompletionWindow() {
+        return completionWindow;
+    }
+
+    public void setCompletionWindow(String completionWindow) {
+        this.completionWindow = completionWindow;
+    }
+
+    public int getMaxRequestsPerFile() {
+        return maxRequestsPerFile;
+    }
+
+    public void setMaxRequestsPerFile(int maxRequestsPerFile) {
+        this.maxRequestsPerFile = maxRequestsPerFile;
+    }
+
+    public int getPollIntervalSeconds() {
+        return pollIntervalSeconds;
+    }
+
+    public void setPollIntervalSeconds(int pollIntervalSeconds) {
+        this.pollIntervalSeconds = pollIntervalSeconds;
+    }
+
+    public String getWorkDir() {
+        return workDir;
+    }
+
+    public void setWorkDir(String workDir) {
+        this.workDir = workDir;
+    }
+
+    public int getJobRetentionMinutes() {
+        return jobRetentionMinutes;
+    }
+
+    public void setJobRetentionMinutes(int jobRetentionMinutes) {
+        this.jobRetentionMinutes = jobRetentionMinutes;
+    }
+
+    public int getStubServerPort() {
+        return stubServerPort;
+    }
+
+    public void setStubServerPort(int stubServerPort) {
+        this.stubServerPort = stubServerPort;
+    }
+}
@@ -0,0 +1,198 @@
+package ai.efinsight.e_finsight.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.pool.PoolConcurrencyPolicy;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One pooled, keep-alive HTTP client shared by every outbound integration (LLM, embeddings,
+ * TrueLayer). Connections are reused across requests instead of paying a TCP + TLS handshake
+ * each time, and pool size, timeouts and gzip are configured in one place under http.client.*.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "http.client")
+public class HttpClientConfig {
+    private static final Logger log = LoggerFactory.getLogger(HttpClientConfig.class);
+
+    private int maxTotal = 200;
+    private int defaultMaxPerHost = 20;
+    // Per-host overrides: http.client.max-per-host[generativelanguage.googleapis.com]=50
+    // Keys are host names (HTTPS on 443) or full origins such as http://localhost:8089
+    private Map<String, Integer> maxPerHost = new LinkedHashMap<>();
+    private int connectTimeoutMs = 5_000;
+    // Socket read timeout; LLM completions can take well over 30s
+    private int readTimeoutMs = 120_000;
+    // Maximum wait for a free pooled connection before failing the request
+    private int connectionRequestTimeoutMs = 10_000;
+    private int idleEvictSeconds = 30;
+    private int connectionTimeToLiveSeconds = 300;
+    private boolean gzip = true;
+
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager httpConnectionManager(MeterRegistry meterRegistry) {
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+            .setPoolConcurrencyPolicy(PoolConcurrencyPolicy.STRICT)
+            .setMaxConnTotal(maxTotal)
+            .setMaxConnPerRoute(defaultMaxPerHost)
+            .setDefaultConnectionConfig(ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                .setSocketTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                .setTimeToLive(TimeValue.ofSeconds(connectionTimeToLiveSeconds))
+                .setValidateAfterInactivity(TimeValue.ofSeconds(10))
+                .build())
+            .build();
+
+        for (Map.Entry<String, Integer> entry : maxPerHost.entrySet()) {
+            HttpRoute route = toRoute(entry.getKey());
+            connectionManager.setMaxPerRoute(route, entry.getValue());
+            registerRouteGauges(meterRegistry, connectionManager, route);
+        }
+
+        // httpcomponents.httpclient.pool.* gauges: leased/available/pending connections and limits
+        new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, "outbound").bindTo(meterRegistry);
+
+        log.info("Outbound HTTP pool: maxTotal={}, defaultMaxPerHost={}, perHost={}, connectTimeout={}ms, readTimeout={}ms, gzip={}",
+            maxTotal, defaultMaxPerHost, maxPerHost, connectTimeoutMs, readTimeoutMs, gzip);
+        return connectionManager;
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient outboundHttpClient(PoolingHttpClientConnectionManager httpConnectionManager) {
+        HttpClientBuilder builder = HttpClients.custom()
+            .setConnectionManager(httpConnectionManager)
+            .setDefaultRequestConfig(RequestConfig.custom()
+                .setConnectionRequestTimeout(Timeout.ofMilliseconds(connectionRequestTimeoutMs))
+                .setResponseTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                .build())
+            .evictExpiredConnections()
+            .evictIdleConnections(TimeValue.ofSeconds(idleEvictSeconds));
+        if (!gzip) {
+            // Otherwise requests advertise Accept-Encoding: gzip, deflate and responses are decompressed transparently
+            builder.disableContentCompression();
+        }
+        return builder.build();
+    }
+
+    @Bean
+    public RestTemplate restTemplate(CloseableHttpClient outboundHttpClient) {
+        return new RestTemplate(new HttpComponentsClientHttpRequestFactory(outboundHttpClient));
+    }
+
+    private static HttpRoute toRoute(String host) {
+        if (host.contains("://")) {
+            URI uri = URI.create(host);
+            boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+            int port = uri.getPort() > 0 ? uri.getPort() : (secure ? 443 : 80);
+            return new HttpRoute(new HttpHost(uri.getScheme(), uri.getHost(), port), null, secure);
+        }
+        return new HttpRoute(new HttpHost("https", host, 443), null, true);
+    }
+
+    private static void registerRouteGauges(MeterRegistry meterRegistry, PoolingHttpClientConnectionManager connectionManager, HttpRoute route) {
+        String host = route.getTargetHost().toHostString();
+        Gauge.builder("http.client.pool.route.leased", connectionManager, cm -> cm.getStats(route).getLeased())
+            .tag("host", host)
+            .register(meterRegistry);
+        Gauge.builder("http.client.pool.route.pending", connectionManager, cm -> cm.getStats(route).getPending())
+            .tag("host", host)
+            .register(meterRegistry);
+        Gauge.builder("http.client.pool.route.max", connectionManager, cm -> cm.getMaxPerRoute(route))
+            .tag("host", host)
+            .register(meterRegistry);
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    public void setMaxTotal(int maxTotal) {
+        this.maxTotal = maxTotal;
+    }
+
+    public int getDefaultMaxPerHost() {
+        return defaultMaxPerHost;
+    }
+
+    public void setDefaultMaxPerHost(int defaultMaxPerHost) {
+        this.defaultMaxPerHost = defaultMaxPerHost;
+    }
+
+    public Map<String, Integer> getMaxPerHost() {
+        return maxPerHost;
+    }
+
+    public void setMaxPerHost(Map<String, Integer> maxPerHost) {
+        this.maxPerHost = maxPerHost;
+    }
+
+    public int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    public void setConnectTimeoutMs(int connectTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+    }
+
+    public int getReadTimeoutMs() {
+        return readTimeoutMs;
+    }
+
+    public void setReadTimeoutMs(int readTimeoutMs) {
+        this.readTimeoutMs = readTimeoutMs;
+    }
+
+    public int getConnectionRequestTimeoutMs() {
+        return connectionRequestTimeoutMs;
+    }
+
+    public void setConnectionRequestTimeoutMs(int connectionRequestTimeoutMs) {
+        this.connectionRequestTimeoutMs = connectionRequestTimeoutMs;
+    }
+
+    public int getIdleEvictSeconds() {
+        return idleEvictSeconds;
+    }
+
+    public void setIdleEvictSeconds(int idleEvictSeconds) {
+        this.idleEvictSeconds = idleEvictSeconds;
+    }
+
+    public int getConnectionTimeToLiveSeconds() {
+        return connectionTimeToLiveSeconds;
+    }
+
+    public void setConnectionTimeToLiveSeconds(int connectionTimeToLiveSeconds) {
+        this.connectionTimeToLiveSeconds = connectionTimeToLiveSeconds;
+    }
+
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+}
@@ -0,0 +1,86 @@
+package ai.efinsight.e_finsight.controller;
+
+import ai.efinsight.e_finsight.benchmark.EmbeddingDecodeBenchmark;
+import ai.efinsight.e_finsight.benchmark.RetrievalBenchmark;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/benchmark")
+@ConditionalOnProperty(name = "benchmark.enabled", havingValue = "true")
+public class BenchmarkController {
+    private static final Logger log = LoggerFactory.getLogger(BenchmarkController.class);
+
+    private final RetrievalBenchmark retrievalBenchmark;
+    private final EmbeddingDecodeBenchmark embeddingDecodeBenchmark;
+
+    public BenchmarkController(RetrievalBenchmark retrievalBenchmark, EmbeddingDecodeBenchmark embeddingDecodeBenchmark) {
+        this.retrievalBenchmark = retrievalBenchmark;
+        this.embeddingDecodeBenchmark = embeddingDecodeBenchmark;
+    }
+
+    @PostMapping("/retrieval")
+    public ResponseEntity<?> runRetrievalBenchmark(@RequestBody(required = false) Map<String, Object> request) {
+        try {
+            RetrievalBenchmark.BenchmarkConfig config = new RetrievalBenchmark.BenchmarkConfig();
+            if (request != null) {
+                if (request.get("sizes") instanceof List<?> sizes) {
+                    List<Integer> parsed = new ArrayList<>();
+                    for (Object size : sizes) {
+                        parsed.add(((Number) size).intValue());
+                    }
+                    config.sizes = parsed;
+                }
+                if (request.get("truncateDimensions") instanceof List<?> dimensions) {
+                    List<Integer> parsed = new ArrayList<>();
+                    for (Object dimension : dimensions) {
+                        parsed.add(((Number) dimension).intValue());
+                    }
+                    config.truncateDimensions = parsed;
+                }
+                if (request.get("dimension") != null) config.dimension = ((Number) request.get("dimension")).intValue();
+                if (request.get("queries") != null) config.queries = ((Number) request.get("queries")).intValue();
+                if (request.get("topK") != null) config.topK = ((Number) request.get("topK")).intValue();
+                if (request.get("seed") != null) config.seed = ((Number) request.get("seed")).longValue();
+            }
+
+            return ResponseEntity.ok(retrievalBenchmark.run(config));
+        } catch (Exception e) {
+            log.error("Error running retrieval benchmark", e);
+            Map<String, String> error = new HashMap<>();
+            error.put("error", "Failed to run retrieval benchmark: " + e.getMessage());
+            return ResponseEntity.status(500).body(error);
+        }
+    }
+
+    @PostMapping("/embedding-decode")
+    public ResponseEntity<?> runEmbeddingDecodeBenchmark(@RequestBody(required = false) Map<String, Object> request) {
+        try {
+            int vectors = intParam(request, "vectors", 100);
+            int dimension = intParam(request, "dimension", 3072);
+            int iterations = intParam(request, "iterations", 20);
+
+            return ResponseEntity.ok(embeddingDecodeBenchmark.run(vectors, dimension, iterations));
+        } catch (Exception e) {
+            log.error("Error running embedding decode benchmark", e);
+            Map<String, String> error = new HashMap<>();
+            error.put("error", "Failed to run embedding decode benchmark: " + e.getMessage());
+            return ResponseEntity.status(500).body(error);
+        }
+    }
+
+    private int intParam(Map<String, Object> request, String name, int defaultValue) {
+        if (request == null || request.get(name) == null) {
+            return defaultValue;
+        }
+        return ((Number) request.get(name)).intValue();
+    }
+}
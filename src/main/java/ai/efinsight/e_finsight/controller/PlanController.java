@@ -1,22 +1,37 @@
 package ai.efinsight.e_finsight.controller;
 
 import ai.efinsight.e_finsight.agent.AgentCoordinatorService;
+import ai.efinsight.e_finsight.agent.PlanStreamListener;
+import ai.efinsight.e_finsight.dto.CitationDto;
 import ai.efinsight.e_finsight.dto.PlanResponseDto;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @RestController
 @RequestMapping("/api/plan")
 public class PlanController {
     private static final Logger log = LoggerFactory.getLogger(PlanController.class);
 
+    // Long plans with three sections can take a while; the emitter is closed explicitly when done
+    private static final long STREAM_TIMEOUT_MS = 5 * 60 * 1000L;
+
     private final AgentCoordinatorService coordinatorService;
+    private final ExecutorService streamExecutor = Executors.newVirtualThreadPerTaskExecutor();
 
     public PlanController(AgentCoordinatorService coordinatorService) {
         this.coordinatorService = coordinatorService;
@@ -42,9 +57,19 @@ public class PlanController {
         boolean legacy = request.containsKey("legacy") && 
                         Boolean.parseBoolean(request.get("legacy"));
         
+        // "agents" (one call per section) or "combined" (one structured call); default agents.plan-mode
+        String mode = request.get("mode");
+        if (mode != null && !AgentCoordinatorService.MODE_AGENTS.equalsIgnoreCase(mode)
+                && !AgentCoordinatorService.MODE_COMBINED.equalsIgnoreCase(mode)) {
+            PlanResponseDto error = new PlanResponseDto();
+            error.setSuccess(false);
+            error.setError("mode must be 'agents' or 'combined'");
+            return ResponseEntity.badRequest().body(error);
+        }
+
         // Log the request for debugging
-        log.info("Generating plan for user: {} with question: {} (legacy: {})", 
-            userId, question, legacy);
+        log.info("Generating plan for user: {} with question: {} (legacy: {}, mode: {})", 
+            userId, question, legacy, mode);
         
         try {
             if (legacy) {
@@ -61,7 +86,7 @@ public class PlanController {
                 return ResponseEntity.ok(response);
             } else {
                 // Return structured response (default)
-                PlanResponseDto planResponse = coordinatorService.generateStructuredPlan(userId, question);
+                PlanResponseDto planResponse = coordinatorService.generateStructuredPlan(userId, question, mode);
                 return ResponseEntity.ok(planResponse);
             }
         } catch (Exception e) {
@@ -72,5 +97,90 @@ public class PlanController {
             return ResponseEntity.internalServerError().body(error);
         }
     }
+
+    // Server-Sent Events version of the structured plan. Events: "citations" (list), then per section
+    // "section-start", "token" ({section, text}) and "section-complete", and finally "done" with the
+    // full PlanResponseDto (or "error"). GET takes ?question= for EventSource clients.
+    @PostMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<?> streamPlan(
+            @RequestBody Map<String, String> request,
+            Authentication authentication) {
+        return startStream((Long) authentication.getPrincipal(), request.get("question"));
+    }
+
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<?> streamPlan(
+            @RequestParam String question,
+            Authentication authentication) {
+        return startStream((Long) authentication.getPrincipal(), question);
+    }
+
+    private ResponseEntity<?> startStream(Long userId, String question) {
+        if (question == null || question.trim().isEmpty()) {
+            PlanResponseDto error = new PlanResponseDto();
+            error.setSuccess(false);
+            error.setError("Question is required");
+            return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON).body(error);
+        }
+        log.info("Streaming plan for user: {} with question: {}", userId, question);
+
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MS);
+        streamExecutor.submit(() -> {
+            try {
+                PlanResponseDto plan = coordinatorService.streamStructuredPlan(userId, question, new PlanStreamListener() {
+                    @Override
+                    public void onCitations(List<CitationDto> citations) {
+                        send(emitter, "citations", citations);
+                    }
+
+                    @Override
+                    public void onSectionStart(String section) {
+                        send(emitter, "section-start", Map.of("section", section));
+                    }
+
+                    @Override
+                    public void onToken(String section, String token) {
+                        send(emitter, "token", Map.of("section", section, "text", token));
+                    }
+
+                    @Override
+                    public void onSectionComplete(String section, String content) {
+                        send(emitter, "section-complete", Map.of("section", section));
+                    }
+                });
+                send(emitter, "done", plan);
+                emitter.complete();
+            } catch (Exception e) {
+                log.error("Error streaming plan for user: {}", userId, e);
+                try {
+                    emitter.send(SseEmitter.event().name("error").data(Map.of("error", "Failed to generate plan: " + e.getMessage())));
+                    emitter.complete();
+                } catch (Exception ignored) {
+                    // Client already disconnected
+                    emitter.completeWithError(e);
+                }
+            }
+        });
+
+        // Stop reverse proxies (nginx) from buffering the stream
+        return ResponseEntity.ok()
+            .header("X-Accel-Buffering", "no")
+            .header(HttpHeaders.CACHE_CONTROL, "no-cache")
+            .body(emitter);
+    }
+
+    // A failed send means the client went away; the exception stops generation for this request
+    private void send(SseEmitter emitter, String event, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(event).data(data));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Client disconnected from plan stream", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        streamExecutor.shutdownNow();
+    }
 }
 
@@ -1,8 +1,8 @@
 package ai.efinsight.e_finsight.controller;
 
-import ai.efinsight.e_finsight.rag.EmbeddingService;
 import ai.efinsight.e_finsight.rag.RagService;
 import ai.efinsight.e_finsight.rag.RagService.RagContext;
+import ai.efinsight.e_finsight.rag.RetrievalStatsService;
 import ai.efinsight.e_finsight.rag.VectorStoreService;
 import ai.efinsight.e_finsight.rag.VectorStoreService.ChunkSimilarity;
 import org.slf4j.Logger;
@@ -23,15 +23,15 @@ public class RagTestController {
 
     private final RagService ragService;
     private final VectorStoreService vectorStoreService;
-    private final EmbeddingService embeddingService;
+    private final RetrievalStatsService retrievalStatsService;
 
     public RagTestController(
             RagService ragService,
             VectorStoreService vectorStoreService,
-            EmbeddingService embeddingService) {
+            RetrievalStatsService retrievalStatsService) {
         this.ragService = ragService;
         this.vectorStoreService = vectorStoreService;
-        this.embeddingService = embeddingService;
+        this.retrievalStatsService = retrievalStatsService;
     }
 
     @PostMapping("/retrieve")
@@ -51,7 +51,7 @@ public class RagTestController {
 
             log.info("Testing RAG retrieval for query: '{}' (user: {}, topK: {})", query, userId, topK);
 
-            float[] queryEmbedding = embeddingService.generateEmbedding(query);
+            float[] queryEmbedding = ragService.embedQuery(userId, query);
             if (queryEmbedding == null) {
                 Map<String, String> error = new HashMap<>();
                 error.put("error", "Failed to generate embedding for query");
@@ -103,12 +103,7 @@ public class RagTestController {
     public ResponseEntity<?> getRagStats(Authentication authentication) {
         try {
             Long userId = (Long) authentication.getPrincipal();
-            
-            Map<String, Object> stats = new HashMap<>();
-            stats.put("userId", userId);
-            stats.put("message", "RAG statistics endpoint - check your transaction chunks count");
-            
-            return ResponseEntity.ok(stats);
+            return ResponseEntity.ok(retrievalStatsService.getUserStats(userId));
         } catch (Exception e) {
             log.error("Error getting RAG stats", e);
             Map<String, String> error = new HashMap<>();
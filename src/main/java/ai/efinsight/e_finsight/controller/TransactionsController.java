@@ -1,6 +1,8 @@
 package ai.efinsight.e_finsight.controller;
 
 import ai.efinsight.e_finsight.model.Transaction;
+import ai.efinsight.e_finsight.rag.EmbeddingBackfillService;
+import ai.efinsight.e_finsight.rag.EmbeddingBackfillService.BackfillJob;
 import ai.efinsight.e_finsight.service.TransactionService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,9 +21,11 @@ public class TransactionsController {
     private static final Logger log = LoggerFactory.getLogger(TransactionsController.class);
 
     private final TransactionService transactionService;
+    private final EmbeddingBackfillService backfillService;
 
-    public TransactionsController(TransactionService transactionService) {
+    public TransactionsController(TransactionService transactionService, EmbeddingBackfillService backfillService) {
         this.transactionService = transactionService;
+        this.backfillService = backfillService;
     }
 
     @PostMapping("/ingest")
@@ -84,17 +88,33 @@ public class TransactionsController {
         }
     }
 
+    // mode=incremental (default) re-embeds only transactions whose summary or chunking changed;
+    // mode=full deletes every chunk and re-embeds everything
     @PostMapping("/reprocess")
-    public ResponseEntity<?> reprocessTransactions(Authentication authentication) {
+    public ResponseEntity<?> reprocessTransactions(
+            Authentication authentication,
+            @RequestParam(defaultValue = "incremental") String mode) {
         try {
             Long userId = (Long) authentication.getPrincipal();
-            log.info("Transaction reprocessing requested for user: {}", userId);
-
-            int processed = transactionService.reprocessAllTransactions(userId);
+            log.info("Transaction reprocessing ({}) requested for user: {}", mode, userId);
 
             Map<String, Object> response = new HashMap<>();
+            if ("full".equalsIgnoreCase(mode)) {
+                int processed = transactionService.reprocessAllTransactions(userId);
+                response.put("count", processed);
+            } else if ("incremental".equalsIgnoreCase(mode)) {
+                TransactionService.ReprocessResult result = transactionService.reprocessChangedTransactions(userId);
+                response.put("count", result.reembedded);
+                response.put("scanned", result.scanned);
+                response.put("unchanged", result.unchanged);
+                response.put("changed", result.changed);
+            } else {
+                Map<String, String> error = new HashMap<>();
+                error.put("error", "Unknown reprocess mode: " + mode + " (expected incremental or full)");
+                return ResponseEntity.badRequest().body(error);
+            }
             response.put("message", "Transactions reprocessed successfully");
-            response.put("count", processed);
+            response.put("mode", mode.toLowerCase());
             response.put("userId", userId);
 
             return ResponseEntity.ok(response);
@@ -105,5 +125,46 @@ public class TransactionsController {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(error);
         }
     }
-}
 
+    // Chunk unprocessed transactions without embedding them, then embed every pending chunk through the
+    // provider's asynchronous Batch API. Returns immediately; poll GET /backfill/{jobId} for progress.
+    @PostMapping("/backfill")
+    public ResponseEntity<?> startBackfill(Authentication authentication) {
+        try {
+            Long userId = (Long) authentication.getPrincipal();
+            log.info("Embedding backfill requested for user: {}", userId);
+
+            String unsupported = backfillService.unsupportedReason();
+            if (unsupported != null) {
+                log.warn("Embedding backfill not available: {}", unsupported);
+                Map<String, String> error = new HashMap<>();
+                error.put("error", "Embedding backfill not available: " + unsupported);
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(error);
+            }
+
+            int chunked = transactionService.chunkUnprocessedForBackfill(userId);
+            BackfillJob job = backfillService.startBackfill(userId);
+
+            Map<String, Object> response = job.toMap();
+            response.put("transactionsChunked", chunked);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+        } catch (Exception e) {
+            log.error("Error starting embedding backfill", e);
+            Map<String, String> error = new HashMap<>();
+            error.put("error", "Failed to start embedding backfill: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(error);
+        }
+    }
+
+    @GetMapping("/backfill/{jobId}")
+    public ResponseEntity<?> getBackfill(@PathVariable String jobId, Authentication authentication) {
+        Long userId = (Long) authentication.getPrincipal();
+        BackfillJob job = backfillService.getJob(jobId);
+        if (job == null || !job.userId.equals(userId)) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", "Backfill job not found: " + jobId);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(error);
+        }
+        return ResponseEntity.ok(job.toMap());
+    }
+}
@@ -0,0 +1,265 @@
+package ai.efinsight.e_finsight.llm;
+
+import ai.efinsight.e_finsight.resilience.LatencyWindow;
+import ai.efinsight.e_finsight.resilience.RetryPolicy;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Retry, failover, deadline and hedging for chat calls, shared by both providers. Each call gets the
+ * endpoints to use in order from {@link ProviderRegistry}. Failed attempts that are worth retrying
+ * (429, 5xx, timeouts) move on to the next endpoint straight away, or are retried on the same one with
+ * jittered backoff when there is only one, while the call's deadline allows. With hedging on, an
+ * attempt that is slower than the endpoint's recent p95 gets a second, identical request on the next
+ * endpoint; the first success wins and the other request is cancelled.
+ */
+@Component
+public class ChatCallExecutor {
+    private static final Logger log = LoggerFactory.getLogger(ChatCallExecutor.class);
+
+    private static final int LATENCY_WINDOW_SIZE = 200;
+    private static final int LATENCY_MIN_SAMPLES = 20;
+    private static final double HEDGE_PERCENTILE = 95;
+    // Unused hedge budget carried over; bounds a burst of hedges after a quiet period
+    private static final double MAX_HEDGE_BUDGET = 10;
+
+    private final LLMConfig config;
+    private final ProviderRegistry providers;
+    private final MeterRegistry meterRegistry;
+    private final RetryPolicy retryPolicy;
+    private final Map<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("llm-call-", 0).factory());
+    private double hedgeBudget;
+
+    public ChatCallExecutor(LLMConfig config, ProviderRegistry providers, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.providers = providers;
+        this.meterRegistry = meterRegistry;
+        this.retryPolicy = new RetryPolicy(config.getChatMaxRetries(), config.getChatRetryBaseDelayMs(), config.getChatRetryMaxDelayMs());
+    }
+
+    // request makes one HTTP call to the given endpoint with the given model. deadlineNanos is the
+    // caller's System.nanoTime() deadline, 0 for none; llm.chat-deadline-ms always applies.
+    public String call(ModelRouter.Tier tier, long deadlineNanos, BiFunction<ProviderEndpoint, String, String> request) {
+        List<ProviderEndpoint> candidates = providers.candidates(ProviderRegistry.Kind.CHAT);
+        long deadline = deadline(deadlineNanos);
+        return withRetries(candidates, deadline, () -> true,
+            index -> attempt(candidates, index, tier, deadline, request));
+    }
+
+    // Streaming calls are not hedged (two streams would both deliver tokens) and are only retried or
+    // failed over while started reports that no token has been delivered yet
+    public String callStreaming(ModelRouter.Tier tier, long deadlineNanos, BooleanSupplier started,
+                                BiFunction<ProviderEndpoint, String, String> request) {
+        List<ProviderEndpoint> candidates = providers.candidates(ProviderRegistry.Kind.CHAT);
+        return withRetries(candidates, deadline(deadlineNanos), () -> !started.getAsBoolean(), index -> {
+            ProviderEndpoint endpoint = candidates.get(index);
+            try {
+                String result = request.apply(endpoint, endpoint.chatModel(tier));
+                // Stream duration depends on answer length, so it says nothing about the endpoint's latency
+                providers.onSuccess(endpoint, ProviderRegistry.Kind.CHAT, -1);
+                return result;
+            } catch (RuntimeException e) {
+                reportFailure(endpoint, e);
+                throw e;
+            }
+        });
+    }
+
+    private long deadline(long deadlineNanos) {
+        long own = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getChatDeadlineMs());
+        return deadlineNanos != 0 ? Math.min(own, deadlineNanos) : own;
+    }
+
+    // Attempt n goes to candidates[(n - 1) % size]: every endpoint gets a turn before any is retried.
+    // Switching endpoint needs no backoff; only starting another round over the endpoints waits.
+    private String withRetries(List<ProviderEndpoint> candidates, long deadline, BooleanSupplier canRetry,
+                               AttemptFunction attempt) {
+        int maxAttempts = Math.max(retryPolicy.getMaxAttempts(), candidates.size());
+        for (int attemptNumber = 1; ; attemptNumber++) {
+            int index = (attemptNumber - 1) % candidates.size();
+            String endpointName = candidates.get(index).getName();
+            try {
+                return attempt.apply(index);
+            } catch (RuntimeException e) {
+                if (!RetryPolicy.isRetryable(e) || !canRetry.getAsBoolean() || attemptNumber >= maxAttempts) {
+                    throw e;
+                }
+                ProviderEndpoint next = candidates.get(attemptNumber % candidates.size());
+                boolean failover = !next.getName().equals(endpointName);
+                boolean newRound = attemptNumber % candidates.size() == 0;
+                long delayMillis = newRound ? retryPolicy.delayMillis(e, attemptNumber / candidates.size()) : 0;
+                if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis) >= deadline) {
+                    meterRegistry.counter("llm.chat.deadline.exceeded", "endpoint", endpointName).increment();
+                    throw e;
+                }
+                if (failover) {
+                    meterRegistry.counter("llm.chat.failovers", "from", endpointName, "to", next.getName()).increment();
+                } else {
+                    meterRegistry.counter("llm.chat.retries", "endpoint", endpointName).increment();
+                }
+                log.warn("{} chat call failed (attempt {}/{}): {}. {} {} in {}ms", endpointName, attemptNumber, maxAttempts,
+                    e.getMessage(), failover ? "Failing over to" : "Retrying", next.getName(), delayMillis);
+                if (delayMillis == 0) {
+                    continue;
+                }
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while retrying chat call", ie);
+                }
+            }
+        }
+    }
+
+    // Only failures that say something about the endpoint (overload, timeouts) count against it
+    private void reportFailure(ProviderEndpoint endpoint, RuntimeException e) {
+        if (RetryPolicy.isRetryable(e)) {
+            providers.onFailure(endpoint, ProviderRegistry.Kind.CHAT);
+        }
+    }
+
+    // One attempt on candidates[index], possibly hedged on the next candidate. Requests run on their
+    // own virtual threads so the attempt can be abandoned at the deadline; cancelling interrupts them,
+    // which aborts the HTTP call.
+    private String attempt(List<ProviderEndpoint> candidates, int index, ModelRouter.Tier tier, long deadline,
+                           BiFunction<ProviderEndpoint, String, String> request) {
+        ProviderEndpoint endpoint = candidates.get(index);
+        String model = endpoint.chatModel(tier);
+        LatencyWindow window = latencyWindow(endpoint, model);
+        CompletionService<String> completion = new ExecutorCompletionService<>(executor);
+        List<Future<String>> futures = new ArrayList<>(2);
+        List<ProviderEndpoint> targets = new ArrayList<>(2);
+        List<Long> starts = new ArrayList<>(2);
+
+        long start = System.nanoTime();
+        futures.add(completion.submit(() -> request.apply(endpoint, model)));
+        targets.add(endpoint);
+        starts.add(start);
+        long hedgeDelay = hedgeDelayNanos(window);
+        long hedgeAt = hedgeDelay >= 0 ? start + hedgeDelay : Long.MAX_VALUE;
+        depositHedgeBudget();
+
+        int pending = 1;
+        RuntimeException failure = null;
+        try {
+            while (pending > 0) {
+                long now = System.nanoTime();
+                if (now >= deadline) {
+                    for (int i = 0; i < futures.size(); i++) {
+                        if (!futures.get(i).isDone()) {
+                            providers.onFailure(targets.get(i), ProviderRegistry.Kind.CHAT);
+                        }
+                    }
+                    meterRegistry.counter("llm.chat.deadline.exceeded", "endpoint", endpoint.getName()).increment();
+                    throw new RuntimeException("Chat call to " + endpoint.getName() + " exceeded its deadline",
+                        new TimeoutException("Deadline exceeded"));
+                }
+                Future<String> done = completion.poll(Math.min(deadline, hedgeAt) - now, TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    if (System.nanoTime() >= hedgeAt) {
+                        hedgeAt = Long.MAX_VALUE;
+                        if (tryHedge()) {
+                            ProviderEndpoint hedgeEndpoint = candidates.get((index + 1) % candidates.size());
+                            String hedgeModel = hedgeEndpoint.chatModel(tier);
+                            meterRegistry.counter("llm.chat.hedges", "endpoint", endpoint.getName(), "result", "issued").increment();
+                            log.debug("Hedging {} call to {} on {} after {}ms", endpoint.getName(), model,
+                                hedgeEndpoint.getName(), (System.nanoTime() - start) / 1_000_000);
+                            futures.add(completion.submit(() -> request.apply(hedgeEndpoint, hedgeModel)));
+                            targets.add(hedgeEndpoint);
+                            starts.add(System.nanoTime());
+                            pending++;
+                        } else {
+                            meterRegistry.counter("llm.chat.hedges", "endpoint", endpoint.getName(), "result", "budget_exhausted").increment();
+                        }
+                    }
+                    continue;
+                }
+                pending--;
+                int finished = futures.indexOf(done);
+                ProviderEndpoint target = targets.get(finished);
+                try {
+                    String result = done.get();
+                    long latency = System.nanoTime() - starts.get(finished);
+                    latencyWindow(target, target.chatModel(tier)).record(latency);
+                    providers.onSuccess(target, ProviderRegistry.Kind.CHAT, latency);
+                    if (finished > 0) {
+                        meterRegistry.counter("llm.chat.hedges", "endpoint", endpoint.getName(), "result", "won").increment();
+                    }
+                    return result;
+                } catch (ExecutionException e) {
+                    // Wait for the other request, if any, before giving up
+                    failure = e.getCause() instanceof RuntimeException runtimeException
+                        ? runtimeException
+                        : new RuntimeException(e.getCause());
+                    reportFailure(target, failure);
+                }
+            }
+            throw failure;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for chat call", e);
+        } finally {
+            for (Future<String> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private LatencyWindow latencyWindow(ProviderEndpoint endpoint, String model) {
+        return latencies.computeIfAbsent(endpoint.getName() + "/" + model,
+            key -> new LatencyWindow(LATENCY_WINDOW_SIZE, LATENCY_MIN_SAMPLES));
+    }
+
+    // -1 while hedging is off or the endpoint and model have too few samples for a p95
+    private long hedgeDelayNanos(LatencyWindow window) {
+        if (!config.isChatHedgingEnabled()) {
+            return -1;
+        }
+        long p95 = window.percentile(HEDGE_PERCENTILE);
+        return p95 < 0 ? -1 : Math.max(p95, TimeUnit.MILLISECONDS.toNanos(config.getChatHedgeMinDelayMs()));
+    }
+
+    // Every call earns a fraction of a hedge, so hedges stay near chatHedgeBudgetPercent of calls even
+    // when the whole provider slows down and most calls pass the old p95
+    private synchronized void depositHedgeBudget() {
+        hedgeBudget = Math.min(MAX_HEDGE_BUDGET, hedgeBudget + config.getChatHedgeBudgetPercent() / 100.0);
+    }
+
+    private synchronized boolean tryHedge() {
+        if (hedgeBudget < 1) {
+            return false;
+        }
+        hedgeBudget -= 1;
+        return true;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @FunctionalInterface
+    private interface AttemptFunction {
+        String apply(int candidateIndex);
+    }
+}
@@ -1,57 +1,255 @@
 package ai.efinsight.e_finsight.llm;
 
+import ai.efinsight.e_finsight.resilience.RetryableException;
+import ai.efinsight.e_finsight.util.Hashing;
+import ai.efinsight.e_finsight.util.SingleFlight;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 @Service
 public class LLMClient {
     private static final Logger log = LoggerFactory.getLogger(LLMClient.class);
 
-    private final LLMConfig config;
-    private final RestTemplate restTemplate = new RestTemplate();
+    private final RestTemplate restTemplate;
+    private final ModelRouter router;
+    private final ChatCallExecutor callExecutor;
+    private final UsageMeter usageMeter;
     private final ObjectMapper objectMapper = new ObjectMapper();
+    // Identical calls already in flight (double submits, client retries) share one upstream call
+    private final SingleFlight<String, String> inFlight = new SingleFlight<>();
+
+    public LLMClient(RestTemplate restTemplate, ModelRouter router, ChatCallExecutor callExecutor, UsageMeter usageMeter,
+                     MeterRegistry meterRegistry) {
+        this.restTemplate = restTemplate;
+        this.router = router;
+        this.callExecutor = callExecutor;
+        this.usageMeter = usageMeter;
+        FunctionCounter.builder("llm.chat.coalesced", inFlight, SingleFlight::getSharedCount)
+            .description("Chat completions served by joining an identical in-flight call")
+            .register(meterRegistry);
+    }
+
+    // Deduplicated chatCompletion: concurrent calls with the same user, model tier and prompts wait
+    // for the first one and get its result (or its exception). The user is part of the key, so one
+    // user's call is never shared with another even if the prompts happen to match.
+    public String chatCompletion(Long userId, String systemPrompt, String userMessage) {
+        return chatCompletion(userId, systemPrompt, userMessage, ModelRouter.Hints.NONE);
+    }
 
-    public LLMClient(LLMConfig config) {
-        this.config = config;
+    // hints (agent, question, deadline) let the router pick the model tier; see ModelRouter
+    public String chatCompletion(Long userId, String systemPrompt, String userMessage, ModelRouter.Hints hints) {
+        ModelRouter.Route route = router.route(hints, systemPrompt, userMessage);
+        String system = systemPrompt != null ? systemPrompt : "";
+        String key = Hashing.sha256Hex(userId + ":" + route.tier + ":" + system.length() + ":" + system + userMessage);
+        return inFlight.execute(key, () -> complete(userId, route, hints, systemPrompt, userMessage, null));
     }
 
     public String chatCompletion(String systemPrompt, String userMessage) {
+        ModelRouter.Hints hints = ModelRouter.Hints.NONE;
+        return complete(null, router.route(hints, systemPrompt, userMessage), hints, systemPrompt, userMessage, null);
+    }
+
+    // Structured output: the model must answer with a JSON object holding exactly these string fields
+    // (OpenAI response_format json_schema, Gemini responseSchema). Returns the raw JSON text.
+    // Deduplicated like chatCompletion(userId, ...).
+    public String chatCompletionJson(Long userId, String systemPrompt, String userMessage, String schemaName, List<String> fields,
+                                     ModelRouter.Hints hints) {
+        JsonOutput output = new JsonOutput(schemaName, fields);
+        ModelRouter.Route route = router.route(hints, systemPrompt, userMessage);
+        String system = systemPrompt != null ? systemPrompt : "";
+        String key = Hashing.sha256Hex(userId + ":" + route.tier + ":" + schemaName + fields + ":"
+            + system.length() + ":" + system + userMessage);
+        return inFlight.execute(key, () -> complete(userId, route, hints, systemPrompt, userMessage, output));
+    }
+
+    // Endpoint choice, failover, retries, deadline and hedging come from ChatCallExecutor; the provider
+    // methods make a single request to the endpoint they are given and report its token usage
+    private String complete(Long userId, ModelRouter.Route route, ModelRouter.Hints hints, String systemPrompt,
+                            String userMessage, JsonOutput output) {
+        long start = System.nanoTime();
+        boolean success = false;
         try {
-            if ("openai".equalsIgnoreCase(config.getProvider())) {
-                return openAIChatCompletion(systemPrompt, userMessage);
-            } else if ("gemini".equalsIgnoreCase(config.getProvider())) {
-                return geminiChatCompletion(systemPrompt, userMessage);
-            } else {
-                throw new RuntimeException("Unsupported LLM provider: " + config.getProvider());
-            }
+            String content = callExecutor.call(route.tier, hints.deadlineNanos, (endpoint, model) -> {
+                Consumer<TokenUsage> onUsage = usage -> usageMeter.record(UsageMeter.CHAT, userId, hints.agent, endpoint, model, usage);
+                if (endpoint.isOpenAI()) {
+                    return openAIChatCompletion(endpoint, model, systemPrompt, userMessage, output, onUsage);
+                } else if (endpoint.isGemini()) {
+                    return geminiChatCompletion(endpoint, model, systemPrompt, userMessage, output, onUsage);
+                }
+                throw new RuntimeException("Unsupported LLM provider: " + endpoint.getProvider());
+            });
+            success = true;
+            return content;
         } catch (Exception e) {
             log.error("Error generating chat completion", e);
             throw new RuntimeException("Failed to generate chat completion: " + e.getMessage(), e);
+        } finally {
+            router.recordLatency(route, System.nanoTime() - start, success);
         }
     }
 
-    private String openAIChatCompletion(String systemPrompt, String userMessage) {
+    // Same as chatCompletion, but calls onToken with each text fragment as the provider generates it.
+    // Returns the full text. An exception thrown by onToken aborts the stream (e.g. client went away).
+    public String streamChatCompletion(String systemPrompt, String userMessage, Consumer<String> onToken) {
+        return streamChatCompletion(null, systemPrompt, userMessage, onToken, ModelRouter.Hints.NONE);
+    }
+
+    // userId is only used to attribute token usage; null when the call is not made for one user
+    public String streamChatCompletion(Long userId, String systemPrompt, String userMessage, Consumer<String> onToken,
+                                       ModelRouter.Hints hints) {
+        ModelRouter.Route route = router.route(hints, systemPrompt, userMessage);
+        long start = System.nanoTime();
+        boolean success = false;
+        // A failed stream is only retried before its first token reached the caller
+        AtomicBoolean started = new AtomicBoolean();
+        Consumer<String> tracked = token -> {
+            started.set(true);
+            onToken.accept(token);
+        };
+        try {
+            String content = callExecutor.callStreaming(route.tier, hints.deadlineNanos, started::get, (endpoint, model) -> {
+                Consumer<TokenUsage> onUsage = usage -> usageMeter.record(UsageMeter.CHAT, userId, hints.agent, endpoint, model, usage);
+                if (endpoint.isOpenAI()) {
+                    return openAIStreamChatCompletion(endpoint, model, systemPrompt, userMessage, tracked, onUsage);
+                } else if (endpoint.isGemini()) {
+                    return geminiStreamChatCompletion(endpoint, model, systemPrompt, userMessage, tracked, onUsage);
+                }
+                throw new RuntimeException("Unsupported LLM provider: " + endpoint.getProvider());
+            });
+            success = true;
+            return content;
+        } catch (RuntimeException e) {
+            log.error("Error streaming chat completion", e);
+            throw e;
+        } finally {
+            router.recordLatency(route, System.nanoTime() - start, success);
+        }
+    }
+
+    private String openAIChatCompletion(ProviderEndpoint endpoint, String model, String systemPrompt, String userMessage,
+                                        JsonOutput output, Consumer<TokenUsage> onUsage) {
         // URL is the URL to the LLM
-        String url = (config.getOpenaiApiUrl() != null ? config.getOpenaiApiUrl() : "https://api.openai.com/v1") + "/chat/completions";
+        String url = openAIChatUrl(endpoint);
+
+        Map<String, Object> body = openAIRequestBody(model, systemPrompt, userMessage);
+        if (output != null) {
+            body.put("response_format", openAIResponseFormat(output));
+        }
 
-        // Model is the model to use for the LLM
-        String model = config.getChatModel() != null ? config.getChatModel() : "gpt-4o-mini";
+        // Request is the request to the LLM
+        HttpEntity<Map<String, Object>> request = new HttpEntity<>(body, openAIHeaders(endpoint));
+
+        try {
+            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.POST, request, String.class);
 
-        // Headers is the headers to the LLM
+            if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
+                // Parse the response body to a JSON node
+                JsonNode jsonNode = objectMapper.readTree(response.getBody());
+                // Get the content from the JSON node
+                String content = jsonNode.get("choices").get(0).get("message").get("content").asText();
+                onUsage.accept(orEstimate(TokenUsage.fromOpenAI(jsonNode.get("usage")), endpoint, systemPrompt, userMessage, content));
+                // Logs for debugging
+                log.debug("OpenAI chat completion successful");
+                // Return the content
+                return content;
+            } else {
+                // If the response is not OK, throw an error
+                throw new RuntimeException("OpenAI API returned: " + response.getStatusCode());
+            }
+        } catch (Exception e) {
+            log.error("Error calling OpenAI chat API", e);
+            throw new RuntimeException("Failed to generate OpenAI chat completion: " + e.getMessage(), e);
+        }
+    }
+
+    // stream=true: the response is SSE, one "data: {chunk}" per delta, terminated by "data: [DONE]"
+    private String openAIStreamChatCompletion(ProviderEndpoint endpoint, String model, String systemPrompt, String userMessage,
+                                              Consumer<String> onToken, Consumer<TokenUsage> onUsage) {
+        Map<String, Object> body = openAIRequestBody(model, systemPrompt, userMessage);
+        body.put("stream", true);
+        // Adds a last chunk, with no choices, carrying the usage of the whole stream
+        body.put("stream_options", Map.of("include_usage", true));
+
+        HttpHeaders headers = openAIHeaders(endpoint);
+        headers.setAccept(List.of(MediaType.TEXT_EVENT_STREAM));
+
+        StringBuilder content = new StringBuilder();
+        TokenUsage[] usage = new TokenUsage[1];
+        restTemplate.execute(openAIChatUrl(endpoint), HttpMethod.POST, restTemplate.httpEntityCallback(new HttpEntity<>(body, headers)),
+            response -> {
+                readServerSentEvents(response.getBody(), data -> {
+                    if ("[DONE]".equals(data)) {
+                        return;
+                    }
+                    JsonNode chunk = objectMapper.readTree(data);
+                    if (chunk.hasNonNull("usage")) {
+                        usage[0] = TokenUsage.fromOpenAI(chunk.get("usage"));
+                    }
+                    JsonNode choice = chunk.path("choices").path(0);
+                    String token = choice.path("delta").path("content").asText("");
+                    if (!token.isEmpty()) {
+                        content.append(token);
+                        onToken.accept(token);
+                    }
+                });
+                return null;
+            });
+        onUsage.accept(orEstimate(usage[0], endpoint, systemPrompt, userMessage, content.toString()));
+        log.debug("OpenAI streamed chat completion successful ({} chars)", content.length());
+        return content.toString();
+    }
+
+    // strict json_schema: every field required, nothing else allowed
+    private Map<String, Object> openAIResponseFormat(JsonOutput output) {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        for (String field : output.fields) {
+            properties.put(field, Map.of("type", "string"));
+        }
+        Map<String, Object> schema = new LinkedHashMap<>();
+        schema.put("type", "object");
+        schema.put("properties", properties);
+        schema.put("required", output.fields);
+        schema.put("additionalProperties", false);
+
+        Map<String, Object> jsonSchema = new LinkedHashMap<>();
+        jsonSchema.put("name", output.name);
+        jsonSchema.put("strict", true);
+        jsonSchema.put("schema", schema);
+        return Map.of("type", "json_schema", "json_schema", jsonSchema);
+    }
+
+    private String openAIChatUrl(ProviderEndpoint endpoint) {
+        return endpoint.resolvedBaseUrl() + "/chat/completions";
+    }
+
+    private HttpHeaders openAIHeaders(ProviderEndpoint endpoint) {
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setBearerAuth(config.getApiKey());
+        headers.setBearerAuth(endpoint.getApiKey());
+        return headers;
+    }
 
+    private Map<String, Object> openAIRequestBody(String model, String systemPrompt, String userMessage) {
         // Body is the request body to the LLM
         Map<String, Object> body = new HashMap<>();
         body.put("model", model);
@@ -80,57 +278,106 @@ public class LLMClient {
 
         // Temperature just means the randomness of the response
         body.put("temperature", 0.7);
+        return body;
+    }
 
-        // Request is the request to the LLM
+    private String geminiChatCompletion(ProviderEndpoint endpoint, String model, String systemPrompt, String userMessage,
+                                        JsonOutput output, Consumer<TokenUsage> onUsage) {
+        // URL is the URL to the Gemini API
+        String url = geminiUrl(endpoint, model, ":generateContent");
+
+        // Headers is the headers to the Gemini API
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+
+        Map<String, Object> body = geminiRequestBody(systemPrompt, userMessage);
+        if (output != null) {
+            applyGeminiJsonOutput(body, output);
+        }
         HttpEntity<Map<String, Object>> request = new HttpEntity<>(body, headers);
 
         try {
             ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.POST, request, String.class);
 
             if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-                // Parse the response body to a JSON node
                 JsonNode jsonNode = objectMapper.readTree(response.getBody());
-                // Get the content from the JSON node
-                String content = jsonNode.get("choices").get(0).get("message").get("content").asText();
-                // Logs for debugging
-                log.debug("OpenAI chat completion successful");
-                // Return the content
-                return content;
+                
+                if (jsonNode.has("error")) {
+                    JsonNode errorNode = jsonNode.get("error");
+                    String errorMsg = errorNode.get("message").asText();
+                    int errorCode = errorNode.has("code") ? errorNode.get("code").asInt() : 0;
+                    String status = errorNode.has("status") ? errorNode.get("status").asText() : "";
+                    
+                    // Overload reported inside a 200 body: retried by ChatCallExecutor
+                    if (errorCode == 503 || "UNAVAILABLE".equals(status) || "RESOURCE_EXHAUSTED".equals(status)) {
+                        throw new RetryableException("Gemini API error: " + errorMsg);
+                    }
+                    throw new RuntimeException("Gemini API error: " + errorMsg);
+                }
+                
+                JsonNode candidates = jsonNode.get("candidates");
+                if (candidates == null || !candidates.isArray() || candidates.size() == 0) {
+                    throw new RuntimeException("No candidates in Gemini response");
+                }
+                
+                String responseText = candidates.get(0).get("content").get("parts").get(0).get("text").asText();
+                onUsage.accept(orEstimate(TokenUsage.fromGemini(jsonNode.get("usageMetadata")), endpoint, systemPrompt,
+                    userMessage, responseText));
+                log.debug("Gemini chat completion successful");
+                return responseText;
             } else {
-                // If the response is not OK, throw an error
-                throw new RuntimeException("OpenAI API returned: " + response.getStatusCode());
+                String errorBody = response.getBody() != null ? response.getBody() : "No response body";
+                log.error("Gemini API returned: {} - Body: {}", response.getStatusCode(), errorBody);
+                throw new RuntimeException("Gemini API returned: " + response.getStatusCode() + " - " + errorBody);
             }
+        } catch (RetryableException e) {
+            log.warn("Gemini API overloaded: {}", e.getMessage());
+            throw e;
         } catch (Exception e) {
-            log.error("Error calling OpenAI chat API", e);
-            throw new RuntimeException("Failed to generate OpenAI chat completion: " + e.getMessage(), e);
+            log.error("Error calling Gemini API: {}", e.getMessage(), e);
+            throw new RuntimeException("Failed to generate Gemini chat completion: " + e.getMessage(), e);
         }
     }
 
-    private String geminiChatCompletion(String systemPrompt, String userMessage) {
-        
+    private String geminiUrl(ProviderEndpoint endpoint, String model, String method) {
         // Base URL is the base URL to the Gemini API
-        String baseUrl = config.getGeminiApiUrl() != null ? config.getGeminiApiUrl() : "https://generativelanguage.googleapis.com/v1beta";
+        String baseUrl = endpoint.resolvedBaseUrl();
 
-        // Model is the model to use for the Gemini API
-        String model = config.getChatModel() != null ? config.getChatModel() : "gemini-2.5-flash";
-        
         // API Key is the API key to the Gemini API
-        String apiKey = config.getApiKey();
+        String apiKey = endpoint.getApiKey();
 
         // If the API key is not configured, throw an error
         
         if (apiKey == null || apiKey.isEmpty()) {
-            throw new RuntimeException("Gemini API key is not configured. Please set llm.api-key in application.properties");
+            throw new RuntimeException("Gemini API key is not configured for endpoint " + endpoint.getName()
+                + ". Please set llm.api-key (or llm.endpoints[n].api-key) in application.properties");
         }
         
         // URL is the URL to the Gemini API
-        String url = baseUrl + "/models/" + model + ":generateContent?key=" + apiKey;
-        log.info("Calling Gemini API with model: {} at URL: {}", model, url.replace("?key=" + apiKey, "?key=***"));
+        String url = baseUrl + "/models/" + model + method + (method.contains("?") ? "&" : "?") + "key=" + apiKey;
+        log.info("Calling Gemini API ({}) with model: {} at URL: {}", endpoint.getName(), model, url.replace("key=" + apiKey, "key=***"));
+        return url;
+    }
 
-        // Headers is the headers to the Gemini API
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
+    // Gemini takes the JSON mime type and an OpenAPI-style schema in generationConfig
+    @SuppressWarnings("unchecked")
+    private void applyGeminiJsonOutput(Map<String, Object> body, JsonOutput output) {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        for (String field : output.fields) {
+            properties.put(field, Map.of("type", "STRING"));
+        }
+        Map<String, Object> schema = new LinkedHashMap<>();
+        schema.put("type", "OBJECT");
+        schema.put("properties", properties);
+        schema.put("required", output.fields);
+        schema.put("propertyOrdering", output.fields);
+
+        Map<String, Object> generationConfig = (Map<String, Object>) body.get("generationConfig");
+        generationConfig.put("responseMimeType", "application/json");
+        generationConfig.put("responseSchema", schema);
+    }
 
+    private Map<String, Object> geminiRequestBody(String systemPrompt, String userMessage) {
         // Full prompt (System prompt + User message) is the full prompt to the Gemini API
         String fullPrompt = userMessage;
 
@@ -172,92 +419,91 @@ public class LLMClient {
         // Temperature is the temperature to the generation config
         generationConfig.put("temperature", 0.7);
         body.put("generationConfig", generationConfig);
+        return body;
+    }
 
-
-        HttpEntity<Map<String, Object>> request = new HttpEntity<>(body, headers);
-
-        // Max retries is the maximum number of retries to the Gemini API
-        int maxRetries = 3;
-        // Base delay is the base delay to the Gemini API
-        long baseDelayMs = 1000;
-        // Attempt is the attempt number to the Gemini API
-        
-        // Try to call the Gemini API
-        for (int attempt = 1; attempt <= maxRetries; attempt++) {
-            // Try to call the Gemini API
-            try {
-                ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.POST, request, String.class);
-
-                if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-                    JsonNode jsonNode = objectMapper.readTree(response.getBody());
-                    
+    // alt=sse makes streamGenerateContent answer with SSE events, each a partial GenerateContentResponse
+    private String geminiStreamChatCompletion(ProviderEndpoint endpoint, String model, String systemPrompt, String userMessage,
+                                              Consumer<String> onToken, Consumer<TokenUsage> onUsage) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setAccept(List.of(MediaType.TEXT_EVENT_STREAM));
+        HttpEntity<Map<String, Object>> request = new HttpEntity<>(geminiRequestBody(systemPrompt, userMessage), headers);
+
+        StringBuilder content = new StringBuilder();
+        // Every event carries the usage so far; the last one covers the whole answer
+        TokenUsage[] usage = new TokenUsage[1];
+        restTemplate.execute(geminiUrl(endpoint, model, ":streamGenerateContent?alt=sse"), HttpMethod.POST, restTemplate.httpEntityCallback(request),
+            response -> {
+                readServerSentEvents(response.getBody(), data -> {
+                    JsonNode jsonNode = objectMapper.readTree(data);
                     if (jsonNode.has("error")) {
-                        JsonNode errorNode = jsonNode.get("error");
-                        String errorMsg = errorNode.get("message").asText();
-                        int errorCode = errorNode.has("code") ? errorNode.get("code").asInt() : 0;
-                        String status = errorNode.has("status") ? errorNode.get("status").asText() : "";
-                        
-                        if ((errorCode == 503 || "UNAVAILABLE".equals(status) || "RESOURCE_EXHAUSTED".equals(status)) 
-                            && attempt < maxRetries) {
-                            long delayMs = baseDelayMs * (long) Math.pow(2, attempt - 1);
-                            log.warn("Gemini API returned retryable error (attempt {}/{}): {}. Retrying in {}ms...", 
-                                attempt, maxRetries, errorMsg, delayMs);
-                            Thread.sleep(delayMs);
-                            continue;
-                        }
-                        
-                        throw new RuntimeException("Gemini API error: " + errorMsg);
+                        throw new RuntimeException("Gemini API error: " + jsonNode.path("error").path("message").asText());
                     }
-                    
-                    JsonNode candidates = jsonNode.get("candidates");
-                    if (candidates == null || !candidates.isArray() || candidates.size() == 0) {
-                        throw new RuntimeException("No candidates in Gemini response");
+                    if (jsonNode.has("usageMetadata")) {
+                        usage[0] = TokenUsage.fromGemini(jsonNode.get("usageMetadata"));
                     }
-                    
-                    String responseText = candidates.get(0).get("content").get("parts").get(0).get("text").asText();
-                    log.debug("Gemini chat completion successful");
-                    return responseText;
-                } else {
-                    if ((response.getStatusCode() == HttpStatus.SERVICE_UNAVAILABLE 
-                         || response.getStatusCode() == HttpStatus.TOO_MANY_REQUESTS) 
-                        && attempt < maxRetries) {
-                        long delayMs = baseDelayMs * (long) Math.pow(2, attempt - 1);
-                        log.warn("Gemini API returned {} (attempt {}/{}). Retrying in {}ms...", 
-                            response.getStatusCode(), attempt, maxRetries, delayMs);
-                        Thread.sleep(delayMs);
-                        continue;
+                    for (JsonNode part : jsonNode.path("candidates").path(0).path("content").path("parts")) {
+                        String token = part.path("text").asText("");
+                        if (!token.isEmpty()) {
+                            content.append(token);
+                            onToken.accept(token);
+                        }
                     }
-                    
-                    String errorBody = response.getBody() != null ? response.getBody() : "No response body";
-                    log.error("Gemini API returned: {} - Body: {}", response.getStatusCode(), errorBody);
-                    throw new RuntimeException("Gemini API returned: " + response.getStatusCode() + " - " + errorBody);
+                });
+                return null;
+            });
+        onUsage.accept(orEstimate(usage[0], endpoint, systemPrompt, userMessage, content.toString()));
+        log.debug("Gemini streamed chat completion successful ({} chars)", content.length());
+        return content.toString();
+    }
+
+
+    // Provider-reported usage, or an estimate from the prompt and answer text when the response had none
+    private static TokenUsage orEstimate(TokenUsage usage, ProviderEndpoint endpoint, String systemPrompt, String userMessage,
+                                         String completion) {
+        if (usage != null) {
+            return usage;
+        }
+        String prompt = systemPrompt != null ? systemPrompt + "\n\n" + userMessage : userMessage;
+        return TokenUsage.estimate(prompt, completion, TokenEstimator.tokenizerFor(endpoint.getProvider()));
+    }
+
+    // Minimal text/event-stream reader: joins the "data:" lines of each event and hands them over at the blank line
+    private void readServerSentEvents(InputStream body, EventHandler handler) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        StringBuilder data = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                if (!data.isEmpty()) {
+                    handler.onData(data.toString());
+                    data.setLength(0);
                 }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new RuntimeException("Interrupted while retrying Gemini API call", e);
-            } catch (org.springframework.web.client.HttpServerErrorException e) {
-                if (attempt < maxRetries && (e.getStatusCode() == HttpStatus.SERVICE_UNAVAILABLE 
-                    || e.getStatusCode() == HttpStatus.INTERNAL_SERVER_ERROR)) {
-                    long delayMs = baseDelayMs * (long) Math.pow(2, attempt - 1);
-                    log.warn("Gemini API server error (attempt {}/{}): {}. Retrying in {}ms...", 
-                        attempt, maxRetries, e.getMessage(), delayMs);
-                    try {
-                        Thread.sleep(delayMs);
-                        continue;
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        throw new RuntimeException("Interrupted while retrying", ie);
-                    }
+            } else if (line.startsWith("data:")) {
+                if (!data.isEmpty()) {
+                    data.append('\n');
                 }
-                log.error("Error calling Gemini API: {}", e.getMessage(), e);
-                throw new RuntimeException("Failed to generate Gemini chat completion: " + e.getMessage(), e);
-            } catch (Exception e) {
-                log.error("Error calling Gemini API: {}", e.getMessage(), e);
-                throw new RuntimeException("Failed to generate Gemini chat completion: " + e.getMessage(), e);
+                data.append(line.startsWith("data: ") ? line.substring(6) : line.substring(5));
             }
         }
-        
-        throw new RuntimeException("Failed to generate Gemini chat completion after " + maxRetries + " attempts");
+        if (!data.isEmpty()) {
+            handler.onData(data.toString());
+        }
     }
-}
 
+    private static class JsonOutput {
+        final String name;
+        final List<String> fields;
+
+        JsonOutput(String name, List<String> fields) {
+            this.name = name;
+            this.fields = List.copyOf(fields);
+        }
+    }
+
+    @FunctionalInterface
+    private interface EventHandler {
+        void onData(String data) throws IOException;
+    }
+}
@@ -3,6 +3,9 @@ package ai.efinsight.e_finsight.llm;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Configuration
 @ConfigurationProperties(prefix = "llm")
 public class LLMConfig {
@@ -12,6 +15,57 @@ public class LLMConfig {
     private String openaiApiUrl;
     private String embeddingModel;
     private String chatModel;
+    // Maximum number of texts sent in one embedding request (Gemini batchEmbedContents accepts up to 100)
+    private int embeddingBatchSize = 100;
+    // Requested embedding size (outputDimensionality / dimensions); null keeps the model's full size
+    private Integer embeddingDimension;
+    // Embedding cache: in-memory LRU size and whether misses are also looked up/stored in PostgreSQL
+    private int embeddingCacheMaxEntries = 50_000;
+    private boolean embeddingCachePersistent = true;
+    // Query embeddings are reused across the coordinator and agents of a plan request
+    private int queryEmbeddingCacheTtlSeconds = 300;
+    private int queryEmbeddingCacheMaxEntries = 1_000;
+    // Concurrent embedding requests per provider, and provider quotas (0 = unlimited)
+    private int embeddingMaxConcurrency = 4;
+    // Adaptive limit floor, retries for 429/5xx/timeouts, and the breaker that stops calls to a failing provider
+    private int embeddingMinConcurrency = 1;
+    private int embeddingMaxRetries = 2;
+    private double embeddingCircuitFailureRate = 0.5;
+    private int embeddingCircuitOpenSeconds = 30;
+    private int embeddingRequestsPerMinute = 0;
+    private int embeddingTokensPerMinute = 0;
+    // Model tiering: calls that need it go to chatModel, the rest to fastChatModel (unset = no tiering).
+    // A call goes to chatModel for one of these agents, a prompt of at least routingLargePromptTokens,
+    // or a question scoring routingComplexityThreshold; with less than routingMinLargeBudgetMs left
+    // before the plan's deadline it goes to fastChatModel regardless.
+    private String fastChatModel;
+    private List<String> routingLargeAgents = new ArrayList<>(List.of("InvestmentAdvisor", "CombinedPlanner"));
+    private int routingLargePromptTokens = 3_000;
+    private int routingComplexityThreshold = 2;
+    private long routingMinLargeBudgetMs = 15_000;
+    // Chat retries for 429/5xx/timeouts (jittered backoff), and the overall time a call may take including
+    // retries (also capped by the plan's deadline)
+    private int chatMaxRetries = 2;
+    private long chatRetryBaseDelayMs = 500;
+    private long chatRetryMaxDelayMs = 8_000;
+    private long chatDeadlineMs = 90_000;
+    // Hedging: when a call has not answered after the model's recent p95 latency (at least chatHedgeMinDelayMs),
+    // send a second identical request and take whichever succeeds first. Hedges are limited to about
+    // chatHedgeBudgetPercent of calls.
+    private boolean chatHedgingEnabled = false;
+    private long chatHedgeMinDelayMs = 1_000;
+    private int chatHedgeBudgetPercent = 10;
+    // Several endpoints at once (llm.endpoints[0].provider=gemini, ...). Calls are balanced across them
+    // by recent latency and error rate and fail over between them; embeddings only use endpoints with the
+    // first endpoint's provider and embedding model. Empty = one endpoint from the settings above.
+    private List<ProviderEndpoint> endpoints = new ArrayList<>();
+    // > 0 starts a local stub of both provider APIs on this port, loopback only (offline failover testing;
+    // never in production)
+    private int stubServerPort = 0;
+    // Token usage per user and day is summed in memory and added to the token_usage table this often;
+    // usagePersistent=false keeps only the llm.tokens metrics
+    private boolean usagePersistent = true;
+    private int usageFlushSeconds = 60;
 
     public String getProvider() {
         return provider;
@@ -60,5 +114,236 @@ public class LLMConfig {
     public void setChatModel(String chatModel) {
         this.chatModel = chatModel;
     }
-}
 
+    public int getEmbeddingBatchSize() {
+        return embeddingBatchSize;
+    }
+
+    public void setEmbeddingBatchSize(int embeddingBatchSize) {
+        this.embeddingBatchSize = embeddingBatchSize;
+    }
+
+    public int getEmbeddingCacheMaxEntries() {
+        return embeddingCacheMaxEntries;
+    }
+
+    public void setEmbeddingCacheMaxEntries(int embeddingCacheMaxEntries) {
+        this.embeddingCacheMaxEntries = embeddingCacheMaxEntries;
+    }
+
+    public boolean isEmbeddingCachePersistent() {
+        return embeddingCachePersistent;
+    }
+
+    public void setEmbeddingCachePersistent(boolean embeddingCachePersistent) {
+        this.embeddingCachePersistent = embeddingCachePersistent;
+    }
+
+    public int getQueryEmbeddingCacheTtlSeconds() {
+        return queryEmbeddingCacheTtlSeconds;
+    }
+
+    public void setQueryEmbeddingCacheTtlSeconds(int queryEmbeddingCacheTtlSeconds) {
+        this.queryEmbeddingCacheTtlSeconds = queryEmbeddingCacheTtlSeconds;
+    }
+
+    public int getQueryEmbeddingCacheMaxEntries() {
+        return queryEmbeddingCacheMaxEntries;
+    }
+
+    public void setQueryEmbeddingCacheMaxEntries(int queryEmbeddingCacheMaxEntries) {
+        this.queryEmbeddingCacheMaxEntries = queryEmbeddingCacheMaxEntries;
+    }
+
+    public int getEmbeddingMaxConcurrency() {
+        return embeddingMaxConcurrency;
+    }
+
+    public void setEmbeddingMaxConcurrency(int embeddingMaxConcurrency) {
+        this.embeddingMaxConcurrency = embeddingMaxConcurrency;
+    }
+
+    public int getEmbeddingRequestsPerMinute() {
+        return embeddingRequestsPerMinute;
+    }
+
+    public void setEmbeddingRequestsPerMinute(int embeddingRequestsPerMinute) {
+        this.embeddingRequestsPerMinute = embeddingRequestsPerMinute;
+    }
+
+    public int getEmbeddingTokensPerMinute() {
+        return embeddingTokensPerMinute;
+    }
+
+    public void setEmbeddingTokensPerMinute(int embeddingTokensPerMinute) {
+        this.embeddingTokensPerMinute = embeddingTokensPerMinute;
+    }
+
+    public Integer getEmbeddingDimension() {
+        return embeddingDimension;
+    }
+
+    public void setEmbeddingDimension(Integer embeddingDimension) {
+        this.embeddingDimension = embeddingDimension;
+    }
+
+    public int getEmbeddingMinConcurrency() {
+        return embeddingMinConcurrency;
+    }
+
+    public void setEmbeddingMinConcurrency(int embeddingMinConcurrency) {
+        this.embeddingMinConcurrency = embeddingMinConcurrency;
+    }
+
+    public int getEmbeddingMaxRetries() {
+        return embeddingMaxRetries;
+    }
+
+    public void setEmbeddingMaxRetries(int embeddingMaxRetries) {
+        this.embeddingMaxRetries = embeddingMaxRetries;
+    }
+
+    public double getEmbeddingCircuitFailureRate() {
+        return embeddingCircuitFailureRate;
+    }
+
+    public void setEmbeddingCircuitFailureRate(double embeddingCircuitFailureRate) {
+        this.embeddingCircuitFailureRate = embeddingCircuitFailureRate;
+    }
+
+    public int getEmbeddingCircuitOpenSeconds() {
+        return embeddingCircuitOpenSeconds;
+    }
+
+    public void setEmbeddingCircuitOpenSeconds(int embeddingCircuitOpenSeconds) {
+        this.embeddingCircuitOpenSeconds = embeddingCircuitOpenSeconds;
+    }
+
+    public String getFastChatModel() {
+        return fastChatModel;
+    }
+
+    public void setFastChatModel(String fastChatModel) {
+        this.fastChatModel = fastChatModel;
+    }
+
+    public List<String> getRoutingLargeAgents() {
+        return routingLargeAgents;
+    }
+
+    public void setRoutingLargeAgents(List<String> routingLargeAgents) {
+        this.routingLargeAgents = routingLargeAgents;
+    }
+
+    public int getRoutingLargePromptTokens() {
+        return routingLargePromptTokens;
+    }
+
+    public void setRoutingLargePromptTokens(int routingLargePromptTokens) {
+        this.routingLargePromptTokens = routingLargePromptTokens;
+    }
+
+    public int getRoutingComplexityThreshold() {
+        return routingComplexityThreshold;
+    }
+
+    public void setRoutingComplexityThreshold(int routingComplexityThreshold) {
+        this.routingComplexityThreshold = routingComplexityThreshold;
+    }
+
+    public long getRoutingMinLargeBudgetMs() {
+        return routingMinLargeBudgetMs;
+    }
+
+    public void setRoutingMinLargeBudgetMs(long routingMinLargeBudgetMs) {
+        this.routingMinLargeBudgetMs = routingMinLargeBudgetMs;
+    }
+
+    public int getChatMaxRetries() {
+        return chatMaxRetries;
+    }
+
+    public void setChatMaxRetries(int chatMaxRetries) {
+        this.chatMaxRetries = chatMaxRetries;
+    }
+
+    public long getChatRetryBaseDelayMs() {
+        return chatRetryBaseDelayMs;
+    }
+
+    public void setChatRetryBaseDelayMs(long chatRetryBaseDelayMs) {
+        this.chatRetryBaseDelayMs = chatRetryBaseDelayMs;
+    }
+
+    public long getChatRetryMaxDelayMs() {
+        return chatRetryMaxDelayMs;
+    }
+
+    public void setChatRetryMaxDelayMs(long chatRetryMaxDelayMs) {
+        this.chatRetryMaxDelayMs = chatRetryMaxDelayMs;
+    }
+
+    public long getChatDeadlineMs() {
+        return chatDeadlineMs;
+    }
+
+    public void setChatDeadlineMs(long chatDeadlineMs) {
+        this.chatDeadlineMs = chatDeadlineMs;
+    }
+
+    public boolean isChatHedgingEnabled() {
+        return chatHedgingEnabled;
+    }
+
+    public void setChatHedgingEnabled(boolean chatHedgingEnabled) {
+        this.chatHedgingEnabled = chatHedgingEnabled;
+    }
+
+    public long getChatHedgeMinDelayMs() {
+        return chatHedgeMinDelayMs;
+    }
+
+    public void setChatHedgeMinDelayMs(long chatHedgeMinDelayMs) {
+        this.chatHedgeMinDelayMs = chatHedgeMinDelayMs;
+    }
+
+    public int getChatHedgeBudgetPercent() {
+        return chatHedgeBudgetPercent;
+    }
+
+    public void setChatHedgeBudgetPercent(int chatHedgeBudgetPercent) {
+        this.chatHedgeBudgetPercent = chatHedgeBudgetPercent;
+    }
+
+    public List<ProviderEndpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    public void setEndpoints(List<ProviderEndpoint> endpoints) {
+        this.endpoints = endpoints;
+    }
+
+    public int getStubServerPort() {
+        return stubServerPort;
+    }
+
+    public void setStubServerPort(int stubServerPort) {
+        this.stubServerPort = stubServerPort;
+    }
+
+    public boolean isUsagePersistent() {
+        return usagePersistent;
+    }
+
+    public void setUsagePersistent(boolean usagePersistent) {
+        this.usagePersistent = usagePersistent;
+    }
+
+    public int getUsageFlushSeconds() {
+        return usageFlushSeconds;
+    }
+
+    public void setUsageFlushSeconds(int usageFlushSeconds) {
+        this.usageFlushSeconds = usageFlushSeconds;
+    }
+}
@@ -0,0 +1,152 @@
+package ai.efinsight.e_finsight.llm;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the model tier for each chat call, so most traffic runs on the cheap, low-latency model
+ * (llm.fast-chat-model, per endpoint) and only the calls that need it go to llm.chat-model. The signals are the
+ * calling agent, the estimated prompt size, a complexity score for the user's question, and the time
+ * left before the plan's deadline. Calls without hints (no agent context) keep llm.chat-model.
+ */
+@Component
+public class ModelRouter {
+    private static final Logger log = LoggerFactory.getLogger(ModelRouter.class);
+
+    public enum Tier { FAST, LARGE }
+
+    // Phrases that usually mean multi-step reasoning: comparisons, projections, scenarios, trade-offs
+    private static final List<String> COMPLEXITY_MARKERS = List.of(
+        "compare", " vs ", "versus", "what if", "should i", "trade-off", "tradeoff", "over the next",
+        "long-term", "long term", "strategy", "why", "pros and cons", "scenario"
+    );
+
+    private final LLMConfig config;
+    private final ProviderRegistry providers;
+    private final MeterRegistry meterRegistry;
+
+    public ModelRouter(LLMConfig config, ProviderRegistry providers, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.providers = providers;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public Route route(Hints hints, String systemPrompt, String userMessage) {
+        Route route = decide(hints, systemPrompt, userMessage);
+        Counter.builder("llm.model.route")
+            .tag("tier", route.tier.name().toLowerCase())
+            .tag("reason", route.reason)
+            .register(meterRegistry)
+            .increment();
+        log.debug("Routed {} call to {} ({})", hints.agent, route.tier, route.reason);
+        return route;
+    }
+
+    private Route decide(Hints hints, String systemPrompt, String userMessage) {
+        if (!providers.hasFastModels()) {
+            return large("disabled");
+        }
+        if (hints == Hints.NONE) {
+            return large("unrouted");
+        }
+        // Too little time left for the slower model to finish: a fast answer beats a timeout
+        if (hints.deadlineNanos != 0) {
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(hints.deadlineNanos - System.nanoTime());
+            if (remainingMs < config.getRoutingMinLargeBudgetMs()) {
+                return fast("latency_budget");
+            }
+        }
+        if (hints.agent != null && config.getRoutingLargeAgents().contains(hints.agent)) {
+            return large("agent");
+        }
+        TokenEstimator.Tokenizer tokenizer = TokenEstimator.tokenizerFor(providers.primaryChatEndpoint().getProvider());
+        int promptTokens = TokenEstimator.estimate(systemPrompt, tokenizer) + TokenEstimator.estimate(userMessage, tokenizer);
+        if (promptTokens >= config.getRoutingLargePromptTokens()) {
+            return large("prompt_size");
+        }
+        if (complexity(hints.query) >= config.getRoutingComplexityThreshold()) {
+            return large("complexity");
+        }
+        return fast("simple");
+    }
+
+    // Rough reasoning load of a question: long questions, several questions at once and each
+    // comparison/projection/scenario phrase add a point
+    static int complexity(String query) {
+        if (query == null || query.isBlank()) {
+            return 0;
+        }
+        String lower = " " + query.toLowerCase() + " ";
+        int score = 0;
+        int words = query.trim().split("\\s+").length;
+        if (words > 20) {
+            score++;
+        }
+        if (words > 40) {
+            score++;
+        }
+        if (query.chars().filter(c -> c == '?').count() > 1) {
+            score++;
+        }
+        for (String marker : COMPLEXITY_MARKERS) {
+            if (lower.contains(marker)) {
+                score++;
+            }
+        }
+        return score;
+    }
+
+    // Per-tier latency of completed calls, successful or not
+    public void recordLatency(Route route, long nanos, boolean success) {
+        Timer.builder("llm.chat.latency")
+            .tag("tier", route.tier.name().toLowerCase())
+            .tag("outcome", success ? "success" : "error")
+            .register(meterRegistry)
+            .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Route large(String reason) {
+        return new Route(Tier.LARGE, reason);
+    }
+
+    private Route fast(String reason) {
+        return new Route(Tier.FAST, reason);
+    }
+
+    // The model itself depends on the endpoint serving the call; see ProviderEndpoint.chatModel
+    public static class Route {
+        public final Tier tier;
+        public final String reason;
+
+        Route(Tier tier, String reason) {
+            this.tier = tier;
+            this.reason = reason;
+        }
+    }
+
+    // What the caller knows about a call. deadlineNanos is a System.nanoTime() value, 0 when there is none.
+    public static class Hints {
+        public static final Hints NONE = new Hints(null, null, 0);
+
+        public final String agent;
+        public final String query;
+        public final long deadlineNanos;
+
+        private Hints(String agent, String query, long deadlineNanos) {
+            this.agent = agent;
+            this.query = query;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        public static Hints of(String agent, String query, long deadlineNanos) {
+            return new Hints(agent, query, deadlineNanos);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package ai.efinsight.e_finsight.llm;
+
+/**
+ * One configured provider endpoint (llm.endpoints[n].*): which API it speaks, where, with which key,
+ * and which models it serves. Unset URLs and models fall back to the provider's defaults.
+ */
+public class ProviderEndpoint {
+    private String name;
+    // "openai" or "gemini": the API dialect spoken by this endpoint
+    private String provider;
+    private String apiKey;
+    private String baseUrl;
+    private String chatModel;
+    private String fastChatModel;
+    private String embeddingModel;
+
+    public ProviderEndpoint() {
+    }
+
+    ProviderEndpoint(String name, String provider, String apiKey, String baseUrl, String chatModel,
+                     String fastChatModel, String embeddingModel) {
+        this.name = name;
+        this.provider = provider;
+        this.apiKey = apiKey;
+        this.baseUrl = baseUrl;
+        this.chatModel = chatModel;
+        this.fastChatModel = fastChatModel;
+        this.embeddingModel = embeddingModel;
+    }
+
+    public boolean isOpenAI() {
+        return "openai".equalsIgnoreCase(provider);
+    }
+
+    public boolean isGemini() {
+        return "gemini".equalsIgnoreCase(provider);
+    }
+
+    public String resolvedBaseUrl() {
+        if (baseUrl != null) {
+            return baseUrl;
+        }
+        return isGemini() ? "https://generativelanguage.googleapis.com/v1beta" : "https://api.openai.com/v1";
+    }
+
+    // FAST falls back to the chat model when this endpoint has no fast model
+    public String chatModel(ModelRouter.Tier tier) {
+        if (tier == ModelRouter.Tier.FAST && fastChatModel != null && !fastChatModel.isBlank()) {
+            return fastChatModel;
+        }
+        if (chatModel != null) {
+            return chatModel;
+        }
+        return isGemini() ? "gemini-2.5-flash" : "gpt-4o-mini";
+    }
+
+    public String resolvedEmbeddingModel() {
+        if (embeddingModel != null) {
+            return embeddingModel;
+        }
+        return isOpenAI() ? "text-embedding-3-small" : "text-embedding-004";
+    }
+
+    // Vectors are only comparable when the same model produced them, whichever endpoint served it
+    public String embeddingAffinityKey() {
+        return (provider != null ? provider.toLowerCase() : "unknown") + "/" + resolvedEmbeddingModel();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+
+    public void setProvider(String provider) {
+        this.provider = provider;
+    }
+
+    public String getApiKey() {
+        return apiKey;
+    }
+
+    public void setApiKey(String apiKey) {
+        this.apiKey = apiKey;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public void setBaseUrl(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    public String getChatModel() {
+        return chatModel;
+    }
+
+    public void setChatModel(String chatModel) {
+        this.chatModel = chatModel;
+    }
+
+    public String getFastChatModel() {
+        return fastChatModel;
+    }
+
+    public void setFastChatModel(String fastChatModel) {
+        this.fastChatModel = fastChatModel;
+    }
+
+    public String getEmbeddingModel() {
+        return embeddingModel;
+    }
+
+    public void setEmbeddingModel(String embeddingModel) {
+        this.embeddingModel = embeddingModel;
+    }
+}
@@ -0,0 +1,211 @@
+package ai.efinsight.e_finsight.llm;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The configured provider endpoints and how well each is doing. Every call reports its outcome here;
+ * endpoints are scored by an EWMA of latency and an EWMA of errors. While an endpoint gets no traffic
+ * its error rate decays toward zero and its latency toward the mean of its pool, so one that browned
+ * out or had a slow spell is tried again after a while instead of being starved on stale numbers, and
+ * one that was fast a while ago does not keep looking fast. Chat calls may go to any
+ * endpoint. Embedding calls only go to endpoints serving the primary embedding model (the first
+ * endpoint's), so stored vectors stay comparable.
+ */
+@Component
+public class ProviderRegistry {
+    private static final Logger log = LoggerFactory.getLogger(ProviderRegistry.class);
+
+    public enum Kind { CHAT, EMBEDDING }
+
+    private static final double LATENCY_ALPHA = 0.2;
+    private static final double ERROR_ALPHA = 0.2;
+    // An endpoint above this error rate only gets traffic when every endpoint is unhealthy
+    private static final double UNHEALTHY_ERROR_RATE = 0.5;
+    private static final long ERROR_HALF_LIFE_MS = 30_000;
+    private static final long LATENCY_HALF_LIFE_MS = 5_000;
+
+    private final List<ProviderEndpoint> endpoints;
+    private final List<ProviderEndpoint> embeddingEndpoints;
+    private final Map<String, Map<Kind, EndpointStats>> stats = new LinkedHashMap<>();
+
+    public ProviderRegistry(LLMConfig config, MeterRegistry meterRegistry) {
+        this.endpoints = resolveEndpoints(config);
+        String affinity = endpoints.get(0).embeddingAffinityKey();
+        this.embeddingEndpoints = endpoints.stream()
+            .filter(endpoint -> endpoint.embeddingAffinityKey().equals(affinity))
+            .toList();
+
+        for (ProviderEndpoint endpoint : endpoints) {
+            Map<Kind, EndpointStats> byKind = new EnumMap<>(Kind.class);
+            for (Kind kind : Kind.values()) {
+                EndpointStats endpointStats = new EndpointStats();
+                byKind.put(kind, endpointStats);
+                String kindTag = kind.name().toLowerCase();
+                Gauge.builder("llm.endpoint.latency.ewma", endpointStats, EndpointStats::latencyMillis)
+                    .tag("endpoint", endpoint.getName()).tag("kind", kindTag).baseUnit("milliseconds")
+                    .register(meterRegistry);
+                Gauge.builder("llm.endpoint.error.rate", endpointStats, EndpointStats::errorRate)
+                    .tag("endpoint", endpoint.getName()).tag("kind", kindTag)
+                    .register(meterRegistry);
+            }
+            stats.put(endpoint.getName(), byKind);
+        }
+        log.info("LLM endpoints: {} (embeddings: {} via {})", endpoints.stream().map(ProviderEndpoint::getName).toList(),
+            affinity, embeddingEndpoints.stream().map(ProviderEndpoint::getName).toList());
+    }
+
+    // llm.endpoints when configured, otherwise one endpoint from the flat llm.* properties
+    private static List<ProviderEndpoint> resolveEndpoints(LLMConfig config) {
+        if (config.getEndpoints() != null && !config.getEndpoints().isEmpty()) {
+            List<ProviderEndpoint> configured = new ArrayList<>();
+            for (int i = 0; i < config.getEndpoints().size(); i++) {
+                ProviderEndpoint endpoint = config.getEndpoints().get(i);
+                if (endpoint.getName() == null) {
+                    endpoint.setName(endpoint.getProvider() + "-" + i);
+                }
+                configured.add(endpoint);
+            }
+            return List.copyOf(configured);
+        }
+        String provider = config.getProvider() != null ? config.getProvider().toLowerCase() : "unknown";
+        String baseUrl = "gemini".equals(provider) ? config.getGeminiApiUrl() : config.getOpenaiApiUrl();
+        return List.of(new ProviderEndpoint(provider, provider, config.getApiKey(), baseUrl, config.getChatModel(),
+            config.getFastChatModel(), config.getEmbeddingModel()));
+    }
+
+    // Endpoints to try, in order. The first is the better of two random healthy endpoints (power of two
+    // choices), which spreads load by latency instead of piling onto whichever endpoint scores best right
+    // now; the rest follow by score as failover targets.
+    public List<ProviderEndpoint> candidates(Kind kind) {
+        List<ProviderEndpoint> pool = kind == Kind.EMBEDDING ? embeddingEndpoints : endpoints;
+        if (pool.size() == 1) {
+            return pool;
+        }
+        long now = System.currentTimeMillis();
+        double meanLatency = meanLatencyMillis(pool, kind);
+        Map<String, Double> scores = new LinkedHashMap<>();
+        for (ProviderEndpoint endpoint : pool) {
+            scores.put(endpoint.getName(), score(endpoint, kind, meanLatency, now));
+        }
+        List<ProviderEndpoint> ordered = new ArrayList<>(pool);
+        ordered.sort(Comparator.comparing((ProviderEndpoint endpoint) -> !isHealthy(endpoint, kind))
+            .thenComparingDouble(endpoint -> scores.get(endpoint.getName())));
+
+        int healthy = (int) ordered.stream().filter(endpoint -> isHealthy(endpoint, kind)).count();
+        if (healthy >= 2) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int a = random.nextInt(healthy);
+            int b = (a + 1 + random.nextInt(healthy - 1)) % healthy;
+            ProviderEndpoint first = scores.get(ordered.get(a).getName()) <= scores.get(ordered.get(b).getName())
+                ? ordered.get(a) : ordered.get(b);
+            ordered.remove(first);
+            ordered.add(0, first);
+        }
+        return ordered;
+    }
+
+    // The first configured endpoint. Prompts are sized with its tokenizer, before a call picks an endpoint.
+    public ProviderEndpoint primaryChatEndpoint() {
+        return endpoints.get(0);
+    }
+
+    public ProviderEndpoint primaryEmbeddingEndpoint() {
+        return embeddingEndpoints.get(0);
+    }
+
+    // True when some endpoint has a fast model, i.e. model tiering can make a difference
+    public boolean hasFastModels() {
+        return endpoints.stream().anyMatch(endpoint -> endpoint.getFastChatModel() != null && !endpoint.getFastChatModel().isBlank());
+    }
+
+    public void onSuccess(ProviderEndpoint endpoint, Kind kind, long latencyNanos) {
+        stats.get(endpoint.getName()).get(kind).record(false, latencyNanos);
+    }
+
+    public void onFailure(ProviderEndpoint endpoint, Kind kind) {
+        stats.get(endpoint.getName()).get(kind).record(true, -1);
+    }
+
+    private boolean isHealthy(ProviderEndpoint endpoint, Kind kind) {
+        return stats.get(endpoint.getName()).get(kind).errorRate() < UNHEALTHY_ERROR_RATE;
+    }
+
+    // Expected cost of a call: latency inflated by the chance of having to fail over. Endpoints without
+    // latency samples score 0, so a new endpoint is tried early.
+    private double score(ProviderEndpoint endpoint, Kind kind, double meanLatency, long now) {
+        EndpointStats endpointStats = stats.get(endpoint.getName()).get(kind);
+        return endpointStats.expectedLatencyMillis(meanLatency, now) * (1 + 4 * endpointStats.errorRate());
+    }
+
+    // Mean latency EWMA of the pool's endpoints that have samples, 0 when none has
+    private double meanLatencyMillis(List<ProviderEndpoint> pool, Kind kind) {
+        double sum = 0;
+        int sampled = 0;
+        for (ProviderEndpoint endpoint : pool) {
+            EndpointStats endpointStats = stats.get(endpoint.getName()).get(kind);
+            if (endpointStats.hasLatency()) {
+                sum += endpointStats.latencyMillis();
+                sampled++;
+            }
+        }
+        return sampled == 0 ? 0 : sum / sampled;
+    }
+
+    private static class EndpointStats {
+        // EWMA of measured latencies; only samples move it, the decay toward the pool mean is applied when scoring
+        private double latencyMillis;
+        private boolean hasLatency;
+        private double errorRate;
+        private long errorUpdatedAt = System.currentTimeMillis();
+        private long latencyUpdatedAt = System.currentTimeMillis();
+
+        synchronized void record(boolean failure, long latencyNanos) {
+            long now = System.currentTimeMillis();
+            errorRate = decayedErrorRate(now) * (1 - ERROR_ALPHA) + (failure ? ERROR_ALPHA : 0);
+            errorUpdatedAt = now;
+            if (latencyNanos >= 0) {
+                double millis = latencyNanos / 1_000_000.0;
+                latencyMillis = hasLatency ? LATENCY_ALPHA * millis + (1 - LATENCY_ALPHA) * latencyMillis : millis;
+                hasLatency = true;
+                latencyUpdatedAt = now;
+            }
+        }
+
+        synchronized double latencyMillis() {
+            return latencyMillis;
+        }
+
+        synchronized boolean hasLatency() {
+            return hasLatency;
+        }
+
+        // The latency EWMA, pulled toward meanLatency as it ages (halfway every LATENCY_HALF_LIFE_MS)
+        synchronized double expectedLatencyMillis(double meanLatency, long now) {
+            if (!hasLatency) {
+                return 0;
+            }
+            double weight = Math.pow(0.5, (double) (now - latencyUpdatedAt) / LATENCY_HALF_LIFE_MS);
+            return meanLatency + (latencyMillis - meanLatency) * weight;
+        }
+
+        synchronized double errorRate() {
+            return decayedErrorRate(System.currentTimeMillis());
+        }
+
+        private double decayedErrorRate(long now) {
+            return errorRate * Math.pow(0.5, (double) (now - errorUpdatedAt) / ERROR_HALF_LIFE_MS);
+        }
+    }
+}
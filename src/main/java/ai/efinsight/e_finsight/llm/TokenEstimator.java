@@ -0,0 +1,70 @@
+package ai.efinsight.e_finsight.llm;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Local token count approximation, close enough to budget prompts without calling the provider's
+ * count-tokens endpoint. Text is split the way BPE pre-tokenizers do (letter runs, digit runs,
+ * punctuation, whitespace) and each piece is costed per provider. OpenAI's tokenizers merge up to
+ * three digits into one token. Gemini's SentencePiece vocabulary splits every digit. That difference
+ * matters here, because transaction text is mostly amounts, dates and IDs.
+ */
+@Component
+public class TokenEstimator {
+
+    public enum Tokenizer { OPENAI, GEMINI }
+
+    private final ProviderRegistry providers;
+
+    public TokenEstimator(ProviderRegistry providers) {
+        this.providers = providers;
+    }
+
+    // Estimate for the primary chat endpoint's provider (llm.endpoints[0], or llm.provider without endpoints)
+    public int estimate(String text) {
+        return estimate(text, tokenizerFor(providers.primaryChatEndpoint().getProvider()));
+    }
+
+    public static Tokenizer tokenizerFor(String provider) {
+        return "gemini".equalsIgnoreCase(provider) ? Tokenizer.GEMINI : Tokenizer.OPENAI;
+    }
+
+    public static int estimate(String text, Tokenizer tokenizer) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int tokens = 0;
+        int i = 0;
+        int length = text.length();
+        while (i < length) {
+            char c = text.charAt(i);
+            int start = i;
+            if (Character.isLetter(c)) {
+                while (i < length && Character.isLetter(text.charAt(i))) {
+                    i++;
+                }
+                // Common words are one token; longer ones split into ~5-character pieces
+                tokens += (i - start + 4) / 5;
+            } else if (Character.isDigit(c)) {
+                while (i < length && Character.isDigit(text.charAt(i))) {
+                    i++;
+                }
+                tokens += tokenizer == Tokenizer.OPENAI ? (i - start + 2) / 3 : i - start;
+            } else if (Character.isWhitespace(c)) {
+                while (i < length && Character.isWhitespace(text.charAt(i))) {
+                    i++;
+                }
+                // A single space is merged into the following word; longer runs (newlines, indentation) cost one
+                if (i - start > 1 || c == '\n') {
+                    tokens++;
+                }
+            } else {
+                while (i < length && !Character.isLetterOrDigit(text.charAt(i)) && !Character.isWhitespace(text.charAt(i))) {
+                    i++;
+                }
+                tokens += tokenizer == Tokenizer.OPENAI ? (i - start + 1) / 2 : i - start;
+            }
+        }
+        return tokens;
+    }
+}
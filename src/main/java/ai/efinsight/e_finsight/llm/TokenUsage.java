@@ -0,0 +1,47 @@
+package ai.efinsight.e_finsight.llm;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Tokens billed for one provider call. cachedTokens is the part of promptTokens served from the
+ * provider's prompt cache (billed at a discount); completionTokens includes Gemini's thinking tokens.
+ */
+public class TokenUsage {
+    public final long promptTokens;
+    public final long completionTokens;
+    public final long cachedTokens;
+    // True when the provider reported nothing and the counts come from TokenEstimator
+    public final boolean estimated;
+
+    public TokenUsage(long promptTokens, long completionTokens, long cachedTokens, boolean estimated) {
+        this.promptTokens = promptTokens;
+        this.completionTokens = completionTokens;
+        this.cachedTokens = cachedTokens;
+        this.estimated = estimated;
+    }
+
+    // OpenAI "usage": {"prompt_tokens", "completion_tokens", "prompt_tokens_details": {"cached_tokens"}};
+    // null when the response has none
+    public static TokenUsage fromOpenAI(JsonNode usage) {
+        if (usage == null || !usage.isObject()) {
+            return null;
+        }
+        return new TokenUsage(usage.path("prompt_tokens").asLong(), usage.path("completion_tokens").asLong(),
+            usage.path("prompt_tokens_details").path("cached_tokens").asLong(), false);
+    }
+
+    // Gemini "usageMetadata": {"promptTokenCount", "candidatesTokenCount", "thoughtsTokenCount",
+    // "cachedContentTokenCount"}; null when the response has none
+    public static TokenUsage fromGemini(JsonNode usageMetadata) {
+        if (usageMetadata == null || !usageMetadata.isObject()) {
+            return null;
+        }
+        return new TokenUsage(usageMetadata.path("promptTokenCount").asLong(),
+            usageMetadata.path("candidatesTokenCount").asLong() + usageMetadata.path("thoughtsTokenCount").asLong(),
+            usageMetadata.path("cachedContentTokenCount").asLong(), false);
+    }
+
+    public static TokenUsage estimate(String prompt, String completion, TokenEstimator.Tokenizer tokenizer) {
+        return new TokenUsage(TokenEstimator.estimate(prompt, tokenizer), TokenEstimator.estimate(completion, tokenizer), 0, true);
+    }
+}
@@ -0,0 +1,173 @@
+package ai.efinsight.e_finsight.llm;
+
+import ai.efinsight.e_finsight.repository.TokenUsageRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token usage of every provider call. Counts go to the llm.tokens metric right away (tagged by
+ * operation, agent, endpoint and model; users would make the tag set unbounded) and are summed per
+ * user and UTC day in memory, then added to the token_usage table every llm.usage-flush-seconds, so
+ * the hot path never waits on the database.
+ */
+@Component
+public class UsageMeter {
+    private static final Logger log = LoggerFactory.getLogger(UsageMeter.class);
+
+    public static final String CHAT = "chat";
+    public static final String EMBEDDING = "embedding";
+    // Stored for calls that are not made on behalf of one user
+    public static final long UNATTRIBUTED_USER = 0L;
+    private static final String NO_AGENT = "none";
+
+    private final TokenUsageRepository repository;
+    private final MeterRegistry meterRegistry;
+    private final boolean persistent;
+    private final Map<UsageKey, UsageTotals> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+
+    public UsageMeter(TokenUsageRepository repository, LLMConfig config, MeterRegistry meterRegistry) {
+        this.repository = repository;
+        this.meterRegistry = meterRegistry;
+        this.persistent = config.isUsagePersistent();
+        if (persistent) {
+            long seconds = Math.max(1, config.getUsageFlushSeconds());
+            this.flusher = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("usage-flush").factory());
+            flusher.scheduleWithFixedDelay(this::flush, seconds, seconds, TimeUnit.SECONDS);
+        } else {
+            this.flusher = null;
+        }
+    }
+
+    public void record(String operation, Long userId, String agent, ProviderEndpoint endpoint, String model, TokenUsage usage) {
+        String agentTag = agent != null ? agent : NO_AGENT;
+        count(operation, agentTag, endpoint, model, "prompt", usage.promptTokens);
+        count(operation, agentTag, endpoint, model, "completion", usage.completionTokens);
+        count(operation, agentTag, endpoint, model, "cached", usage.cachedTokens);
+        if (usage.estimated) {
+            meterRegistry.counter("llm.tokens.estimated.calls", "operation", operation, "endpoint", endpoint.getName()).increment();
+        }
+        if (!persistent) {
+            return;
+        }
+
+        UsageKey key = new UsageKey(userId != null ? userId : UNATTRIBUTED_USER, LocalDate.now(ZoneOffset.UTC),
+            operation, agentTag, endpoint.getName(), model);
+        // compute is atomic per key, so a flush that removed the entry never misses a later add
+        pending.compute(key, (k, totals) -> (totals != null ? totals : new UsageTotals()).add(1, usage));
+    }
+
+    private void count(String operation, String agent, ProviderEndpoint endpoint, String model, String type, long tokens) {
+        if (tokens <= 0) {
+            return;
+        }
+        Counter.builder("llm.tokens")
+            .tag("operation", operation)
+            .tag("type", type)
+            .tag("agent", agent)
+            .tag("endpoint", endpoint.getName())
+            .tag("model", model)
+            .register(meterRegistry)
+            .increment(tokens);
+    }
+
+    // Totals that fail to write are put back and retried on the next flush
+    public void flush() {
+        int rows = 0;
+        for (UsageKey key : pending.keySet()) {
+            UsageTotals totals = pending.remove(key);
+            if (totals == null) {
+                continue;
+            }
+            try {
+                repository.addUsage(key.userId, key.day, key.operation, key.agent, key.endpoint, key.model,
+                    totals.calls, totals.promptTokens, totals.completionTokens, totals.cachedTokens);
+                rows++;
+            } catch (Exception e) {
+                pending.merge(key, totals, UsageTotals::merge);
+                log.warn("Failed to store token usage ({} rows pending): {}", pending.size(), e.getMessage());
+                return;
+            }
+        }
+        if (rows > 0) {
+            log.debug("Stored token usage for {} keys", rows);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (flusher != null) {
+            flusher.shutdown();
+            flush();
+        }
+    }
+
+    private static class UsageKey {
+        final long userId;
+        final LocalDate day;
+        final String operation;
+        final String agent;
+        final String endpoint;
+        final String model;
+
+        UsageKey(long userId, LocalDate day, String operation, String agent, String endpoint, String model) {
+            this.userId = userId;
+            this.day = day;
+            this.operation = operation;
+            this.agent = agent;
+            this.endpoint = endpoint;
+            this.model = model;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof UsageKey other)) {
+                return false;
+            }
+            return userId == other.userId && day.equals(other.day) && operation.equals(other.operation)
+                && agent.equals(other.agent) && endpoint.equals(other.endpoint) && model.equals(other.model);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(userId, day, operation, agent, endpoint, model);
+        }
+    }
+
+    // Only mutated inside ConcurrentHashMap.compute/merge for its key
+    private static class UsageTotals {
+        long calls;
+        long promptTokens;
+        long completionTokens;
+        long cachedTokens;
+
+        UsageTotals add(long calls, TokenUsage usage) {
+            this.calls += calls;
+            this.promptTokens += usage.promptTokens;
+            this.completionTokens += usage.completionTokens;
+            this.cachedTokens += usage.cachedTokens;
+            return this;
+        }
+
+        UsageTotals merge(UsageTotals other) {
+            calls += other.calls;
+            promptTokens += other.promptTokens;
+            completionTokens += other.completionTokens;
+            cachedTokens += other.cachedTokens;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package ai.efinsight.e_finsight.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "embedding_cache")
+public class EmbeddingCacheEntry {
+    @Id
+    @Column(name = "cache_key", length = 255)
+    private String cacheKey; // model:taskType:sha256(text)
+
+    @Column(name = "model", nullable = false)
+    private String model;
+
+    @Column(name = "task_type", nullable = false)
+    private String taskType;
+
+    @Column(name = "text_hash", length = 64, nullable = false)
+    private String textHash;
+
+    @Column(name = "embedding", columnDefinition = "bytea", nullable = false)
+    private byte[] embedding; // Little-endian float32 values
+
+    @Column(name = "dimension")
+    private Integer dimension;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+    }
+
+    // Getters and setters
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
+    public void setCacheKey(String cacheKey) {
+        this.cacheKey = cacheKey;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public void setModel(String model) {
+        this.model = model;
+    }
+
+    public String getTaskType() {
+        return taskType;
+    }
+
+    public void setTaskType(String taskType) {
+        this.taskType = taskType;
+    }
+
+    public String getTextHash() {
+        return textHash;
+    }
+
+    public void setTextHash(String textHash) {
+        this.textHash = textHash;
+    }
+
+    public byte[] getEmbedding() {
+        return embedding;
+    }
+
+    public void setEmbedding(byte[] embedding) {
+        this.embedding = embedding;
+    }
+
+    public Integer getDimension() {
+        return dimension;
+    }
+
+    public void setDimension(Integer dimension) {
+        this.dimension = dimension;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+}
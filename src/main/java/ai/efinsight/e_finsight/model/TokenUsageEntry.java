@@ -0,0 +1,146 @@
+package ai.efinsight.e_finsight.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+// Tokens per user, UTC day, operation (chat/embedding), agent, endpoint and model. Rows are only
+// incremented, by TokenUsageRepository.addUsage.
+@Entity
+@Table(name = "token_usage", uniqueConstraints = @UniqueConstraint(
+    name = "uk_token_usage_key", columnNames = {"user_id", "usage_date", "operation", "agent", "endpoint", "model"}))
+public class TokenUsageEntry {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId; // 0 when the call could not be attributed to a user
+
+    @Column(name = "usage_date", nullable = false)
+    private LocalDate usageDate;
+
+    @Column(name = "operation", nullable = false, length = 32)
+    private String operation;
+
+    @Column(name = "agent", nullable = false, length = 64)
+    private String agent;
+
+    @Column(name = "endpoint", nullable = false, length = 64)
+    private String endpoint;
+
+    @Column(name = "model", nullable = false, length = 128)
+    private String model;
+
+    @Column(name = "calls", nullable = false)
+    private long calls;
+
+    @Column(name = "prompt_tokens", nullable = false)
+    private long promptTokens;
+
+    @Column(name = "completion_tokens", nullable = false)
+    private long completionTokens;
+
+    @Column(name = "cached_tokens", nullable = false)
+    private long cachedTokens;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    // Getters and setters
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    public LocalDate getUsageDate() {
+        return usageDate;
+    }
+
+    public void setUsageDate(LocalDate usageDate) {
+        this.usageDate = usageDate;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public void setOperation(String operation) {
+        this.operation = operation;
+    }
+
+    public String getAgent() {
+        return agent;
+    }
+
+    public void setAgent(String agent) {
+        this.agent = agent;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public void setModel(String model) {
+        this.model = model;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    public void setCalls(long calls) {
+        this.calls = calls;
+    }
+
+    public long getPromptTokens() {
+        return promptTokens;
+    }
+
+    public void setPromptTokens(long promptTokens) {
+        this.promptTokens = promptTokens;
+    }
+
+    public long getCompletionTokens() {
+        return completionTokens;
+    }
+
+    public void setCompletionTokens(long completionTokens) {
+        this.completionTokens = completionTokens;
+    }
+
+    public long getCachedTokens() {
+        return cachedTokens;
+    }
+
+    public void setCachedTokens(long cachedTokens) {
+        this.cachedTokens = cachedTokens;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -22,6 +22,15 @@ public class TransactionChunk {
     @Column(name = "embedding", columnDefinition = "TEXT")
     private String embedding; // JSON array of floats as string
 
+    @Column(name = "embedding_dimension")
+    private Integer embeddingDimension; // Length of the embedding; chunks of different sizes are never compared
+
+    @Column(name = "summary_hash", length = 64)
+    private String summaryHash; // SHA-256 of the transaction's toTextSummary() when the chunk was built
+
+    @Column(name = "chunking_config")
+    private String chunkingConfig; // ChunkingService settings that produced the chunk
+
     @Column(name = "chunk_index")
     private Integer chunkIndex; // If transaction is split into multiple chunks
 
@@ -77,6 +86,30 @@ public class TransactionChunk {
         this.embedding = embedding;
     }
 
+    public Integer getEmbeddingDimension() {
+        return embeddingDimension;
+    }
+
+    public void setEmbeddingDimension(Integer embeddingDimension) {
+        this.embeddingDimension = embeddingDimension;
+    }
+
+    public String getSummaryHash() {
+        return summaryHash;
+    }
+
+    public void setSummaryHash(String summaryHash) {
+        this.summaryHash = summaryHash;
+    }
+
+    public String getChunkingConfig() {
+        return chunkingConfig;
+    }
+
+    public void setChunkingConfig(String chunkingConfig) {
+        this.chunkingConfig = chunkingConfig;
+    }
+
     public Integer getChunkIndex() {
         return chunkIndex;
     }
@@ -0,0 +1,152 @@
+package ai.efinsight.e_finsight.rag;
+
+import ai.efinsight.e_finsight.config.BackfillConfig;
+import ai.efinsight.e_finsight.llm.ProviderEndpoint;
+import ai.efinsight.e_finsight.llm.ProviderRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.*;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Client for the OpenAI-compatible asynchronous Batch API: upload a JSONL input file, create a
+ * batch against /v1/embeddings, poll it, and download the output file. Talks to the primary
+ * embedding endpoint unless backfill.api-url or the stub is configured; EmbeddingBackfillService
+ * checks that the endpoint speaks this protocol before using it.
+ */
+@Component
+public class BatchEmbeddingClient {
+    private static final Logger log = LoggerFactory.getLogger(BatchEmbeddingClient.class);
+
+    public static final String ENDPOINT_EMBEDDINGS = "/v1/embeddings";
+
+    private final BackfillConfig backfillConfig;
+    private final ProviderRegistry providers;
+    private final RestTemplate restTemplate;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public BatchEmbeddingClient(BackfillConfig backfillConfig, ProviderRegistry providers, RestTemplate restTemplate) {
+        this.backfillConfig = backfillConfig;
+        this.providers = providers;
+        this.restTemplate = restTemplate;
+    }
+
+    public String uploadFile(Path jsonl) {
+        MultiValueMap<String, Object> form = new LinkedMultiValueMap<>();
+        form.add("purpose", "batch");
+        form.add("file", new FileSystemResource(jsonl));
+
+        HttpHeaders headers = headers();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+        JsonNode file = post("/files", new HttpEntity<>(form, headers));
+        log.info("Uploaded batch input {} ({} bytes) as {}", jsonl.getFileName(), jsonl.toFile().length(), file.get("id").asText());
+        return file.get("id").asText();
+    }
+
+    public BatchStatus createBatch(String inputFileId) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("input_file_id", inputFileId);
+        body.put("endpoint", ENDPOINT_EMBEDDINGS);
+        body.put("completion_window", backfillConfig.getCompletionWindow());
+
+        HttpHeaders headers = headers();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return new BatchStatus(post("/batches", new HttpEntity<>(body, headers)));
+    }
+
+    public BatchStatus getBatch(String batchId) {
+        ResponseEntity<String> response = restTemplate.exchange(
+            baseUrl() + "/batches/" + batchId, HttpMethod.GET, new HttpEntity<>(headers()), String.class);
+        return new BatchStatus(readJson(response.getBody()));
+    }
+
+    // Streams the file to disk; output files can be far larger than we want on the heap
+    public void downloadFile(String fileId, Path target) {
+        restTemplate.execute(baseUrl() + "/files/" + fileId + "/content", HttpMethod.GET,
+            request -> request.getHeaders().putAll(headers()),
+            response -> {
+                try (InputStream body = response.getBody()) {
+                    Files.copy(body, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+                return null;
+            });
+    }
+
+    // Input and output files hold users' transaction texts and vectors; they are deleted once used
+    public void deleteFile(String fileId) {
+        restTemplate.exchange(baseUrl() + "/files/" + fileId, HttpMethod.DELETE, new HttpEntity<>(headers()), String.class);
+        log.debug("Deleted batch file {}", fileId);
+    }
+
+    public String baseUrl() {
+        if (backfillConfig.getApiUrl() != null) {
+            return backfillConfig.getApiUrl();
+        }
+        if (backfillConfig.getStubServerPort() > 0) {
+            return "http://localhost:" + backfillConfig.getStubServerPort() + "/v1";
+        }
+        return providers.primaryEmbeddingEndpoint().resolvedBaseUrl();
+    }
+
+    private JsonNode post(String path, HttpEntity<?> request) {
+        ResponseEntity<String> response = restTemplate.exchange(baseUrl() + path, HttpMethod.POST, request, String.class);
+        return readJson(response.getBody());
+    }
+
+    private HttpHeaders headers() {
+        HttpHeaders headers = new HttpHeaders();
+        ProviderEndpoint primary = providers.primaryEmbeddingEndpoint();
+        String apiKey = backfillConfig.getApiKey() != null ? backfillConfig.getApiKey() : primary.getApiKey();
+        if (apiKey != null) {
+            headers.setBearerAuth(apiKey);
+        }
+        return headers;
+    }
+
+    private JsonNode readJson(String body) {
+        try {
+            return objectMapper.readTree(body);
+        } catch (Exception e) {
+            throw new RuntimeException("Invalid Batch API response: " + e.getMessage(), e);
+        }
+    }
+
+    public static class BatchStatus {
+        public final String id;
+        public final String status;
+        public final String outputFileId;
+        public final String errorFileId;
+        public final int completed;
+        public final int failed;
+        public final int total;
+
+        BatchStatus(JsonNode batch) {
+            this.id = batch.path("id").asText();
+            this.status = batch.path("status").asText();
+            this.outputFileId = batch.hasNonNull("output_file_id") ? batch.get("output_file_id").asText() : null;
+            this.errorFileId = batch.hasNonNull("error_file_id") ? batch.get("error_file_id").asText() : null;
+            JsonNode counts = batch.path("request_counts");
+            this.completed = counts.path("completed").asInt();
+            this.failed = counts.path("failed").asInt();
+            this.total = counts.path("total").asInt();
+        }
+
+        public boolean isTerminal() {
+            return "completed".equals(status) || "failed".equals(status)
+                || "expired".equals(status) || "cancelled".equals(status);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package ai.efinsight.e_finsight.rag;
+
+/**
+ * Implemented by retrieval-path caches so their size and hit rates show up in the RAG stats endpoint.
+ */
+public interface CacheStats {
+    String getCacheName();
+
+    long getSize();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getEstimatedBytes();
+
+    // Bytes held for a single user, or -1 if the cache is not partitioned by user
+    default long getEstimatedBytesForUser(Long userId) {
+        return -1;
+    }
+
+    default double getHitRate() {
+        long total = getHitCount() + getMissCount();
+        return total == 0 ? 0.0 : (double) getHitCount() / total;
+    }
+}
@@ -1,6 +1,7 @@
 package ai.efinsight.e_finsight.rag;
 
 import ai.efinsight.e_finsight.model.Transaction;
+import ai.efinsight.e_finsight.util.Hashing;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -15,6 +16,18 @@ public class ChunkingService {
     // Maximum chunk size is 500 characters
     private static final int MAX_CHUNK_SIZE = 500;
 
+    // Stored with each chunk; bump when the chunking rules change so incremental reprocessing rebuilds chunks
+    private static final String CHUNKING_VERSION = "v1";
+
+    public String getChunkingConfig() {
+        return CHUNKING_VERSION + ":max-chars=" + MAX_CHUNK_SIZE;
+    }
+
+    // Identifies the text the chunks were built from; a different hash means the transaction changed
+    public String summaryHash(Transaction transaction) {
+        return Hashing.sha256Hex(transaction.toTextSummary());
+    }
+
     public List<String> chunkTransaction(Transaction transaction) {
         List<String> chunks = new ArrayList<>();
 
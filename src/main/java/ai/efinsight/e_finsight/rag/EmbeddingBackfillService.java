@@ -0,0 +1,369 @@
+package ai.efinsight.e_finsight.rag;
+
+import ai.efinsight.e_finsight.config.BackfillConfig;
+import ai.efinsight.e_finsight.llm.ProviderEndpoint;
+import ai.efinsight.e_finsight.llm.ProviderRegistry;
+import ai.efinsight.e_finsight.model.TransactionChunk;
+import ai.efinsight.e_finsight.repository.TransactionChunkRepository;
+import ai.efinsight.e_finsight.service.DataVersionService;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Embeds chunks stored without a vector through the provider's asynchronous Batch API instead of
+ * the interactive path: chunk texts are written to JSONL files, submitted as batches, polled, and
+ * the output is streamed back into transaction_chunks. Batch jobs run on the provider's separate
+ * batch quota (at a lower price), so they never compete with interactive requests for rate limits.
+ * The vectors are stored next to interactively embedded ones, so the batch endpoint must serve the
+ * primary embedding endpoint's provider and model: OpenAI, or local embeddings through the stub.
+ */
+@Service
+public class EmbeddingBackfillService {
+    private static final Logger log = LoggerFactory.getLogger(EmbeddingBackfillService.class);
+
+    private static final String CUSTOM_ID_PREFIX = "chunk-";
+    private static final int STORE_BATCH_SIZE = 500;
+
+    private final BackfillConfig backfillConfig;
+    private final ProviderRegistry providers;
+    private final BatchEmbeddingClient batchClient;
+    private final TransactionChunkRepository chunkRepository;
+    private final VectorStoreService vectorStoreService;
+    private final EmbeddingService embeddingService;
+    private final DataVersionService dataVersionService;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    private final Map<String, BackfillJob> jobs = new ConcurrentHashMap<>();
+    private final ExecutorService runner = Executors.newVirtualThreadPerTaskExecutor();
+
+    public EmbeddingBackfillService(
+            BackfillConfig backfillConfig,
+            ProviderRegistry providers,
+            BatchEmbeddingClient batchClient,
+            TransactionChunkRepository chunkRepository,
+            VectorStoreService vectorStoreService,
+            EmbeddingService embeddingService,
+            DataVersionService dataVersionService) {
+        this.backfillConfig = backfillConfig;
+        this.providers = providers;
+        this.batchClient = batchClient;
+        this.chunkRepository = chunkRepository;
+        this.vectorStoreService = vectorStoreService;
+        this.embeddingService = embeddingService;
+        this.dataVersionService = dataVersionService;
+    }
+
+    // Why a backfill cannot run, or null when it can. The Batch API must embed with the same provider and
+    // model as the interactive path: Gemini has no OpenAI-compatible Batch API, and the stub only serves
+    // local vectors.
+    public String unsupportedReason() {
+        ProviderEndpoint primary = providers.primaryEmbeddingEndpoint();
+        boolean stub = backfillConfig.getApiUrl() == null && backfillConfig.getStubServerPort() > 0;
+        if (embeddingService.isLocal()) {
+            return stub ? null : "local embeddings can only be backfilled through the Batch API stub (backfill.stub-server-port)";
+        }
+        if (!primary.isOpenAI()) {
+            return "batch backfill needs an OpenAI embedding endpoint, but embeddings use "
+                + primary.embeddingAffinityKey() + "; use /reprocess instead";
+        }
+        if (stub) {
+            return "the Batch API stub serves local embeddings, but embeddings use "
+                + primary.embeddingAffinityKey() + "; disable backfill.stub-server-port";
+        }
+        return null;
+    }
+
+    // Starts a backfill of every chunk without an embedding for the user; progress via getJob. A user has at
+    // most one job running: concurrent requests get the same job rather than paying for the same chunks twice.
+    public BackfillJob startBackfill(Long userId) {
+        String unsupported = unsupportedReason();
+        if (unsupported != null) {
+            throw new IllegalStateException("Embedding backfill not available: " + unsupported);
+        }
+        BackfillJob job;
+        synchronized (jobs) {
+            evictFinishedJobs();
+            for (BackfillJob existing : jobs.values()) {
+                if (existing.userId.equals(userId) && !existing.isFinished()) {
+                    return existing;
+                }
+            }
+            job = new BackfillJob(UUID.randomUUID().toString(), userId);
+            jobs.put(job.id, job);
+        }
+        runner.submit(() -> run(job));
+        return job;
+    }
+
+    public BackfillJob getJob(String jobId) {
+        evictFinishedJobs();
+        return jobs.get(jobId);
+    }
+
+    private void evictFinishedJobs() {
+        Instant cutoff = Instant.now().minus(Duration.ofMinutes(backfillConfig.getJobRetentionMinutes()));
+        jobs.values().removeIf(job -> job.finishedAt != null && job.finishedAt.isBefore(cutoff));
+    }
+
+    private void run(BackfillJob job) {
+        Path workDir = null;
+        try {
+            List<TransactionChunk> chunks = chunkRepository.findByUserIdAndEmbeddingIsNull(job.userId);
+            job.requested = chunks.size();
+            log.info("Backfill {} started for user {}: {} chunks without embeddings via {}",
+                job.id, job.userId, chunks.size(), batchClient.baseUrl());
+
+            workDir = Files.createDirectories(Path.of(backfillConfig.getWorkDir() != null
+                ? backfillConfig.getWorkDir() : System.getProperty("java.io.tmpdir"), "efinsight-backfill", job.id));
+            int perFile = Math.max(1, backfillConfig.getMaxRequestsPerFile());
+            for (int start = 0; start < chunks.size(); start += perFile) {
+                List<TransactionChunk> part = chunks.subList(start, Math.min(start + perFile, chunks.size()));
+                runBatch(job, part, workDir.resolve("input-" + (start / perFile) + ".jsonl"),
+                    workDir.resolve("output-" + (start / perFile) + ".jsonl"));
+            }
+
+            job.status = BackfillJob.COMPLETED;
+            log.info("Backfill {} completed: {} embedded, {} failed of {}", job.id, job.embedded, job.failed, job.requested);
+        } catch (Exception e) {
+            job.status = BackfillJob.FAILED;
+            job.error = e.getMessage();
+            log.error("Backfill {} failed", job.id, e);
+        } finally {
+            // The JSONL files hold the user's transaction texts and vectors
+            if (workDir != null) {
+                deleteWorkDir(job, workDir);
+            }
+            job.finishedAt = Instant.now();
+        }
+    }
+
+    private void deleteWorkDir(BackfillJob job, Path workDir) {
+        try (Stream<Path> paths = Files.walk(workDir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            log.warn("Backfill {}: could not delete work directory {}: {}", job.id, workDir, e.getMessage());
+        }
+    }
+
+    // Provider-side copies of the input and output are deleted whether or not the batch succeeded
+    private void deleteBatchFile(BackfillJob job, String fileId) {
+        if (fileId == null) {
+            return;
+        }
+        try {
+            batchClient.deleteFile(fileId);
+        } catch (Exception e) {
+            log.warn("Backfill {}: could not delete batch file {}: {}", job.id, fileId, e.getMessage());
+        }
+    }
+
+    private void runBatch(BackfillJob job, List<TransactionChunk> chunks, Path input, Path output) throws IOException, InterruptedException {
+        job.status = BackfillJob.WRITING;
+        writeInput(chunks, input);
+
+        job.status = BackfillJob.SUBMITTED;
+        String fileId = batchClient.uploadFile(input);
+        BatchEmbeddingClient.BatchStatus batch = null;
+        try {
+            batch = batchClient.createBatch(fileId);
+            job.batchIds.add(batch.id);
+            log.info("Backfill {} submitted batch {} with {} requests", job.id, batch.id, chunks.size());
+
+            while (!batch.isTerminal()) {
+                Thread.sleep(Math.max(1, backfillConfig.getPollIntervalSeconds()) * 1000L);
+                batch = batchClient.getBatch(batch.id);
+                job.batchStatus = batch.status;
+                log.debug("Backfill {} batch {}: {} ({}/{} done)", job.id, batch.id, batch.status, batch.completed, batch.total);
+            }
+
+            // Expired or cancelled batches still return whatever completed
+            if (batch.outputFileId == null) {
+                job.failed += chunks.size();
+                throw new RuntimeException("Batch " + batch.id + " ended as " + batch.status + " without output");
+            }
+
+            job.status = BackfillJob.STORING;
+            batchClient.downloadFile(batch.outputFileId, output);
+            int stored = readOutput(job, chunks, output);
+            job.failed += chunks.size() - stored;
+        } finally {
+            deleteBatchFile(job, fileId);
+            if (batch != null) {
+                deleteBatchFile(job, batch.outputFileId);
+                deleteBatchFile(job, batch.errorFileId);
+            }
+        }
+    }
+
+    // One /v1/embeddings request per chunk, keyed by chunk id
+    private void writeInput(List<TransactionChunk> chunks, Path input) throws IOException {
+        String model = providers.primaryEmbeddingEndpoint().resolvedEmbeddingModel();
+        Integer dimension = embeddingService.getTargetDimension();
+
+        try (JsonGenerator generator = jsonFactory.createGenerator(input.toFile(), JsonEncoding.UTF8)) {
+            generator.setRootValueSeparator(null);
+            for (TransactionChunk chunk : chunks) {
+                generator.writeStartObject();
+                generator.writeStringField("custom_id", CUSTOM_ID_PREFIX + chunk.getId());
+                generator.writeStringField("method", "POST");
+                generator.writeStringField("url", BatchEmbeddingClient.ENDPOINT_EMBEDDINGS);
+                generator.writeObjectFieldStart("body");
+                generator.writeStringField("model", model);
+                generator.writeStringField("input", chunk.getChunkText());
+                if (dimension != null) {
+                    generator.writeNumberField("dimensions", dimension);
+                }
+                generator.writeEndObject();
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+            }
+        }
+    }
+
+    // Reads the output line by line and stores vectors in groups, so memory stays flat for large files
+    private int readOutput(BackfillJob job, List<TransactionChunk> chunks, Path output) throws IOException {
+        Map<Long, String> textsById = new HashMap<>(chunks.size() * 2);
+        for (TransactionChunk chunk : chunks) {
+            textsById.put(chunk.getId(), chunk.getChunkText());
+        }
+
+        Map<Long, float[]> pending = new LinkedHashMap<>();
+        int stored = 0;
+        try (BufferedReader reader = Files.newBufferedReader(output, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JsonNode result = objectMapper.readTree(line);
+                String customId = result.path("custom_id").asText();
+                JsonNode response = result.path("response");
+                if (!customId.startsWith(CUSTOM_ID_PREFIX) || response.path("status_code").asInt() != 200) {
+                    log.warn("Backfill {}: request {} failed: {}", job.id, customId, result.path("error"));
+                    continue;
+                }
+                Long chunkId = Long.parseLong(customId.substring(CUSTOM_ID_PREFIX.length()));
+                if (!textsById.containsKey(chunkId)) {
+                    continue;
+                }
+
+                JsonNode values = response.path("body").path("data").path(0).path("embedding");
+                float[] embedding = new float[values.size()];
+                for (int i = 0; i < embedding.length; i++) {
+                    embedding[i] = (float) values.get(i).asDouble();
+                }
+                Integer dimension = embeddingService.getTargetDimension();
+                pending.put(chunkId, dimension != null ? EmbeddingService.truncateAndNormalize(embedding, dimension) : embedding);
+
+                if (pending.size() >= STORE_BATCH_SIZE) {
+                    stored += store(job, pending, textsById);
+                }
+            }
+        }
+        stored += store(job, pending, textsById);
+        return stored;
+    }
+
+    private int store(BackfillJob job, Map<Long, float[]> pending, Map<Long, String> textsById) {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        int updated = vectorStoreService.updateEmbeddings(pending);
+        // Backfilled chunks become searchable now
+        dataVersionService.markChanged(job.userId);
+
+        // Later interactive re-embeds of the same texts become cache hits
+        List<String> texts = new ArrayList<>(pending.size());
+        List<float[]> embeddings = new ArrayList<>(pending.size());
+        for (Map.Entry<Long, float[]> entry : pending.entrySet()) {
+            texts.add(textsById.get(entry.getKey()));
+            embeddings.add(entry.getValue());
+        }
+        embeddingService.cacheEmbeddings(texts, embeddings);
+
+        job.embedded += updated;
+        pending.clear();
+        return updated;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runner.shutdownNow();
+    }
+
+    public static class BackfillJob {
+        public static final String PENDING = "pending";
+        public static final String WRITING = "writing_input";
+        public static final String SUBMITTED = "submitted";
+        public static final String STORING = "storing_results";
+        public static final String COMPLETED = "completed";
+        public static final String FAILED = "failed";
+
+        public final String id;
+        public final Long userId;
+        public final Instant startedAt = Instant.now();
+        public final List<String> batchIds = new CopyOnWriteArrayList<>();
+        public volatile String status = PENDING;
+        public volatile String batchStatus;
+        public volatile int requested;
+        public volatile int embedded;
+        public volatile int failed;
+        public volatile String error;
+        public volatile Instant finishedAt;
+
+        BackfillJob(String id, Long userId) {
+            this.id = id;
+            this.userId = userId;
+        }
+
+        public boolean isFinished() {
+            return COMPLETED.equals(status) || FAILED.equals(status);
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("jobId", id);
+            map.put("userId", userId);
+            map.put("status", status);
+            map.put("batchStatus", batchStatus);
+            map.put("batchIds", List.copyOf(batchIds));
+            map.put("requested", requested);
+            map.put("embedded", embedded);
+            map.put("failed", failed);
+            map.put("error", error);
+            map.put("startedAt", startedAt.toString());
+            map.put("finishedAt", finishedAt != null ? finishedAt.toString() : null);
+            return map;
+        }
+    }
+}
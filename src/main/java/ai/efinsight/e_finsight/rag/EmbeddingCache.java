@@ -0,0 +1,175 @@
+package ai.efinsight.e_finsight.rag;
+
+import ai.efinsight.e_finsight.llm.LLMConfig;
+import ai.efinsight.e_finsight.model.EmbeddingCacheEntry;
+import ai.efinsight.e_finsight.repository.EmbeddingCacheRepository;
+import ai.efinsight.e_finsight.util.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed embedding cache keyed by (model, taskType, SHA-256 of the text).
+ * An in-memory LRU tier sits in front of a persistent PostgreSQL tier, so re-embedding text
+ * that was embedded before (reprocessing, re-ingesting the same history) costs no provider calls.
+ */
+@Service
+public class EmbeddingCache implements CacheStats {
+    private static final Logger log = LoggerFactory.getLogger(EmbeddingCache.class);
+
+    private final EmbeddingCacheRepository repository;
+    private final boolean persistent;
+    private final LinkedHashMap<String, float[]> memory;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong persistentHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long memoryBytes = 0;
+
+    public EmbeddingCache(EmbeddingCacheRepository repository, LLMConfig config) {
+        this.repository = repository;
+        this.persistent = config.isEmbeddingCachePersistent();
+        int maxEntries = Math.max(1, config.getEmbeddingCacheMaxEntries());
+        // Access-ordered map evicts the least recently used embedding once the size bound is reached
+        this.memory = new LinkedHashMap<>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+                if (size() > maxEntries) {
+                    memoryBytes -= entryBytes(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public static String key(String model, String taskType, String text) {
+        return model + ":" + taskType + ":" + Hashing.sha256Hex(text);
+    }
+
+    // Look up all keys, memory first, then one batched query against the persistent tier
+    public Map<String, float[]> getAll(Collection<String> keys) {
+        Map<String, float[]> found = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        synchronized (memory) {
+            for (String key : keys) {
+                float[] embedding = memory.get(key);
+                if (embedding != null) {
+                    found.put(key, embedding);
+                } else {
+                    missing.add(key);
+                }
+            }
+        }
+        memoryHits.addAndGet(found.size());
+
+        if (persistent && !missing.isEmpty()) {
+            try {
+                List<EmbeddingCacheEntry> entries = repository.findAllById(missing);
+                for (EmbeddingCacheEntry entry : entries) {
+                    float[] embedding = fromBytes(entry.getEmbedding());
+                    found.put(entry.getCacheKey(), embedding);
+                    putInMemory(entry.getCacheKey(), embedding);
+                }
+                persistentHits.addAndGet(entries.size());
+            } catch (Exception e) {
+                log.warn("Failed to read persistent embedding cache, treating {} keys as misses", missing.size(), e);
+            }
+        }
+
+        misses.addAndGet(keys.size() - found.size());
+        return found;
+    }
+
+    public void putAll(String model, String taskType, Map<String, float[]> embeddingsByKey) {
+        for (Map.Entry<String, float[]> entry : embeddingsByKey.entrySet()) {
+            putInMemory(entry.getKey(), entry.getValue());
+        }
+
+        if (!persistent || embeddingsByKey.isEmpty()) {
+            return;
+        }
+        try {
+            List<EmbeddingCacheEntry> entries = new ArrayList<>(embeddingsByKey.size());
+            for (Map.Entry<String, float[]> entry : embeddingsByKey.entrySet()) {
+                EmbeddingCacheEntry cacheEntry = new EmbeddingCacheEntry();
+                cacheEntry.setCacheKey(entry.getKey());
+                cacheEntry.setModel(model);
+                cacheEntry.setTaskType(taskType);
+                cacheEntry.setTextHash(entry.getKey().substring(entry.getKey().lastIndexOf(':') + 1));
+                cacheEntry.setEmbedding(toBytes(entry.getValue()));
+                cacheEntry.setDimension(entry.getValue().length);
+                entries.add(cacheEntry);
+            }
+            repository.insertAllIfAbsent(entries);
+        } catch (Exception e) {
+            log.warn("Failed to persist {} embeddings to cache", embeddingsByKey.size(), e);
+        }
+    }
+
+    private void putInMemory(String key, float[] embedding) {
+        synchronized (memory) {
+            float[] previous = memory.put(key, embedding);
+            if (previous != null) {
+                memoryBytes -= entryBytes(key, previous);
+            }
+            memoryBytes += entryBytes(key, embedding);
+        }
+    }
+
+    private static long entryBytes(String key, float[] embedding) {
+        // float[] + key String + LinkedHashMap entry overhead
+        return 16 + 4L * embedding.length + 40 + key.length() + 64;
+    }
+
+    static byte[] toBytes(float[] embedding) {
+        ByteBuffer buffer = ByteBuffer.allocate(embedding.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(embedding);
+        return buffer.array();
+    }
+
+    static float[] fromBytes(byte[] bytes) {
+        float[] embedding = new float[bytes.length / 4];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(embedding);
+        return embedding;
+    }
+
+    @Override
+    public String getCacheName() {
+        return "embedding";
+    }
+
+    @Override
+    public long getSize() {
+        synchronized (memory) {
+            return memory.size();
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return memoryHits.get() + persistentHits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public long getEstimatedBytes() {
+        synchronized (memory) {
+            return memoryBytes;
+        }
+    }
+}
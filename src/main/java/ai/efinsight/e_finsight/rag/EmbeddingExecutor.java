@@ -0,0 +1,231 @@
+package ai.efinsight.e_finsight.rag;
+
+import ai.efinsight.e_finsight.llm.LLMConfig;
+import ai.efinsight.e_finsight.resilience.AimdLimiter;
+import ai.efinsight.e_finsight.resilience.CircuitBreaker;
+import ai.efinsight.e_finsight.resilience.CircuitBreakerOpenException;
+import ai.efinsight.e_finsight.resilience.RetryPolicy;
+import ai.efinsight.e_finsight.util.TokenBucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs embedding work on virtual threads. Provider calls go through {@link #callProvider}, which
+ * bounds in-flight requests per provider with an adaptive (AIMD) limit, throttles them to the
+ * configured requests-per-minute and tokens-per-minute quotas, and stops calling a failing provider
+ * via a circuit breaker, so throughput tracks the provider's real capacity.
+ */
+@Component
+public class EmbeddingExecutor {
+    private static final Logger log = LoggerFactory.getLogger(EmbeddingExecutor.class);
+
+    private static final int CIRCUIT_WINDOW_SIZE = 20;
+
+    private final LLMConfig config;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, ProviderLimits> limitsByProvider = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+    private final Timer throttleTimer;
+    private final RetryPolicy retryPolicy;
+
+    public EmbeddingExecutor(LLMConfig config, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.meterRegistry = meterRegistry;
+        this.throttleTimer = meterRegistry.timer("rag.embedding.throttle");
+        this.retryPolicy = new RetryPolicy(config.getEmbeddingMaxRetries(), 500, 30_000);
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, executor);
+    }
+
+    // Applies the function to every item concurrently and returns the results in input order.
+    // The first failure is rethrown once all items have finished.
+    public <T, R> List<R> mapOrdered(List<T> items, Function<T, R> function) {
+        if (items.size() <= 1) {
+            List<R> results = new ArrayList<>(items.size());
+            for (T item : items) {
+                results.add(function.apply(item));
+            }
+            return results;
+        }
+
+        List<CompletableFuture<R>> futures = new ArrayList<>(items.size());
+        for (T item : items) {
+            futures.add(submit(() -> function.apply(item)));
+        }
+        List<R> results = new ArrayList<>(items.size());
+        RuntimeException failure = null;
+        for (CompletableFuture<R> future : futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException runtimeException
+                        ? runtimeException
+                        : new RuntimeException(e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    // Runs one provider request through the provider's circuit breaker, adaptive concurrency limit and
+    // rate limits. Overload failures (429, 5xx, I/O timeouts) shrink the limit and are retried a bounded
+    // number of times with jittered backoff; once the breaker opens, calls fail fast instead.
+    public <T> T callProvider(String provider, int estimatedTokens, Supplier<T> call) {
+        ProviderLimits limits = limitsFor(provider);
+        int maxAttempts = retryPolicy.getMaxAttempts();
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                limits.circuitBreaker.acquirePermission();
+            } catch (CircuitBreakerOpenException e) {
+                limits.outcome("rejected").increment();
+                throw e;
+            }
+            try {
+                limits.limiter.acquire();
+            } catch (InterruptedException e) {
+                limits.circuitBreaker.onIgnore();
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for an embedding slot", e);
+            }
+
+            long retryDelayMillis;
+            try {
+                throttle(limits, provider, estimatedTokens);
+                long start = System.nanoTime();
+                T result = call.get();
+                limits.limiter.onSuccess(System.nanoTime() - start);
+                limits.circuitBreaker.onSuccess();
+                limits.outcome("success").increment();
+                return result;
+            } catch (InterruptedException e) {
+                limits.limiter.onIgnore();
+                limits.circuitBreaker.onIgnore();
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for embedding rate limit", e);
+            } catch (RuntimeException e) {
+                if (!RetryPolicy.isRetryable(e)) {
+                    limits.limiter.onIgnore();
+                    limits.circuitBreaker.onIgnore();
+                    limits.outcome("error").increment();
+                    throw e;
+                }
+                limits.limiter.onOverload();
+                limits.circuitBreaker.onFailure();
+                limits.outcome("overload").increment();
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+                retryDelayMillis = retryPolicy.delayMillis(e, attempt);
+                log.warn("Embedding provider {} overloaded (attempt {}/{}, concurrency limit now {}): {}. Retrying in {}ms",
+                    provider, attempt, maxAttempts, limits.limiter.getLimit(), e.getMessage(), retryDelayMillis);
+            }
+
+            // Back off without holding a concurrency slot
+            try {
+                Thread.sleep(retryDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while retrying embedding request", e);
+            }
+        }
+    }
+
+    private void throttle(ProviderLimits limits, String provider, int estimatedTokens) throws InterruptedException {
+        long waited = 0;
+        if (limits.requests != null) {
+            waited += limits.requests.acquire(1);
+        }
+        if (limits.tokens != null) {
+            waited += limits.tokens.acquire(Math.max(1, estimatedTokens));
+        }
+        if (waited > 0) {
+            throttleTimer.record(waited, TimeUnit.NANOSECONDS);
+            log.debug("Embedding request to {} throttled for {} ms", provider, waited / 1_000_000);
+        }
+    }
+
+    // Current adaptive limit; ingestion keeps roughly this many batches in flight
+    public int getConcurrencyLimit(String provider) {
+        return limitsFor(provider).limiter.getLimit();
+    }
+
+    public boolean isAvailable(String provider) {
+        return limitsFor(provider).circuitBreaker.getState() != CircuitBreaker.State.OPEN;
+    }
+
+    private ProviderLimits limitsFor(String provider) {
+        return limitsByProvider.computeIfAbsent(provider != null ? provider.toLowerCase() : "unknown", ProviderLimits::new);
+    }
+
+    // Rough token count (~4 characters per token) for tokens-per-minute budgeting
+    public static int estimateTokens(List<String> texts) {
+        long chars = 0;
+        for (String text : texts) {
+            chars += text != null ? text.length() : 0;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, (chars + 3) / 4);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private class ProviderLimits {
+        final String provider;
+        final AimdLimiter limiter;
+        final CircuitBreaker circuitBreaker;
+        final TokenBucket requests;
+        final TokenBucket tokens;
+
+        ProviderLimits(String provider) {
+            this.provider = provider;
+            int max = Math.max(1, config.getEmbeddingMaxConcurrency());
+            int min = Math.max(1, Math.min(max, config.getEmbeddingMinConcurrency()));
+            this.limiter = new AimdLimiter(min, min, max);
+            this.circuitBreaker = new CircuitBreaker("embedding-" + provider, CIRCUIT_WINDOW_SIZE,
+                config.getEmbeddingCircuitFailureRate(), config.getEmbeddingCircuitOpenSeconds() * 1000L);
+            this.requests = config.getEmbeddingRequestsPerMinute() > 0
+                ? new TokenBucket(config.getEmbeddingRequestsPerMinute()) : null;
+            this.tokens = config.getEmbeddingTokensPerMinute() > 0
+                ? new TokenBucket(config.getEmbeddingTokensPerMinute()) : null;
+
+            Gauge.builder("rag.embedding.concurrency.limit", limiter, AimdLimiter::getLimit)
+                .tag("provider", provider).register(meterRegistry);
+            Gauge.builder("rag.embedding.in_flight", limiter, AimdLimiter::getInFlight)
+                .tag("provider", provider).register(meterRegistry);
+            // 0 = closed, 1 = half-open, 2 = open
+            Gauge.builder("rag.embedding.circuit.state", circuitBreaker, cb -> cb.getState().ordinal())
+                .tag("provider", provider).register(meterRegistry);
+        }
+
+        Counter outcome(String outcome) {
+            return meterRegistry.counter("rag.embedding.calls", "provider", provider, "outcome", outcome);
+        }
+    }
+}
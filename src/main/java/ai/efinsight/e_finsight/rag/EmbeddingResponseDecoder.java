@@ -0,0 +1,239 @@
+package ai.efinsight.e_finsight.rag;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+/**
+ * Streams embedding API responses straight into float arrays with a Jackson JsonParser,
+ * instead of materialising the whole body as a String and a JsonNode tree of DoubleNodes.
+ */
+@Component
+public class EmbeddingResponseDecoder {
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+    // Last vector size seen, used to allocate each array at its final size up front
+    private final AtomicInteger lastDimension = new AtomicInteger(768);
+
+    // OpenAI: {"data":[{"index":0,"embedding":[...]}, ...], "usage":{...}}
+    public List<float[]> decodeOpenAI(InputStream body, int expectedCount) throws IOException {
+        return decodeOpenAI(body, expectedCount, promptTokens -> { });
+    }
+
+    // Same, also handing usage.prompt_tokens to onPromptTokens when the response has it
+    public List<float[]> decodeOpenAI(InputStream body, int expectedCount, LongConsumer onPromptTokens) throws IOException {
+        float[][] ordered = new float[expectedCount][];
+        List<float[]> unindexed = new ArrayList<>();
+
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("data".equals(field) && parser.currentToken() == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        int index = -1;
+                        float[] embedding = null;
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String itemField = parser.currentName();
+                            parser.nextToken();
+                            if ("index".equals(itemField)) {
+                                index = parser.getIntValue();
+                            } else if ("embedding".equals(itemField)) {
+                                embedding = readFloatArray(parser);
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                        if (embedding == null) {
+                            throw new IOException("OpenAI embedding item without 'embedding' field");
+                        }
+                        if (index >= 0 && index < expectedCount && ordered[index] == null) {
+                            ordered[index] = embedding;
+                        } else {
+                            unindexed.add(embedding);
+                        }
+                    }
+                } else if ("usage".equals(field) && parser.currentToken() == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String usageField = parser.currentName();
+                        parser.nextToken();
+                        if ("prompt_tokens".equals(usageField)) {
+                            onPromptTokens.accept(parser.getLongValue());
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        List<float[]> embeddings = new ArrayList<>(expectedCount);
+        int next = 0;
+        for (float[] embedding : ordered) {
+            embeddings.add(embedding != null ? embedding : (next < unindexed.size() ? unindexed.get(next++) : null));
+        }
+        if (embeddings.contains(null)) {
+            throw new IOException("OpenAI response returned fewer embeddings than requested (" + expectedCount + ")");
+        }
+        return embeddings;
+    }
+
+    // Gemini batchEmbedContents: {"embeddings":[{"values":[...]}, ...]}
+    public List<float[]> decodeGemini(InputStream body, int expectedCount) throws IOException {
+        List<float[]> embeddings = new ArrayList<>(expectedCount);
+
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("embeddings".equals(field) && parser.currentToken() == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        float[] embedding = null;
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String itemField = parser.currentName();
+                            parser.nextToken();
+                            if ("values".equals(itemField)) {
+                                embedding = readFloatArray(parser);
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                        if (embedding == null) {
+                            throw new IOException("Gemini embedding without 'values' field");
+                        }
+                        embeddings.add(embedding);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        if (embeddings.size() != expectedCount) {
+            throw new IOException("Gemini response returned " + embeddings.size() + " embeddings, expected " + expectedCount);
+        }
+        return embeddings;
+    }
+
+    // Parser is positioned on START_ARRAY; leaves it on the matching END_ARRAY
+    private float[] readFloatArray(JsonParser parser) throws IOException {
+        expect(parser.currentToken(), JsonToken.START_ARRAY);
+        float[] values = new float[lastDimension.get()];
+        int size = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.VALUE_NUMBER_FLOAT && token != JsonToken.VALUE_NUMBER_INT) {
+                throw new IOException("Unexpected token in embedding array: " + token);
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.max(16, values.length * 2));
+            }
+            values[size++] = parseFloat(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+        }
+        if (size > 0) {
+            lastDimension.set(size);
+        }
+        return size == values.length ? values : Arrays.copyOf(values, size);
+    }
+
+    // Parses a JSON number straight from the parser's character buffer. JsonParser.getFloatValue()
+    // materialises a String per number, which costs more than the values themselves.
+    static float parseFloat(char[] chars, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        boolean negative = false;
+        if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+            negative = chars[i] == '-';
+            i++;
+        }
+
+        long significand = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean seenPoint = false;
+        for (; i < end; i++) {
+            char c = chars[i];
+            if (c >= '0' && c <= '9') {
+                significand = significand * 10 + (c - '0');
+                // Leading zeros are not significant; past MAX_EXACT_DIGITS the significand stops being exact
+                if (significand != 0 && ++digits > MAX_EXACT_DIGITS) {
+                    return Float.parseFloat(new String(chars, offset, length));
+                }
+                if (seenPoint) {
+                    exponent--;
+                }
+            } else if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else if (c == 'e' || c == 'E') {
+                break;
+            } else {
+                return Float.parseFloat(new String(chars, offset, length));
+            }
+        }
+        if (i < end) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+                negativeExponent = chars[i] == '-';
+                i++;
+            }
+            int explicit = 0;
+            for (; i < end; i++) {
+                char c = chars[i];
+                if (c < '0' || c > '9' || explicit > 1000) {
+                    return Float.parseFloat(new String(chars, offset, length));
+                }
+                explicit = explicit * 10 + (c - '0');
+            }
+            exponent += negativeExponent ? -explicit : explicit;
+        }
+
+        if (exponent < -POWERS_OF_TEN.length + 1 || exponent > POWERS_OF_TEN.length - 1) {
+            return Float.parseFloat(new String(chars, offset, length));
+        }
+        // Clinger's fast path: the significand (< 10^15 < 2^53) and 10^|exponent| (<= 10^22) are exact doubles,
+        // so one multiply or divide yields the correctly rounded double
+        double value = exponent >= 0 ? significand * POWERS_OF_TEN[exponent] : significand / POWERS_OF_TEN[-exponent];
+
+        // Narrowing to float rounds a second time. Float halfway points are exact doubles and rounding is
+        // monotonic, so the decimal and the double always fall between the same two halfway points, unless
+        // the double is a halfway point itself. That case, and the subnormal and overflow ranges where the
+        // halfway bit sits elsewhere, go to Float.parseFloat.
+        if (value != 0 && (value < Float.MIN_NORMAL || value > Float.MAX_VALUE
+                || (Double.doubleToRawLongBits(value) & FLOAT_DROPPED_BITS) == FLOAT_HALFWAY)) {
+            return Float.parseFloat(new String(chars, offset, length));
+        }
+        return (float) (negative ? -value : value);
+    }
+
+    // 10^15 < 2^53, so up to 15 significant digits accumulate exactly
+    private static final int MAX_EXACT_DIGITS = 15;
+    // A double has 29 more fraction bits than a float; a double exactly halfway between two floats has
+    // those bits set to 1000...0
+    private static final long FLOAT_DROPPED_BITS = (1L << 29) - 1;
+    private static final long FLOAT_HALFWAY = 1L << 28;
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private static void expect(JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("Invalid embedding response: expected " + expected + " but found " + actual);
+        }
+    }
+}
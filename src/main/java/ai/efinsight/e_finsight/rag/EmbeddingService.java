@@ -1,8 +1,13 @@
 package ai.efinsight.e_finsight.rag;
 
 import ai.efinsight.e_finsight.llm.LLMConfig;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import ai.efinsight.e_finsight.llm.ProviderEndpoint;
+import ai.efinsight.e_finsight.llm.ProviderRegistry;
+import ai.efinsight.e_finsight.llm.TokenEstimator;
+import ai.efinsight.e_finsight.llm.TokenUsage;
+import ai.efinsight.e_finsight.llm.UsageMeter;
+import ai.efinsight.e_finsight.resilience.CircuitBreakerOpenException;
+import ai.efinsight.e_finsight.resilience.RetryPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.*;
@@ -10,167 +15,398 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 public class EmbeddingService {
     private static final Logger log = LoggerFactory.getLogger(EmbeddingService.class);
 
+    private static final String NATIVE_DIMENSION_PROBE = "embedding dimension probe";
+
+    public static final String TASK_RETRIEVAL_DOCUMENT = "RETRIEVAL_DOCUMENT";
+
     private final LLMConfig config;
-    private final RestTemplate restTemplate = new RestTemplate();
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ProviderRegistry providers;
+    private final EmbeddingCache embeddingCache;
+    private final EmbeddingResponseDecoder responseDecoder;
+    private final EmbeddingExecutor embeddingExecutor;
+    private final LocalEmbeddingModel localEmbeddingModel;
+    private final UsageMeter usageMeter;
+    private final RestTemplate restTemplate;
+    // Untruncated output size of the embedding model, learned on first use
+    private volatile Integer nativeDimension;
 
-    public EmbeddingService(LLMConfig config) {
+    public EmbeddingService(LLMConfig config, ProviderRegistry providers, EmbeddingCache embeddingCache,
+                            EmbeddingResponseDecoder responseDecoder, EmbeddingExecutor embeddingExecutor,
+                            LocalEmbeddingModel localEmbeddingModel, UsageMeter usageMeter, RestTemplate restTemplate) {
         this.config = config;
+        this.providers = providers;
+        this.embeddingCache = embeddingCache;
+        this.responseDecoder = responseDecoder;
+        this.embeddingExecutor = embeddingExecutor;
+        this.localEmbeddingModel = localEmbeddingModel;
+        this.usageMeter = usageMeter;
+        this.restTemplate = restTemplate;
     }
 
     public float[] generateEmbedding(String text) {
+        return generateEmbedding(null, text);
+    }
+
+    // userId attributes the provider's token usage; null when the text is not embedded for one user
+    public float[] generateEmbedding(Long userId, String text) {
         List<String> texts = new ArrayList<>();
         texts.add(text);
         // Generate embeddings for the list of texts
-        List<float[]> embeddings = generateEmbeddings(texts);
+        List<float[]> embeddings = generateEmbeddings(userId, texts);
         // If the embeddings are empty, return null
         return embeddings.isEmpty() ? null : embeddings.get(0);
     }
 
     // Generate embeddings for a list of texts- using either OpenAI or Gemini
+    // Texts already embedded with the same model and task type are served from the embedding cache
     public List<float[]> generateEmbeddings(List<String> texts) {
+        return generateEmbeddings(null, texts);
+    }
+
+    public List<float[]> generateEmbeddings(Long userId, List<String> texts) {
         if (texts == null || texts.isEmpty()) {
             return new ArrayList<>();
         }
 
+        // Local embeddings are cheaper to compute than to look up, so they bypass the cache and rate limits
+        if (isLocal()) {
+            return localEmbeddingModel.embed(texts, localDimension());
+        }
+
+        String model = cacheModelKey();
+        String taskType = TASK_RETRIEVAL_DOCUMENT;
+
+        List<String> keys = new ArrayList<>(texts.size());
+        Map<String, String> textsByKey = new LinkedHashMap<>();
+        for (String text : texts) {
+            String key = EmbeddingCache.key(model, taskType, text);
+            keys.add(key);
+            textsByKey.putIfAbsent(key, text);
+        }
+
+        Map<String, float[]> embeddingsByKey = embeddingCache.getAll(textsByKey.keySet());
+
+        // Embed all distinct misses together so they share provider batches
+        List<String> missKeys = new ArrayList<>();
+        List<String> missTexts = new ArrayList<>();
+        for (Map.Entry<String, String> entry : textsByKey.entrySet()) {
+            if (!embeddingsByKey.containsKey(entry.getKey())) {
+                missKeys.add(entry.getKey());
+                missTexts.add(entry.getValue());
+            }
+        }
+
+        if (!missTexts.isEmpty()) {
+            List<float[]> generated = generateUncachedEmbeddings(userId, missTexts);
+            Map<String, float[]> generatedByKey = new HashMap<>();
+            for (int i = 0; i < generated.size(); i++) {
+                generatedByKey.put(missKeys.get(i), generated.get(i));
+            }
+            embeddingCache.putAll(model, taskType, generatedByKey);
+            embeddingsByKey.putAll(generatedByKey);
+        }
+        log.debug("Embedding request for {} texts: {} served from cache, {} generated",
+            texts.size(), textsByKey.size() - missTexts.size(), missTexts.size());
+
+        List<float[]> embeddings = new ArrayList<>(texts.size());
+        for (String key : keys) {
+            embeddings.add(embeddingsByKey.get(key));
+        }
+        return embeddings;
+    }
+
+    // Seed the cache with vectors produced elsewhere (batch backfill) for the current model
+    public void cacheEmbeddings(List<String> texts, List<float[]> embeddings) {
+        if (isLocal()) {
+            return;
+        }
+        String model = cacheModelKey();
+        Map<String, float[]> embeddingsByKey = new HashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            if (texts.get(i) != null && embeddings.get(i) != null) {
+                embeddingsByKey.put(EmbeddingCache.key(model, TASK_RETRIEVAL_DOCUMENT, texts.get(i)), embeddings.get(i));
+            }
+        }
+        embeddingCache.putAll(model, TASK_RETRIEVAL_DOCUMENT, embeddingsByKey);
+    }
+
+    // Provider, model and requested dimension that produced the vectors; part of the cache key so they never mix.
+    // Every endpoint used for embeddings shares the primary endpoint's provider and model, so one key covers them.
+    private String cacheModelKey() {
+        Integer dimension = getTargetDimension();
+        return providers.primaryEmbeddingEndpoint().embeddingAffinityKey() + (dimension != null ? "@" + dimension : "");
+    }
+
+    // llm.provider=local, or a "local..." embedding model (keeps a remote provider for chat)
+    public boolean isLocal() {
+        ProviderEndpoint primary = providers.primaryEmbeddingEndpoint();
+        return "local".equalsIgnoreCase(primary.getProvider())
+            || (primary.getEmbeddingModel() != null && primary.getEmbeddingModel().toLowerCase().startsWith("local"));
+    }
+
+    private int localDimension() {
+        Integer dimension = getTargetDimension();
+        return dimension != null ? dimension : LocalEmbeddingModel.DEFAULT_DIMENSION;
+    }
+
+    // Length of the vectors this configuration produces, or null when it is the provider's native size
+    public Integer getEmbeddingDimension() {
+        return isLocal() ? Integer.valueOf(localDimension()) : getTargetDimension();
+    }
+
+    // Length of the vectors this configuration stores. With no target dimension that is the model's native
+    // size, learned from one probe embedding (served from the embedding cache after the first time).
+    public int getStoredDimension() {
+        Integer dimension = getEmbeddingDimension();
+        if (dimension != null) {
+            return dimension;
+        }
+        Integer known = nativeDimension;
+        if (known == null) {
+            float[] probe = generateEmbedding(NATIVE_DIMENSION_PROBE);
+            if (probe == null) {
+                throw new IllegalStateException("Embedding provider returned no vector for the dimension probe");
+            }
+            known = probe.length;
+            nativeDimension = known;
+        }
+        return known;
+    }
+
+    // Back-pressure signals for bulk callers: how many requests the embedding endpoints currently accept
+    // together, and whether any of them is accepting requests at all (circuit breaker not open)
+    public int getProviderConcurrencyLimit() {
+        if (isLocal()) {
+            return Integer.MAX_VALUE;
+        }
+        int limit = 0;
+        for (ProviderEndpoint endpoint : providers.candidates(ProviderRegistry.Kind.EMBEDDING)) {
+            limit += embeddingExecutor.getConcurrencyLimit(endpoint.getName());
+        }
+        return limit;
+    }
+
+    public boolean isProviderAvailable() {
+        return isLocal() || providers.candidates(ProviderRegistry.Kind.EMBEDDING).stream()
+            .anyMatch(endpoint -> embeddingExecutor.isAvailable(endpoint.getName()));
+    }
+
+    // Configured llm.embedding-dimension, or null to use the model's full output size
+    public Integer getTargetDimension() {
+        Integer dimension = config.getEmbeddingDimension();
+        return dimension != null && dimension > 0 ? dimension : null;
+    }
+
+    // Truncated embeddings are no longer unit length (Gemini only normalises the full 3072-d output),
+    // so every reduced vector is cut to the target size and L2-normalised again
+    public static float[] truncateAndNormalize(float[] embedding, int dimension) {
+        float[] truncated = embedding.length > dimension ? Arrays.copyOf(embedding, dimension) : embedding.clone();
+        double norm = 0.0;
+        for (float value : truncated) {
+            norm += value * value;
+        }
+        if (norm > 0.0) {
+            float scale = (float) (1.0 / Math.sqrt(norm));
+            for (int i = 0; i < truncated.length; i++) {
+                truncated[i] *= scale;
+            }
+        }
+        return truncated;
+    }
+
+    private List<float[]> applyTargetDimension(List<float[]> embeddings) {
+        Integer dimension = getTargetDimension();
+        if (dimension == null) {
+            return embeddings;
+        }
+        List<float[]> reduced = new ArrayList<>(embeddings.size());
+        for (float[] embedding : embeddings) {
+            reduced.add(truncateAndNormalize(embedding, dimension));
+        }
+        return reduced;
+    }
+
+    // Texts are sent in batches of at most llm.embedding-batch-size; batches run concurrently
+    // within the provider's limits and are merged back in order
+    private List<float[]> generateUncachedEmbeddings(Long userId, List<String> texts) {
+        int batchSize = Math.max(1, config.getEmbeddingBatchSize());
+        List<List<String>> batches = new ArrayList<>();
+        for (int start = 0; start < texts.size(); start += batchSize) {
+            batches.add(texts.subList(start, Math.min(start + batchSize, texts.size())));
+        }
+
+        List<List<float[]>> results = embeddingExecutor.mapOrdered(batches, batch -> embedWithFailover(userId, batch));
+
+        List<float[]> embeddings = new ArrayList<>(texts.size());
+        for (List<float[]> result : results) {
+            embeddings.addAll(result);
+        }
+        return embeddings;
+    }
+
+    // Each endpoint has its own limits, retries and circuit breaker in EmbeddingExecutor. When an endpoint
+    // is overloaded past its retries, or its breaker is open, the batch moves on to the next endpoint
+    // serving the same model; other failures are not the endpoint's fault and are rethrown.
+    private List<float[]> embedWithFailover(Long userId, List<String> batch) {
+        int estimatedTokens = EmbeddingExecutor.estimateTokens(batch);
+        List<ProviderEndpoint> candidates = providers.candidates(ProviderRegistry.Kind.EMBEDDING);
+        RuntimeException failure = null;
+        for (ProviderEndpoint endpoint : candidates) {
+            if (failure != null) {
+                log.warn("Embedding endpoint failed: {}. Failing over to {}", failure.getMessage(), endpoint.getName());
+            }
+            try {
+                return embeddingExecutor.callProvider(endpoint.getName(), estimatedTokens,
+                    () -> applyTargetDimension(generateEmbeddingBatch(userId, endpoint, batch)));
+            } catch (CircuitBreakerOpenException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                if (!RetryPolicy.isRetryable(e)) {
+                    throw e;
+                }
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    private List<float[]> generateEmbeddingBatch(Long userId, ProviderEndpoint endpoint, List<String> texts) {
+        long start = System.nanoTime();
         try {
-            if ("openai".equalsIgnoreCase(config.getProvider())) {
-                return generateOpenAIEmbeddings(texts);
-            } else if ("gemini".equalsIgnoreCase(config.getProvider())) {
-                return generateGeminiEmbeddings(texts);
+            List<float[]> embeddings;
+            TokenUsage usage;
+            if (endpoint.isOpenAI()) {
+                AtomicLong promptTokens = new AtomicLong(-1);
+                embeddings = generateOpenAIEmbeddings(endpoint, texts, promptTokens);
+                usage = promptTokens.get() >= 0 ? new TokenUsage(promptTokens.get(), 0, 0, false) : estimatedUsage(endpoint, texts);
+            } else if (endpoint.isGemini()) {
+                embeddings = generateGeminiEmbeddings(endpoint, texts);
+                // batchEmbedContents reports no usage
+                usage = estimatedUsage(endpoint, texts);
             } else {
-                throw new RuntimeException("Unsupported LLM provider: " + config.getProvider());
+                throw new RuntimeException("Unsupported LLM provider: " + endpoint.getProvider());
             }
+            providers.onSuccess(endpoint, ProviderRegistry.Kind.EMBEDDING, System.nanoTime() - start);
+            usageMeter.record(UsageMeter.EMBEDDING, userId, null, endpoint, endpoint.resolvedEmbeddingModel(), usage);
+            return embeddings;
         } catch (Exception e) {
+            if (RetryPolicy.isRetryable(e)) {
+                providers.onFailure(endpoint, ProviderRegistry.Kind.EMBEDDING);
+            }
             log.error("Error generating embeddings", e);
             throw new RuntimeException("Failed to generate embeddings: " + e.getMessage(), e);
         }
     }
 
-    private List<float[]> generateOpenAIEmbeddings(List<String> texts) {
-        String url = (config.getOpenaiApiUrl() != null ? config.getOpenaiApiUrl() : "https://api.openai.com/v1") + "/embeddings";
-        String model = config.getEmbeddingModel() != null ? config.getEmbeddingModel() : "text-embedding-3-small";
+    private TokenUsage estimatedUsage(ProviderEndpoint endpoint, List<String> texts) {
+        TokenEstimator.Tokenizer tokenizer = TokenEstimator.tokenizerFor(endpoint.getProvider());
+        long tokens = 0;
+        for (String text : texts) {
+            tokens += TokenEstimator.estimate(text, tokenizer);
+        }
+        return new TokenUsage(tokens, 0, 0, true);
+    }
+
+    private List<float[]> generateOpenAIEmbeddings(ProviderEndpoint endpoint, List<String> texts, AtomicLong promptTokens) {
+        String url = endpoint.resolvedBaseUrl() + "/embeddings";
+        String model = endpoint.resolvedEmbeddingModel();
 
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setBearerAuth(config.getApiKey());
+        headers.setBearerAuth(endpoint.getApiKey());
 
         Map<String, Object> body = new HashMap<>();
         body.put("model", model);
         body.put("input", texts);
+        if (getTargetDimension() != null) {
+            // Supported by text-embedding-3-* models
+            body.put("dimensions", getTargetDimension());
+        }
 
         HttpEntity<Map<String, Object>> request = new HttpEntity<>(body, headers);
 
         try {
-            ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.POST, request, String.class);
-
-            if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-                JsonNode jsonNode = objectMapper.readTree(response.getBody());
-                JsonNode data = jsonNode.get("data");
-                
-                List<float[]> embeddings = new ArrayList<>();
-                for (JsonNode item : data) {
-                    JsonNode embedding = item.get("embedding");
-                    float[] embeddingArray = new float[embedding.size()];
-                    for (int i = 0; i < embedding.size(); i++) {
-                        embeddingArray[i] = (float) embedding.get(i).asDouble();
-                    }
-                    embeddings.add(embeddingArray);
+            List<float[]> embeddings = restTemplate.execute(url, HttpMethod.POST, restTemplate.httpEntityCallback(request), response -> {
+                if (response.getStatusCode() != HttpStatus.OK) {
+                    throw new RuntimeException("OpenAI API returned: " + response.getStatusCode());
                 }
-                
-                log.info("Generated {} embeddings using OpenAI", embeddings.size());
-                return embeddings;
-            } else {
-                throw new RuntimeException("OpenAI API returned: " + response.getStatusCode());
-            }
+                return responseDecoder.decodeOpenAI(response.getBody(), texts.size(), promptTokens::set);
+            });
+
+            log.info("Generated {} embeddings using OpenAI", embeddings.size());
+            return embeddings;
         } catch (Exception e) {
             log.error("Error calling OpenAI embeddings API", e);
             throw new RuntimeException("Failed to generate OpenAI embeddings: " + e.getMessage(), e);
         }
     }
 
-    private List<float[]> generateGeminiEmbeddings(List<String> texts) {
-        String baseUrl = config.getGeminiApiUrl() != null 
-            ? config.getGeminiApiUrl() 
-            : "https://generativelanguage.googleapis.com/v1beta";
+    private List<float[]> generateGeminiEmbeddings(ProviderEndpoint endpoint, List<String> texts) {
+        String baseUrl = endpoint.resolvedBaseUrl();
         
-        String embeddingModel = config.getEmbeddingModel() != null 
-            ? config.getEmbeddingModel() 
-            : "text-embedding-004";
+        String embeddingModel = endpoint.resolvedEmbeddingModel();
         
         String apiUrl = baseUrl;
         if (baseUrl.contains("/v1") && !baseUrl.contains("v1beta")) {
             apiUrl = baseUrl.replace("/v1", "/v1beta");
         }
         
-        String url = apiUrl + "/models/" + embeddingModel + ":embedContent";
+        String url = apiUrl + "/models/" + embeddingModel + ":batchEmbedContents";
 
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
 
-        List<float[]> embeddings = new ArrayList<>();
-        
+        // Gemini batch embedding API format: one embedContent request per text
+        List<Map<String, Object>> requests = new ArrayList<>(texts.size());
         for (String text : texts) {
-            try {
-                // Gemini embedding API format
-                Map<String, Object> body = new HashMap<>();
-                Map<String, Object> content = new HashMap<>();
-                List<Map<String, String>> parts = new ArrayList<>();
-                Map<String, String> part = new HashMap<>();
-                part.put("text", text);
-                parts.add(part);
-                content.put("parts", parts);
-                body.put("model", "models/" + embeddingModel);
-                body.put("content", content);
-                body.put("taskType", "RETRIEVAL_DOCUMENT"); // Optional but recommended
-
-                String fullUrl = url + "?key=" + config.getApiKey();
-                log.debug("Calling Gemini embedding API: {} with model: {}", fullUrl, embeddingModel);
-                HttpEntity<Map<String, Object>> request = new HttpEntity<>(body, headers);
-
-                ResponseEntity<String> response = restTemplate.exchange(fullUrl, HttpMethod.POST, request, String.class);
-
-                if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-                    JsonNode jsonNode = objectMapper.readTree(response.getBody());
-                    
-                    if (jsonNode.has("embedding") && jsonNode.get("embedding").has("values")) {
-                        JsonNode embedding = jsonNode.get("embedding").get("values");
-                        
-                        float[] embeddingArray = new float[embedding.size()];
-                        for (int i = 0; i < embedding.size(); i++) {
-                            embeddingArray[i] = (float) embedding.get(i).asDouble();
-                        }
-                        embeddings.add(embeddingArray);
-                        log.debug("Successfully generated embedding (dimension: {})", embeddingArray.length);
-                    } else {
-                        log.error("Gemini API response missing embedding field. Response: {}", response.getBody());
-                        throw new RuntimeException("Invalid response structure from Gemini API");
-                    }
-                } else {
-                    log.error("Gemini API returned: {} for text: {}. Response body: {}", 
-                        response.getStatusCode(), 
-                        text.substring(0, Math.min(50, text.length())),
-                        response.getBody());
-                    throw new RuntimeException("Gemini API returned status: " + response.getStatusCode());
-                }
-            } catch (Exception e) {
-                log.error("Error generating embedding for text: {}. Error: {}", 
-                    text.substring(0, Math.min(100, text.length())), 
-                    e.getMessage(), e);
-                throw new RuntimeException("Failed to generate embedding: " + e.getMessage(), e);
+            Map<String, Object> embedRequest = new HashMap<>();
+            Map<String, Object> content = new HashMap<>();
+            List<Map<String, String>> parts = new ArrayList<>();
+            Map<String, String> part = new HashMap<>();
+            part.put("text", text);
+            parts.add(part);
+            content.put("parts", parts);
+            embedRequest.put("model", "models/" + embeddingModel);
+            embedRequest.put("content", content);
+            embedRequest.put("taskType", TASK_RETRIEVAL_DOCUMENT); // Optional but recommended
+            if (getTargetDimension() != null) {
+                embedRequest.put("outputDimensionality", getTargetDimension());
             }
+            requests.add(embedRequest);
         }
+        Map<String, Object> body = new HashMap<>();
+        body.put("requests", requests);
 
-        log.info("Generated {} embeddings using Gemini", embeddings.size());
-        return embeddings;
+        try {
+            String fullUrl = url + "?key=" + endpoint.getApiKey();
+            log.debug("Calling Gemini batch embedding API with model: {} ({} texts)", embeddingModel, texts.size());
+            HttpEntity<Map<String, Object>> request = new HttpEntity<>(body, headers);
+
+            List<float[]> embeddings = restTemplate.execute(fullUrl, HttpMethod.POST, restTemplate.httpEntityCallback(request), response -> {
+                if (response.getStatusCode() != HttpStatus.OK) {
+                    log.error("Gemini API returned: {} for {} texts", response.getStatusCode(), texts.size());
+                    throw new RuntimeException("Gemini API returned status: " + response.getStatusCode());
+                }
+                return responseDecoder.decodeGemini(response.getBody(), texts.size());
+            });
+
+            log.info("Generated {} embeddings using Gemini", embeddings.size());
+            return embeddings;
+        } catch (Exception e) {
+            log.error("Error generating Gemini embeddings for {} texts. Error: {}", texts.size(), e.getMessage(), e);
+            throw new RuntimeException("Failed to generate embedding: " + e.getMessage(), e);
+        }
     }
 
     public String embeddingToString(float[] embedding) {
@@ -0,0 +1,100 @@
+package ai.efinsight.e_finsight.rag;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Deterministic in-process embeddings for offline use (load tests, CI, provider outages).
+ * Words and their character trigrams are feature-hashed into a signed vector, which is then
+ * L2-normalised, so texts sharing merchants, categories or word fragments score close together.
+ * No network, no state: the same text always maps to the same vector.
+ */
+@Component
+public class LocalEmbeddingModel {
+
+    public static final int DEFAULT_DIMENSION = 384;
+
+    private static final float WORD_WEIGHT = 1.0f;
+    private static final float TRIGRAM_WEIGHT = 0.5f;
+
+    public List<float[]> embed(List<String> texts, int dimension) {
+        List<float[]> embeddings = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            embeddings.add(embed(text, dimension));
+        }
+        return embeddings;
+    }
+
+    public float[] embed(String text, int dimension) {
+        float[] vector = new float[dimension];
+        if (text == null) {
+            return vector;
+        }
+
+        String lower = text.toLowerCase(Locale.ROOT);
+        int length = lower.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean wordChar = i < length && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                addWord(vector, lower, start, i);
+                start = -1;
+            }
+        }
+
+        double norm = 0.0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm > 0.0) {
+            float scale = (float) (1.0 / Math.sqrt(norm));
+            for (int i = 0; i < dimension; i++) {
+                vector[i] *= scale;
+            }
+        }
+        return vector;
+    }
+
+    private void addWord(float[] vector, String text, int start, int end) {
+        add(vector, hash(text, start, end, 'w'), WORD_WEIGHT);
+
+        // Trigrams of "#word#" so prefixes and suffixes are features too
+        int padded = end - start + 2;
+        for (int i = 0; i + 3 <= padded; i++) {
+            long h = 0xcbf29ce484222325L ^ 't';
+            for (int j = i; j < i + 3; j++) {
+                int k = start + j - 1;
+                char c = (k < start || k >= end) ? '#' : text.charAt(k);
+                h = (h ^ c) * 0x100000001b3L;
+            }
+            add(vector, mix(h), TRIGRAM_WEIGHT);
+        }
+    }
+
+    // The low bits pick the bucket, the top bit the sign, so collisions cancel out on average
+    private static void add(float[] vector, long hash, float weight) {
+        int bucket = (int) Math.floorMod(hash, (long) vector.length);
+        vector[bucket] += hash < 0 ? -weight : weight;
+    }
+
+    // FNV-1a over the characters, seeded by feature type
+    private static long hash(String text, int start, int end, char type) {
+        long h = 0xcbf29ce484222325L ^ type;
+        for (int i = start; i < end; i++) {
+            h = (h ^ text.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
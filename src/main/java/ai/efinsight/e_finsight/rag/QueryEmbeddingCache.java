@@ -0,0 +1,143 @@
+package ai.efinsight.e_finsight.rag;
+
+import ai.efinsight.e_finsight.llm.LLMConfig;
+import ai.efinsight.e_finsight.util.SingleFlight;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Short-lived cache of query embeddings. One plan request embeds the same question in the
+ * coordinator and in every agent; identical (normalised) queries are embedded once, and
+ * concurrent requests for the same query share a single provider call.
+ */
+@Component
+public class QueryEmbeddingCache implements CacheStats {
+
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final Map<String, Entry> entries;
+    private final SingleFlight<String, float[]> singleFlight = new SingleFlight<>();
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public QueryEmbeddingCache(LLMConfig config, MeterRegistry meterRegistry) {
+        this.ttlMillis = config.getQueryEmbeddingCacheTtlSeconds() * 1000L;
+        this.maxEntries = Math.max(1, config.getQueryEmbeddingCacheMaxEntries());
+        this.entries = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.hits = meterRegistry.counter("rag.query_embedding.cache", "result", "hit");
+        this.misses = meterRegistry.counter("rag.query_embedding.cache", "result", "miss");
+        FunctionCounter.builder("rag.query_embedding.cache", singleFlight, SingleFlight::getSharedCount)
+            .tag("result", "coalesced")
+            .register(meterRegistry);
+    }
+
+    public float[] get(String query, Function<String, float[]> loader) {
+        String key = normalize(query);
+        float[] cached = lookup(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+
+        return singleFlight.execute(key, () -> {
+            // Re-check: another caller may have finished loading between our lookup and the single-flight
+            float[] loaded = lookup(key);
+            if (loaded != null) {
+                hits.increment();
+                return loaded;
+            }
+            misses.increment();
+            loaded = loader.apply(query);
+            if (loaded != null) {
+                store(key, loaded);
+            }
+            return loaded;
+        });
+    }
+
+    // Case and whitespace differences do not change what the user is asking
+    static String normalize(String query) {
+        return query == null ? "" : query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private float[] lookup(String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt < System.currentTimeMillis()) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.embedding;
+        }
+    }
+
+    private void store(String key, float[] embedding) {
+        synchronized (entries) {
+            entries.put(key, new Entry(embedding, System.currentTimeMillis() + ttlMillis));
+        }
+    }
+
+    @Override
+    public String getCacheName() {
+        return "query-embedding";
+    }
+
+    @Override
+    public long getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        // Callers that joined an in-flight load were also served without their own provider call
+        return (long) hits.count() + singleFlight.getSharedCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return (long) misses.count();
+    }
+
+    public long getCoalescedCount() {
+        return singleFlight.getSharedCount();
+    }
+
+    @Override
+    public long getEstimatedBytes() {
+        synchronized (entries) {
+            long bytes = 0;
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                bytes += 64 + 40 + entry.getKey().length() + 16 + 4L * entry.getValue().embedding.length;
+            }
+            return bytes;
+        }
+    }
+
+    private static class Entry {
+        final float[] embedding;
+        final long expiresAt;
+
+        Entry(float[] embedding, long expiresAt) {
+            this.embedding = embedding;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
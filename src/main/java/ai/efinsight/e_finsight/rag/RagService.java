@@ -13,19 +13,33 @@ import java.util.stream.Collectors;
 public class RagService {
     private static final Logger log = LoggerFactory.getLogger(RagService.class);
 
+    public static final String CONTEXT_HEADER = "Relevant transaction context:\n\n";
+    public static final String NO_CONTEXT = "No relevant transaction data found.";
+
     private final EmbeddingService embeddingService;
     private final VectorStoreService vectorStoreService;
+    private final QueryEmbeddingCache queryEmbeddingCache;
 
-    public RagService(EmbeddingService embeddingService, VectorStoreService vectorStoreService) {
+    public RagService(
+            EmbeddingService embeddingService,
+            VectorStoreService vectorStoreService,
+            QueryEmbeddingCache queryEmbeddingCache) {
         this.embeddingService = embeddingService;
         this.vectorStoreService = vectorStoreService;
+        this.queryEmbeddingCache = queryEmbeddingCache;
+    }
+
+    // Embed a query, reusing a recent embedding of the same (normalised) query when available.
+    // A cache miss is billed to userId.
+    public float[] embedQuery(Long userId, String query) {
+        return queryEmbeddingCache.get(query, text -> embeddingService.generateEmbedding(userId, text));
     }
 
     public List<RagContext> retrieveContext(Long userId, String query, int topK) {
         log.info("Retrieving context for query: '{}' (user: {}, topK: {})", query, userId, topK);
 
         try {
-            float[] queryEmbedding = embeddingService.generateEmbedding(query);
+            float[] queryEmbedding = embedQuery(userId, query);
             if (queryEmbedding == null) {
                 log.warn("Failed to generate embedding for query");
                 return new ArrayList<>();
@@ -34,12 +48,7 @@ public class RagService {
             List<TransactionChunk> similarChunks = vectorStoreService.searchSimilar(userId, queryEmbedding, topK);
 
             List<RagContext> contexts = similarChunks.stream()
-                    .map(chunk -> new RagContext(
-                            chunk.getChunkText(),
-                            chunk.getTransactionId(),
-                            chunk.getId(),
-                            "transaction"
-                    ))
+                    .map(RagService::toContext)
                     .collect(Collectors.toList());
 
             log.info("Retrieved {} relevant chunks for query", contexts.size());
@@ -50,20 +59,40 @@ public class RagService {
         }
     }
 
+    // Scored search for an already-embedded query; callers that share one retrieval re-rank the scores locally
+    public List<VectorStoreService.ChunkSimilarity> searchWithScores(Long userId, float[] queryEmbedding, int topK) {
+        if (queryEmbedding == null) {
+            return new ArrayList<>();
+        }
+        try {
+            return vectorStoreService.searchSimilarWithScores(userId, queryEmbedding, topK);
+        } catch (Exception e) {
+            log.error("Error searching similar chunks for user: {}", userId, e);
+            return new ArrayList<>();
+        }
+    }
+
+    public static RagContext toContext(TransactionChunk chunk) {
+        return new RagContext(chunk.getChunkText(), chunk.getTransactionId(), chunk.getId(), "transaction");
+    }
+
     public String buildContextString(List<RagContext> contexts) {
         if (contexts == null || contexts.isEmpty()) {
-            return "No relevant transaction data found.";
+            return NO_CONTEXT;
         }
 
-        StringBuilder sb = new StringBuilder("Relevant transaction context:\n\n");
+        StringBuilder sb = new StringBuilder(CONTEXT_HEADER);
         for (int i = 0; i < contexts.size(); i++) {
-            RagContext ctx = contexts.get(i);
-            sb.append(String.format("[%d] %s (Source: %s, ID: %d)\n", 
-                i + 1, ctx.text, ctx.source, ctx.sourceId));
+            sb.append(formatContextLine(i + 1, contexts.get(i)));
         }
         return sb.toString();
     }
 
+    // "[n] text (Source: s, ID: id)" - shared with PromptBuilder so budgeted prompts look the same
+    public static String formatContextLine(int position, RagContext ctx) {
+        return "[" + position + "] " + ctx.text + " (Source: " + ctx.source + ", ID: " + ctx.sourceId + ")\n";
+    }
+
     public static class RagContext {
         public final String text;
         public final Long sourceId;
@@ -0,0 +1,236 @@
+package ai.efinsight.e_finsight.rag;
+
+import ai.efinsight.e_finsight.model.TransactionChunk;
+import ai.efinsight.e_finsight.repository.TransactionChunkRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-user retrieval diagnostics: recent search latencies, routing decisions, chunk counts and cache usage.
+ */
+@Service
+public class RetrievalStatsService {
+    private static final Logger log = LoggerFactory.getLogger(RetrievalStatsService.class);
+
+    // Number of recent searches kept per user for the latency histogram
+    private static final int RECENT_SEARCHES = 256;
+    // Users whose recent searches are kept; the least recently active user is dropped beyond this
+    private static final int MAX_TRACKED_USERS = 4096;
+    // Upper bounds (ms) of the latency histogram buckets; the last bucket is open-ended
+    private static final long[] BUCKET_BOUNDS_MS = { 5, 10, 25, 50, 100, 250, 500, 1000, 2500 };
+
+    public static final String ROUTE_VERTEX = "vertex";
+    public static final String ROUTE_POSTGRES = "postgres";
+    public static final String ROUTE_POSTGRES_FALLBACK = "postgres-fallback";
+
+    private final TransactionChunkRepository chunkRepository;
+    private final EmbeddingService embeddingService;
+    private final ObjectProvider<CacheStats> caches;
+    private final MeterRegistry meterRegistry;
+    private final boolean vertexEnabled;
+    private final Map<Long, UserSearchStats> userStats = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, UserSearchStats> eldest) {
+            return size() > MAX_TRACKED_USERS;
+        }
+    };
+
+    public RetrievalStatsService(
+            TransactionChunkRepository chunkRepository,
+            EmbeddingService embeddingService,
+            ObjectProvider<CacheStats> caches,
+            MeterRegistry meterRegistry,
+            @Autowired(required = false) Optional<VertexAIVectorStoreService> vertexAIVectorStore) {
+        this.chunkRepository = chunkRepository;
+        this.embeddingService = embeddingService;
+        this.caches = caches;
+        this.meterRegistry = meterRegistry;
+        this.vertexEnabled = vertexAIVectorStore.isPresent();
+    }
+
+    public void recordSearch(Long userId, String route, int resultCount, long elapsedNanos) {
+        UserSearchStats searchStats;
+        synchronized (userStats) {
+            searchStats = userStats.computeIfAbsent(userId, id -> new UserSearchStats());
+        }
+        searchStats.record(route, resultCount, elapsedNanos);
+        Timer.builder("rag.search.latency")
+            .tag("route", route)
+            .register(meterRegistry)
+            .record(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public Map<String, Object> getUserStats(Long userId) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("userId", userId);
+        stats.put("chunkCount", chunkRepository.countByUserId(userId));
+        stats.put("embeddedChunkCount", chunkRepository.countEmbeddedByUserId(userId));
+        stats.put("embeddingDimension", sampleEmbeddingDimension(userId));
+        stats.put("chunksByEmbeddingDimension", chunksByDimension(userId));
+
+        LocalDateTime lastBuild = chunkRepository.findLatestCreatedAtByUserId(userId);
+        stats.put("lastIndexBuildTime", lastBuild != null ? lastBuild.toString() : null);
+
+        Map<String, Object> routing = new LinkedHashMap<>();
+        routing.put("vertexEnabled", vertexEnabled);
+        routing.put("configuredRoute", vertexEnabled ? ROUTE_VERTEX : ROUTE_POSTGRES);
+        UserSearchStats searchStats;
+        synchronized (userStats) {
+            searchStats = userStats.get(userId);
+        }
+        if (searchStats != null) {
+            searchStats.appendRouting(routing);
+        }
+        stats.put("routing", routing);
+
+        stats.put("caches", cacheStats(userId));
+        stats.put("searchLatency", searchStats != null ? searchStats.latencySnapshot() : emptyLatencySnapshot());
+        return stats;
+    }
+
+    private Integer sampleEmbeddingDimension(Long userId) {
+        Optional<TransactionChunk> sample = chunkRepository.findFirstByUserIdAndEmbeddingIsNotNull(userId);
+        if (sample.isEmpty()) {
+            return null;
+        }
+        if (sample.get().getEmbeddingDimension() != null) {
+            return sample.get().getEmbeddingDimension();
+        }
+        float[] embedding = embeddingService.stringToEmbedding(sample.get().getEmbedding());
+        return embedding != null ? embedding.length : null;
+    }
+
+    // More than one entry means part of the index was embedded at another dimension and is not searched
+    private Map<String, Long> chunksByDimension(Long userId) {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Object[] row : chunkRepository.countEmbeddedByUserIdGroupByDimension(userId)) {
+            counts.put(row[0] != null ? row[0].toString() : "unknown", ((Number) row[1]).longValue());
+        }
+        return counts;
+    }
+
+    private Map<String, Object> cacheStats(Long userId) {
+        List<Map<String, Object>> entries = new ArrayList<>();
+        long totalBytes = 0;
+        long userBytes = 0;
+        for (CacheStats cache : caches.orderedStream().toList()) {
+            try {
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("name", cache.getCacheName());
+                entry.put("entries", cache.getSize());
+                entry.put("estimatedBytes", cache.getEstimatedBytes());
+                long forUser = cache.getEstimatedBytesForUser(userId);
+                if (forUser >= 0) {
+                    entry.put("estimatedBytesForUser", forUser);
+                    userBytes += forUser;
+                }
+                entry.put("hits", cache.getHitCount());
+                entry.put("misses", cache.getMissCount());
+                entry.put("hitRate", Math.round(cache.getHitRate() * 10000.0) / 10000.0);
+                entries.add(entry);
+                totalBytes += cache.getEstimatedBytes();
+            } catch (Exception e) {
+                log.warn("Failed to read stats from cache {}", cache.getClass().getSimpleName(), e);
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("totalEstimatedBytes", totalBytes);
+        result.put("userEstimatedBytes", userBytes);
+        result.put("details", entries);
+        return result;
+    }
+
+    private static Map<String, Object> emptyLatencySnapshot() {
+        return new UserSearchStats().latencySnapshot();
+    }
+
+    // Ring buffer of recent searches for one user
+    private static class UserSearchStats {
+        private final long[] latenciesNanos = new long[RECENT_SEARCHES];
+        private int next = 0;
+        private int count = 0;
+        private long totalSearches = 0;
+        private final Map<String, Long> routeCounts = new LinkedHashMap<>();
+        private String lastRoute;
+        private Instant lastSearchAt;
+        private int lastResultCount;
+
+        synchronized void record(String route, int resultCount, long elapsedNanos) {
+            latenciesNanos[next] = elapsedNanos;
+            next = (next + 1) % latenciesNanos.length;
+            count = Math.min(count + 1, latenciesNanos.length);
+            totalSearches++;
+            routeCounts.merge(route, 1L, Long::sum);
+            lastRoute = route;
+            lastSearchAt = Instant.now();
+            lastResultCount = resultCount;
+        }
+
+        synchronized void appendRouting(Map<String, Object> routing) {
+            routing.put("lastRoute", lastRoute);
+            routing.put("lastSearchAt", lastSearchAt != null ? lastSearchAt.toString() : null);
+            routing.put("lastResultCount", lastResultCount);
+            routing.put("routeCounts", new LinkedHashMap<>(routeCounts));
+        }
+
+        synchronized Map<String, Object> latencySnapshot() {
+            long[] recent = Arrays.copyOf(latenciesNanos, count);
+            Arrays.sort(recent);
+
+            Map<String, Long> histogram = new LinkedHashMap<>();
+            for (long bound : BUCKET_BOUNDS_MS) {
+                histogram.put("le_" + bound + "ms", 0L);
+            }
+            histogram.put("gt_" + BUCKET_BOUNDS_MS[BUCKET_BOUNDS_MS.length - 1] + "ms", 0L);
+            for (long nanos : recent) {
+                double ms = nanos / 1_000_000.0;
+                String bucket = "gt_" + BUCKET_BOUNDS_MS[BUCKET_BOUNDS_MS.length - 1] + "ms";
+                for (long bound : BUCKET_BOUNDS_MS) {
+                    if (ms <= bound) {
+                        bucket = "le_" + bound + "ms";
+                        break;
+                    }
+                }
+                histogram.merge(bucket, 1L, Long::sum);
+            }
+
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("totalSearches", totalSearches);
+            snapshot.put("recentSamples", recent.length);
+            snapshot.put("p50Ms", percentileMs(recent, 0.50));
+            snapshot.put("p95Ms", percentileMs(recent, 0.95));
+            snapshot.put("p99Ms", percentileMs(recent, 0.99));
+            snapshot.put("maxMs", recent.length == 0 ? 0.0 : toMs(recent[recent.length - 1]));
+            snapshot.put("histogram", histogram);
+            return snapshot;
+        }
+
+        private static double percentileMs(long[] sorted, double p) {
+            if (sorted.length == 0) {
+                return 0.0;
+            }
+            int index = (int) Math.ceil(p * sorted.length) - 1;
+            return toMs(sorted[Math.max(0, Math.min(index, sorted.length - 1))]);
+        }
+
+        private static double toMs(long nanos) {
+            return Math.round(nanos / 1_000.0) / 1_000.0;
+        }
+    }
+}
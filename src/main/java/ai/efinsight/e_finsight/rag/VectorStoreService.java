@@ -20,19 +20,23 @@ public class VectorStoreService {
     private final TransactionChunkRepository chunkRepository;
     private final EmbeddingService embeddingService;
     private final VertexAIVectorStoreService vertexAIVectorStore;
+    private final RetrievalStatsService retrievalStats;
 
     public VectorStoreService(
             TransactionChunkRepository chunkRepository,
             EmbeddingService embeddingService,
+            RetrievalStatsService retrievalStats,
             @Autowired(required = false) Optional<VertexAIVectorStoreService> vertexAIVectorStore) {
         this.chunkRepository = chunkRepository;
         this.embeddingService = embeddingService;
+        this.retrievalStats = retrievalStats;
         this.vertexAIVectorStore = vertexAIVectorStore.orElse(null);
         log.info("VectorStoreService initialized with Vertex AI Vector Search: {}", this.vertexAIVectorStore != null);
     }
 
     @Transactional
-    public void storeChunk(Long userId, Long transactionId, String chunkText, float[] embedding, Integer chunkIndex) {
+    public void storeChunk(Long userId, Long transactionId, String chunkText, float[] embedding, Integer chunkIndex,
+                           String summaryHash, String chunkingConfig) {
         
         // Create a new transaction chunk
         TransactionChunk chunk = new TransactionChunk();
@@ -44,15 +48,18 @@ public class VectorStoreService {
         // Convert float[] → String for PostgreSQL storage
         chunk.setEmbedding(embeddingService.embeddingToString(embedding));
         // Result: "[0.123,-0.456,0.789,...]" (JSON array as string)
+        chunk.setEmbeddingDimension(embedding != null ? embedding.length : null);
 
         chunk.setChunkIndex(chunkIndex);
+        chunk.setSummaryHash(summaryHash);
+        chunk.setChunkingConfig(chunkingConfig);
         
         // Save to PostgreSQL first to get the ID
         chunk = chunkRepository.save(chunk);
         
 
         // Not working yet - Store in Vertex AI Vector Search - Not working yet
-        if (vertexAIVectorStore != null) {
+        if (vertexAIVectorStore != null && embedding != null) {
             try {
                 String datapointId = vertexAIVectorStore.upsertDatapoint(
                     userId, transactionId, chunk.getId(), chunkText, embedding);
@@ -68,19 +75,50 @@ public class VectorStoreService {
     }
 
     @Transactional
-    public void storeChunks(Long userId, Long transactionId, List<String> chunkTexts, List<float[]> embeddings) {
+    public void storeChunks(Long userId, Long transactionId, List<String> chunkTexts, List<float[]> embeddings,
+                            String summaryHash, String chunkingConfig) {
         for (int i = 0; i < chunkTexts.size(); i++) {
-            storeChunk(userId, transactionId, chunkTexts.get(i), embeddings.get(i), i);
+            storeChunk(userId, transactionId, chunkTexts.get(i), embeddings.get(i), i, summaryHash, chunkingConfig);
         }
         log.info("Stored {} chunks for transaction: {} (user: {})", chunkTexts.size(), transactionId, userId);
     }
 
+    // Fill in vectors for chunks that were stored without one (batch backfill); returns the number updated
+    @Transactional
+    public int updateEmbeddings(Map<Long, float[]> embeddingsByChunkId) {
+        List<TransactionChunk> chunks = chunkRepository.findAllById(embeddingsByChunkId.keySet());
+        for (TransactionChunk chunk : chunks) {
+            float[] embedding = embeddingsByChunkId.get(chunk.getId());
+            chunk.setEmbedding(embeddingService.embeddingToString(embedding));
+            chunk.setEmbeddingDimension(embedding.length);
+        }
+        chunkRepository.saveAll(chunks);
+
+        if (vertexAIVectorStore != null) {
+            for (TransactionChunk chunk : chunks) {
+                try {
+                    String datapointId = vertexAIVectorStore.upsertDatapoint(chunk.getUserId(), chunk.getTransactionId(),
+                        chunk.getId(), chunk.getChunkText(), embeddingsByChunkId.get(chunk.getId()));
+                    chunk.setVertexDatapointId(datapointId);
+                } catch (Exception e) {
+                    log.error("Failed to store backfilled chunk {} in Vertex AI Vector Search", chunk.getId(), e);
+                }
+            }
+            chunkRepository.saveAll(chunks);
+        }
+        log.debug("Updated embeddings for {} chunks", chunks.size());
+        return chunks.size();
+    }
+
     public List<TransactionChunk> searchSimilar(Long userId, float[] queryEmbedding, int topK) {
         List<ChunkSimilarity> results = searchSimilarWithScores(userId, queryEmbedding, topK);
         return results.stream().map(cs -> cs.chunk).collect(java.util.stream.Collectors.toList());
     }
 
     public List<ChunkSimilarity> searchSimilarWithScores(Long userId, float[] queryEmbedding, int topK) {
+        long start = System.nanoTime();
+        String route = RetrievalStatsService.ROUTE_POSTGRES;
+
         // Use Vertex AI Vector Search if available - 
         // Not working yet - Vertex AI Vector Search - Not working yet
         if (vertexAIVectorStore != null) {
@@ -114,24 +152,45 @@ public class VectorStoreService {
                 log.info("Found {} similar chunks via Vertex AI Vector Search for user: {} (top similarity: {})", 
                     results.size(), userId, 
                     results.isEmpty() ? 0.0 : results.get(0).similarity);
+                recordSearch(userId, RetrievalStatsService.ROUTE_VERTEX, results.size(), start);
                 return results;
             } catch (Exception e) {
                 log.error("Error searching Vertex AI Vector Search, falling back to PostgreSQL", e);
+                route = RetrievalStatsService.ROUTE_POSTGRES_FALLBACK;
                 // Fall through to PostgreSQL search
             }
         }
         
         // Fallback to PostgreSQL in-memory search
-        List<TransactionChunk> allChunks = chunkRepository.findEmbeddedChunksByUserId(userId);
+        // Only chunks embedded at the query's dimension are comparable
+        List<TransactionChunk> allChunks = chunkRepository.findEmbeddedChunksByUserIdAndDimension(userId, queryEmbedding.length);
         
         if (allChunks.isEmpty()) {
+            recordSearch(userId, route, 0, start);
             return new ArrayList<>();
         }
 
+        List<ChunkSimilarity> results = rankBySimilarity(allChunks, queryEmbedding, topK);
+
+        log.info("Found {} similar chunks via PostgreSQL for user: {} (top similarity: {})", 
+            results.size(), userId, 
+            results.isEmpty() ? 0.0 : results.get(0).similarity);
+        recordSearch(userId, route, results.size(), start);
+        // Return the list of similar chunks
+        return results;
+    }
+
+    private void recordSearch(Long userId, String route, int resultCount, long startNanos) {
+        retrievalStats.recordSearch(userId, route, resultCount, System.nanoTime() - startNanos);
+    }
+
+    // Exact scan: parse every stored embedding and rank by cosine similarity
+    public List<ChunkSimilarity> rankBySimilarity(List<TransactionChunk> chunks, float[] queryEmbedding, int topK) {
         List<ChunkSimilarity> similarities = new ArrayList<>();
-        for (TransactionChunk chunk : allChunks) {
+        for (TransactionChunk chunk : chunks) {
             float[] chunkEmbedding = embeddingService.stringToEmbedding(chunk.getEmbedding());
-            if (chunkEmbedding != null && !isZeroVector(chunkEmbedding)) {
+            // Vectors of another dimension (e.g. stored before llm.embedding-dimension changed) are skipped
+            if (chunkEmbedding != null && chunkEmbedding.length == queryEmbedding.length && !isZeroVector(chunkEmbedding)) {
                 // Calculate the cosine similarity between the query embedding and the chunk embedding
                 double similarity = cosineSimilarity(queryEmbedding, chunkEmbedding);
                 // Add the chunk and similarity to the list of similarities
@@ -145,11 +204,6 @@ public class VectorStoreService {
         for (int i = 0; i < Math.min(topK, similarities.size()); i++) {
             results.add(similarities.get(i));
         }
-
-        log.info("Found {} similar chunks via PostgreSQL for user: {} (top similarity: {})", 
-            results.size(), userId, 
-            results.isEmpty() ? 0.0 : results.get(0).similarity);
-        // Return the list of similar chunks
         return results;
     }
 
@@ -165,7 +219,7 @@ public class VectorStoreService {
         return true;
     }
 
-    private double cosineSimilarity(float[] a, float[] b) {
+    public static double cosineSimilarity(float[] a, float[] b) {
         if (a.length != b.length) {
             return 0.0;
         }
@@ -231,6 +285,27 @@ public class VectorStoreService {
         log.debug("Deleted chunks for transaction: {}", transactionId);
     }
 
+    // One query for the chunks, one delete for the rows (plus Vertex datapoints when enabled)
+    @Transactional
+    public void deleteChunksByTransactionIds(List<Long> transactionIds) {
+        if (transactionIds.isEmpty()) {
+            return;
+        }
+        if (vertexAIVectorStore != null) {
+            try {
+                for (TransactionChunk chunk : chunkRepository.findByTransactionIdIn(transactionIds)) {
+                    if (chunk.getVertexDatapointId() != null) {
+                        vertexAIVectorStore.deleteDatapoint(chunk.getVertexDatapointId());
+                    }
+                }
+            } catch (Exception e) {
+                log.error("Error deleting chunks from Vertex AI Vector Search", e);
+            }
+        }
+        chunkRepository.deleteByTransactionIdIn(transactionIds);
+        log.debug("Deleted chunks for {} transactions", transactionIds.size());
+    }
+
     public static class ChunkSimilarity {
         public final TransactionChunk chunk;
         public final double similarity;
@@ -164,13 +164,7 @@ public class VertexAIVectorStoreService {
                     // Get datapoint ID from the datapoint object
                     String datapointId = neighbor.getDatapoint().getDatapointId();
                     
-                    double distance = neighbor.getDistance();
-                    
-                    // Convert distance to similarity
-                    // For dot product: higher distance = higher similarity
-                    // Dot product returns values where higher = more similar
-                    // Normalize to 0-1 range for consistency
-                    double similarity = Math.max(0.0, Math.min(1.0, (distance + 1.0) / 2.0));
+                    double similarity = distanceToSimilarity(neighbor.getDistance());
                     
                     // Extract metadata from datapoint restricts if available
                     Map<String, String> metadata = new HashMap<>();
@@ -198,6 +192,14 @@ public class VertexAIVectorStoreService {
         }
     }
 
+    // Convert distance to similarity
+    // For dot product: higher distance = higher similarity
+    // Dot product returns values where higher = more similar
+    // Normalize to 0-1 range for consistency
+    public static double distanceToSimilarity(double distance) {
+        return Math.max(0.0, Math.min(1.0, (distance + 1.0) / 2.0));
+    }
+
     public void deleteDatapoint(String datapointId) {
         try {
             RemoveDatapointsRequest request = RemoveDatapointsRequest.newBuilder()
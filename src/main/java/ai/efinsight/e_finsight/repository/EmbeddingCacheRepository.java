@@ -0,0 +1,33 @@
+package ai.efinsight.e_finsight.repository;
+
+import ai.efinsight.e_finsight.model.EmbeddingCacheEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@Repository
+public interface EmbeddingCacheRepository extends JpaRepository<EmbeddingCacheEntry, String> {
+
+    // Plain insert: no SELECT first (the key is assigned, so save() would merge), and a row another writer
+    // stored meanwhile is kept instead of failing on the primary key
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO embedding_cache (cache_key, model, task_type, text_hash, embedding, dimension, created_at) " +
+                   "VALUES (:cacheKey, :model, :taskType, :textHash, :embedding, :dimension, now()) " +
+                   "ON CONFLICT (cache_key) DO NOTHING",
+           nativeQuery = true)
+    void insertIfAbsent(String cacheKey, String model, String taskType, String textHash, byte[] embedding, Integer dimension);
+
+    // One transaction for the whole batch
+    @Transactional
+    default void insertAllIfAbsent(List<EmbeddingCacheEntry> entries) {
+        for (EmbeddingCacheEntry entry : entries) {
+            insertIfAbsent(entry.getCacheKey(), entry.getModel(), entry.getTaskType(), entry.getTextHash(),
+                entry.getEmbedding(), entry.getDimension());
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package ai.efinsight.e_finsight.repository;
+
+import ai.efinsight.e_finsight.model.TokenUsageEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+
+@Repository
+public interface TokenUsageRepository extends JpaRepository<TokenUsageEntry, Long> {
+
+    // Adds to the row for this key, creating it on first use; concurrent flushes cannot lose increments
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO token_usage (user_id, usage_date, operation, agent, endpoint, model, calls, " +
+                   "prompt_tokens, completion_tokens, cached_tokens, updated_at) " +
+                   "VALUES (:userId, :usageDate, :operation, :agent, :endpoint, :model, :calls, " +
+                   ":promptTokens, :completionTokens, :cachedTokens, now()) " +
+                   "ON CONFLICT (user_id, usage_date, operation, agent, endpoint, model) DO UPDATE SET " +
+                   "calls = token_usage.calls + EXCLUDED.calls, " +
+                   "prompt_tokens = token_usage.prompt_tokens + EXCLUDED.prompt_tokens, " +
+                   "completion_tokens = token_usage.completion_tokens + EXCLUDED.completion_tokens, " +
+                   "cached_tokens = token_usage.cached_tokens + EXCLUDED.cached_tokens, " +
+                   "updated_at = now()",
+           nativeQuery = true)
+    void addUsage(Long userId, LocalDate usageDate, String operation, String agent, String endpoint, String model,
+                  long calls, long promptTokens, long completionTokens, long cachedTokens);
+}
@@ -2,9 +2,11 @@ package ai.efinsight.e_finsight.repository;
 
 import ai.efinsight.e_finsight.model.TransactionChunk;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -17,10 +19,43 @@ public interface TransactionChunkRepository extends JpaRepository<TransactionChu
     @Query("SELECT c FROM TransactionChunk c WHERE c.userId = :userId AND c.embedding IS NOT NULL")
     List<TransactionChunk> findEmbeddedChunksByUserId(Long userId);
     
+    // Chunks stored before the dimension was tracked have a null dimension and are length-checked at scan time
+    @Query("SELECT c FROM TransactionChunk c WHERE c.userId = :userId AND c.embedding IS NOT NULL " +
+           "AND (c.embeddingDimension = :dimension OR c.embeddingDimension IS NULL)")
+    List<TransactionChunk> findEmbeddedChunksByUserIdAndDimension(Long userId, Integer dimension);
+    
+    @Query("SELECT c.embeddingDimension, COUNT(c) FROM TransactionChunk c " +
+           "WHERE c.userId = :userId AND c.embedding IS NOT NULL GROUP BY c.embeddingDimension")
+    List<Object[]> countEmbeddedByUserIdGroupByDimension(Long userId);
+    
     Optional<TransactionChunk> findByVertexDatapointId(String vertexDatapointId);
     
+    Optional<TransactionChunk> findFirstByUserIdAndEmbeddingIsNotNull(Long userId);
+    
+    // Chunks stored for batch backfill, still waiting for a vector
+    List<TransactionChunk> findByUserIdAndEmbeddingIsNull(Long userId);
+    
+    long countByUserId(Long userId);
+    
+    @Query("SELECT COUNT(c) FROM TransactionChunk c WHERE c.userId = :userId AND c.embedding IS NOT NULL")
+    long countEmbeddedByUserId(Long userId);
+    
+    @Query("SELECT MAX(c.createdAt) FROM TransactionChunk c WHERE c.userId = :userId")
+    LocalDateTime findLatestCreatedAtByUserId(Long userId);
+    
+    // [transactionId, summaryHash, chunkingConfig, embeddingDimension] per chunk, without loading vectors
+    @Query("SELECT c.transactionId, c.summaryHash, c.chunkingConfig, c.embeddingDimension FROM TransactionChunk c " +
+           "WHERE c.userId = :userId")
+    List<Object[]> findFingerprintsByUserId(Long userId);
+    
+    List<TransactionChunk> findByTransactionIdIn(List<Long> transactionIds);
+    
     void deleteByTransactionId(Long transactionId);
     
+    @Modifying
+    @Query("DELETE FROM TransactionChunk c WHERE c.transactionId IN :transactionIds")
+    void deleteByTransactionIdIn(List<Long> transactionIds);
+    
     void deleteByUserId(Long userId);
 }
 
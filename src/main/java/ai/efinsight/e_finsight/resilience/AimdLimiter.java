@@ -0,0 +1,123 @@
+package ai.efinsight.e_finsight.resilience;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive concurrency limit (additive increase, multiplicative decrease). Each success grows the
+ * limit by 1/limit, so it rises by about one per round trip; an overload signal (429/503, timeouts,
+ * or smoothed latency drifting above twice its baseline) halves it. Callers beyond the limit wait,
+ * which is how back-pressure reaches whoever is submitting work.
+ */
+public class AimdLimiter {
+
+    private static final double BACKOFF_RATIO = 0.5;
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double EWMA_ALPHA = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    private double smoothedLatencyNanos;
+    private double baselineLatencyNanos;
+    // One decrease per round of requests: responses already in flight when we backed off don't count again
+    private long lastDecreaseNanos;
+
+    public AimdLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+    }
+
+    public void acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                released.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onSuccess(long latencyNanos) {
+        lock.lock();
+        try {
+            smoothedLatencyNanos = smoothedLatencyNanos == 0
+                ? latencyNanos
+                : EWMA_ALPHA * latencyNanos + (1 - EWMA_ALPHA) * smoothedLatencyNanos;
+            // Baseline tracks the best smoothed latency, creeping up slowly so it can follow real change
+            baselineLatencyNanos = baselineLatencyNanos == 0
+                ? smoothedLatencyNanos
+                : Math.min(smoothedLatencyNanos, baselineLatencyNanos + 0.01 * (smoothedLatencyNanos - baselineLatencyNanos));
+
+            if (smoothedLatencyNanos > LATENCY_TOLERANCE * baselineLatencyNanos) {
+                decrease();
+            } else if (inFlight >= (int) limit - 1) {
+                // Only grow when the current limit is actually being used
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onOverload() {
+        lock.lock();
+        try {
+            decrease();
+            release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Failures that say nothing about provider capacity (bad request, auth): release only
+    public void onIgnore() {
+        lock.lock();
+        try {
+            release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void decrease() {
+        long now = System.nanoTime();
+        long window = Math.max((long) smoothedLatencyNanos, TimeUnit.MILLISECONDS.toNanos(100));
+        if (now - lastDecreaseNanos >= window) {
+            limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+            lastDecreaseNanos = now;
+        }
+    }
+
+    private void release() {
+        inFlight--;
+        released.signalAll();
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package ai.efinsight.e_finsight.resilience;
+
+/**
+ * Count-based circuit breaker. Opens when the failure rate over the last {@code windowSize} calls
+ * reaches the threshold, rejects calls while open, then lets a single trial call through: success
+ * closes the circuit, failure re-opens it for another {@code openMillis}.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, HALF_OPEN, OPEN }
+
+    private final String name;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openMillis;
+
+    // Ring buffer of recent outcomes while closed
+    private final boolean[] outcomes;
+    private int recorded;
+    private int next;
+    private int failures;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    public CircuitBreaker(String name, int windowSize, double failureRateThreshold, long openMillis) {
+        this.name = name;
+        this.windowSize = Math.max(1, windowSize);
+        this.minimumCalls = Math.max(1, this.windowSize / 2);
+        this.failureRateThreshold = failureRateThreshold;
+        this.openMillis = openMillis;
+        this.outcomes = new boolean[this.windowSize];
+    }
+
+    // Throws CircuitBreakerOpenException when the call must not be made
+    public synchronized void acquirePermission() {
+        if (state == State.OPEN) {
+            long remaining = openedAt + openMillis - System.currentTimeMillis();
+            if (remaining > 0) {
+                throw new CircuitBreakerOpenException(name, remaining);
+            }
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialInFlight) {
+                throw new CircuitBreakerOpenException(name, openMillis);
+            }
+            trialInFlight = true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            reset();
+            state = State.CLOSED;
+            return;
+        }
+        record(false);
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        record(true);
+        if (recorded >= minimumCalls && (double) failures / recorded >= failureRateThreshold) {
+            open();
+        }
+    }
+
+    // The call was permitted but its outcome says nothing about the provider's health
+    public synchronized void onIgnore() {
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+        }
+    }
+
+    private void record(boolean failure) {
+        if (recorded == windowSize) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        outcomes[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % windowSize;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        trialInFlight = false;
+        reset();
+    }
+
+    private void reset() {
+        recorded = 0;
+        next = 0;
+        failures = 0;
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && System.currentTimeMillis() >= openedAt + openMillis) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,14 @@
+package ai.efinsight.e_finsight.resilience;
+
+public class CircuitBreakerOpenException extends RuntimeException {
+    private final long retryAfterMillis;
+
+    public CircuitBreakerOpenException(String name, long retryAfterMillis) {
+        super("Circuit breaker '" + name + "' is open; retry in " + retryAfterMillis + "ms");
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
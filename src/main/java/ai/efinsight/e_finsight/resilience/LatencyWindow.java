@@ -0,0 +1,42 @@
+package ai.efinsight.e_finsight.resilience;
+
+import java.util.Arrays;
+
+/**
+ * Latencies of the most recent calls in a fixed-size ring, for percentile estimates that follow the
+ * provider's current behaviour. Percentiles are only reported once enough samples have been seen.
+ */
+public class LatencyWindow {
+
+    private final long[] samples;
+    private final int minSamples;
+    private int count;
+    private int next;
+
+    public LatencyWindow(int size, int minSamples) {
+        this.samples = new long[Math.max(1, size)];
+        this.minSamples = Math.max(1, Math.min(minSamples, this.samples.length));
+    }
+
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) {
+            count++;
+        }
+    }
+
+    // Nearest-rank percentile in nanoseconds, or -1 while there are fewer than minSamples samples
+    public long percentile(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            if (count < minSamples) {
+                return -1;
+            }
+            sorted = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+}
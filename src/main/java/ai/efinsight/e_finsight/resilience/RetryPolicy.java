@@ -0,0 +1,65 @@
+package ai.efinsight.e_finsight.resilience;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Which provider failures are worth retrying, and how long to wait before the next attempt:
+ * Retry-After when the provider sends one, otherwise exponential backoff with jitter, so callers
+ * that failed together don't all come back at the same moment.
+ */
+public class RetryPolicy {
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+        this.maxAttempts = 1 + Math.max(0, maxRetries);
+        this.baseDelayMillis = Math.max(1, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    // 429, 5xx and connection/read timeouts mean the provider is at capacity; anything else is our problem
+    public static boolean isRetryable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RetryableException) {
+                return true;
+            }
+            if (cause instanceof HttpStatusCodeException statusException) {
+                int status = statusException.getStatusCode().value();
+                return status == 429 || status >= 500;
+            }
+            if (cause instanceof ResourceAccessException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // attempt is the attempt that just failed, starting at 1. The jittered delay is drawn from the
+    // upper half of the exponential ceiling.
+    public long delayMillis(Throwable e, int attempt) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof HttpStatusCodeException statusException && statusException.getResponseHeaders() != null) {
+                String retryAfter = statusException.getResponseHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+                if (retryAfter != null) {
+                    try {
+                        return Math.min(maxDelayMillis, Long.parseLong(retryAfter.trim()) * 1000);
+                    } catch (NumberFormatException ignored) {
+                        // HTTP-date form: fall back to our own backoff
+                    }
+                }
+            }
+        }
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(10, attempt - 1));
+        return ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+    }
+}
@@ -0,0 +1,9 @@
+package ai.efinsight.e_finsight.resilience;
+
+// A transient provider failure reported without an HTTP error status (e.g. an error object in a 200 body)
+public class RetryableException extends RuntimeException {
+
+    public RetryableException(String message) {
+        super(message);
+    }
+}
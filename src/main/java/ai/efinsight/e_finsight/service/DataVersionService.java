@@ -0,0 +1,49 @@
+package ai.efinsight.e_finsight.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-user counter that changes whenever the data answers are built from (transactions, chunks)
+ * changes. Caches of derived results include it in their key, so new data makes old entries
+ * unreachable without having to find and delete them. In memory: a restart starts every user
+ * at 0 again, together with the in-memory caches that depend on it.
+ */
+@Service
+public class DataVersionService {
+    private static final Logger log = LoggerFactory.getLogger(DataVersionService.class);
+
+    private final Map<Long, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    public long getVersion(Long userId) {
+        AtomicLong version = versions.get(userId);
+        return version != null ? version.get() : 0;
+    }
+
+    // Inside a transaction the bump waits for the commit, so nothing can be cached under the new
+    // version from data that is not visible yet
+    public void markChanged(Long userId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    bump(userId);
+                }
+            });
+        } else {
+            bump(userId);
+        }
+    }
+
+    private void bump(Long userId) {
+        long version = versions.computeIfAbsent(userId, id -> new AtomicLong()).incrementAndGet();
+        log.debug("Data version for user {} is now {}", userId, version);
+    }
+}
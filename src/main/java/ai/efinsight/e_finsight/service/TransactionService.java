@@ -3,10 +3,13 @@ package ai.efinsight.e_finsight.service;
 import ai.efinsight.e_finsight.dto.TrueLayerAccountDto;
 import ai.efinsight.e_finsight.dto.TrueLayerTransactionDto;
 import ai.efinsight.e_finsight.model.Transaction;
+import ai.efinsight.e_finsight.repository.TransactionChunkRepository;
 import ai.efinsight.e_finsight.repository.TransactionRepository;
 import ai.efinsight.e_finsight.rag.ChunkingService;
+import ai.efinsight.e_finsight.rag.EmbeddingExecutor;
 import ai.efinsight.e_finsight.rag.EmbeddingService;
 import ai.efinsight.e_finsight.rag.VectorStoreService;
+import ai.efinsight.e_finsight.resilience.CircuitBreakerOpenException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -14,29 +17,47 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
 import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class TransactionService {
     private static final Logger log = LoggerFactory.getLogger(TransactionService.class);
 
+    // Number of transactions whose chunks are embedded together; a failure only leaves this many unchunked
+    private static final int TRANSACTION_BATCH_SIZE = 50;
+
     private final TrueLayerApiService apiService;
     private final TransactionRepository transactionRepository;
     private final ChunkingService chunkingService;
     private final EmbeddingService embeddingService;
     private final VectorStoreService vectorStoreService;
+    private final EmbeddingExecutor embeddingExecutor;
+    private final TransactionChunkRepository chunkRepository;
+    private final DataVersionService dataVersionService;
 
     public TransactionService(
             TrueLayerApiService apiService, 
             TransactionRepository transactionRepository,
             ChunkingService chunkingService,
             EmbeddingService embeddingService,
-            VectorStoreService vectorStoreService) {
+            VectorStoreService vectorStoreService,
+            EmbeddingExecutor embeddingExecutor,
+            TransactionChunkRepository chunkRepository,
+            DataVersionService dataVersionService) {
         this.apiService = apiService;
         this.transactionRepository = transactionRepository;
         this.chunkingService = chunkingService;
         this.embeddingService = embeddingService;
         this.vectorStoreService = vectorStoreService;
+        this.embeddingExecutor = embeddingExecutor;
+        this.chunkRepository = chunkRepository;
+        this.dataVersionService = dataVersionService;
     }
 
     // Ingest transactions for a user
@@ -58,23 +79,18 @@ public class TransactionService {
                     List<TrueLayerTransactionDto> transactions = apiService.getAccountTransactions(
                             userIdStr, account.getAccountId(), from, null);
 
+                    List<Transaction> newTransactions = new ArrayList<>();
                     for (TrueLayerTransactionDto txnDto : transactions) {
                         if (transactionRepository.findByTransactionId(txnDto.getTransactionId()).isPresent()) {
                             continue;
                         }
 
-                        Transaction transaction = convertToEntity(userId, account.getAccountId(), txnDto);
-                        transaction = transactionRepository.save(transaction);
-                        totalIngested++;
-                        
-                        try {
-                            processTransactionChunks(transaction);
-                            transaction.setChunked(true);
-                            transactionRepository.save(transaction);
-                        } catch (Exception e) {
-                            log.warn("Failed to process chunks for transaction: {}", transaction.getTransactionId(), e);
-                        }
+                        newTransactions.add(convertToEntity(userId, account.getAccountId(), txnDto));
                     }
+                    newTransactions = transactionRepository.saveAll(newTransactions);
+                    totalIngested += newTransactions.size();
+
+                    processInBatches(newTransactions);
 
                     log.info("Ingested {} transactions for account: {} (user: {})", 
                         transactions.size(), account.getAccountId(), userId);
@@ -133,62 +149,253 @@ public class TransactionService {
 
     @Transactional
     public void processTransactionChunks(Transaction transaction) {
-        // Chunk the transaction into chunks
-        List<String> chunks = chunkingService.chunkTransaction(transaction);
-        // Generate embeddings for the chunks
-        List<float[]> embeddings = embeddingService.generateEmbeddings(chunks);
-        
-        if (chunks.size() == embeddings.size()) {
+        processTransactionBatch(List.of(transaction));
+    }
+
+    // Chunk a batch of transactions and embed all of their chunks together, so the provider
+    // sees a few large requests instead of one request per transaction
+    @Transactional
+    public void processTransactionBatch(List<Transaction> transactions) {
+        if (transactions.isEmpty()) {
+            return;
+        }
+        storeBatch(embedBatch(transactions));
+    }
+
+    // Chunking and embedding only - no persistence, so it is safe to run off the request thread
+    private EmbeddedBatch embedBatch(List<Transaction> transactions) {
+        List<String> allChunks = new ArrayList<>();
+        List<Integer> chunkCounts = new ArrayList<>(transactions.size());
+        for (Transaction transaction : transactions) {
+            List<String> chunks = chunkingService.chunkTransaction(transaction);
+            chunkCounts.add(chunks.size());
+            allChunks.addAll(chunks);
+        }
+
+        // Generate embeddings for every chunk in the batch (batches come from one user's transactions)
+        List<float[]> embeddings = embeddingService.generateEmbeddings(transactions.get(0).getUserId(), allChunks);
+        if (embeddings.size() != allChunks.size()) {
+            log.warn("Mismatch between chunks ({}) and embeddings ({}) for batch of {} transactions",
+                allChunks.size(), embeddings.size(), transactions.size());
+            throw new RuntimeException("Embedding count mismatch for transaction batch");
+        }
+        return new EmbeddedBatch(transactions, allChunks, chunkCounts, embeddings);
+    }
+
+    private void storeBatch(EmbeddedBatch batch) {
+        int offset = 0;
+        for (int i = 0; i < batch.transactions.size(); i++) {
+            Transaction transaction = batch.transactions.get(i);
+            int count = batch.chunkCounts.get(i);
             vectorStoreService.storeChunks(
                 transaction.getUserId(),
                 transaction.getId(),
-                chunks,
-                embeddings
+                batch.chunks.subList(offset, offset + count),
+                batch.embeddings.subList(offset, offset + count),
+                chunkingService.summaryHash(transaction),
+                chunkingService.getChunkingConfig()
             );
-            log.debug("Processed {} chunks for transaction: {}", chunks.size(), transaction.getId());
-        } else {
-            log.warn("Mismatch between chunks ({}) and embeddings ({}) for transaction: {}", 
-                chunks.size(), embeddings.size(), transaction.getId());
+            transaction.setChunked(true);
+            offset += count;
         }
+        transactionRepository.saveAll(batch.transactions);
+        // New chunks change what retrieval returns, so cached answers for this user are stale
+        dataVersionService.markChanged(batch.transactions.get(0).getUserId());
+        log.debug("Processed {} chunks for {} transactions", batch.chunks.size(), batch.transactions.size());
     }
 
-    @Transactional
-    public int processUnprocessedTransactions(Long userId) {
-        List<Transaction> unprocessed = transactionRepository.findUnchunkedByUserId(userId);
-        log.info("Processing {} unprocessed transactions for user: {}", unprocessed.size(), userId);
-        
+    // Process transactions in fixed-size batches. Batches are embedded concurrently and stored in order
+    // on this thread, inside the caller's transaction. Only about as many batches as the provider's
+    // adaptive concurrency limit are in flight, and submission stops while its circuit breaker is open.
+    // Failed or skipped batches stay unchunked for the next run.
+    private int processInBatches(List<Transaction> transactions) {
+        List<List<Transaction>> batches = new ArrayList<>();
+        for (int start = 0; start < transactions.size(); start += TRANSACTION_BATCH_SIZE) {
+            batches.add(transactions.subList(start, Math.min(start + TRANSACTION_BATCH_SIZE, transactions.size())));
+        }
+
+        Deque<CompletableFuture<EmbeddedBatch>> pending = new ArrayDeque<>();
+        int submitted = 0;
+        int stored = 0;
         int processed = 0;
-        for (Transaction transaction : unprocessed) {
+        boolean paused = false;
+        while (stored < submitted || (!paused && submitted < batches.size())) {
+            while (!paused && submitted < batches.size() && pending.size() < embeddingService.getProviderConcurrencyLimit()) {
+                if (!embeddingService.isProviderAvailable()) {
+                    paused = true;
+                    break;
+                }
+                List<Transaction> batch = batches.get(submitted++);
+                pending.add(embeddingExecutor.submit(() -> embedBatch(batch)));
+            }
+            if (pending.isEmpty()) {
+                break;
+            }
+
+            List<Transaction> batch = batches.get(stored++);
             try {
-                processTransactionChunks(transaction);
-                transaction.setChunked(true);
-                transactionRepository.save(transaction);
-                processed++;
+                storeBatch(pending.poll().join());
+                processed += batch.size();
             } catch (Exception e) {
-                log.warn("Failed to process transaction: {}", transaction.getId(), e);
+                if (isCircuitOpen(e)) {
+                    paused = true;
+                }
+                log.warn("Failed to process batch of {} transactions starting at: {}", batch.size(), batch.get(0).getId(), e);
+            }
+        }
+
+        if (paused && submitted < batches.size()) {
+            int remaining = transactions.size() - submitted * TRANSACTION_BATCH_SIZE;
+            log.warn("Embedding provider unavailable; left {} transactions unchunked for the next run", remaining);
+        }
+        return processed;
+    }
+
+    private boolean isCircuitOpen(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CircuitBreakerOpenException) {
+                return true;
             }
         }
+        return false;
+    }
+
+    @Transactional
+    public int processUnprocessedTransactions(Long userId) {
+        List<Transaction> unprocessed = transactionRepository.findUnchunkedByUserId(userId);
+        log.info("Processing {} unprocessed transactions for user: {}", unprocessed.size(), userId);
+        
+        int processed = processInBatches(unprocessed);
         
         log.info("Processed {} transactions for user: {}", processed, userId);
         return processed;
     }
 
+    // Chunk unprocessed transactions without embedding them; the chunks are embedded later by a
+    // batch backfill (EmbeddingBackfillService) and are not searchable until then
+    @Transactional
+    public int chunkUnprocessedForBackfill(Long userId) {
+        List<Transaction> unprocessed = transactionRepository.findUnchunkedByUserId(userId);
+        for (Transaction transaction : unprocessed) {
+            List<String> chunks = chunkingService.chunkTransaction(transaction);
+            List<float[]> noEmbeddings = new ArrayList<>(chunks.size());
+            for (int i = 0; i < chunks.size(); i++) {
+                noEmbeddings.add(null);
+            }
+            vectorStoreService.storeChunks(transaction.getUserId(), transaction.getId(), chunks, noEmbeddings,
+                chunkingService.summaryHash(transaction), chunkingService.getChunkingConfig());
+            transaction.setChunked(true);
+        }
+        transactionRepository.saveAll(unprocessed);
+        log.info("Chunked {} transactions for backfill for user: {}", unprocessed.size(), userId);
+        return unprocessed.size();
+    }
+
     @Transactional
     public int reprocessAllTransactions(Long userId) {
         log.info("Re-processing all transactions for user: {}", userId);
         
         // Delete all existing chunks for this user
         vectorStoreService.deleteChunksByUserId(userId);
+        dataVersionService.markChanged(userId);
         
         // Mark all transactions as unprocessed
         List<Transaction> allTransactions = transactionRepository.findByUserId(userId);
         for (Transaction transaction : allTransactions) {
             transaction.setChunked(false);
-            transactionRepository.save(transaction);
         }
+        transactionRepository.saveAll(allTransactions);
         
         // Process all transactions
         return processUnprocessedTransactions(userId);
     }
-}
 
+    // Re-embed only transactions whose summary text, chunking settings or embedding dimension differ
+    // from what their stored chunks were built with. Chunks written before hashes were stored have a
+    // null hash and are rebuilt once (their texts are usually embedding-cache hits).
+    @Transactional
+    public ReprocessResult reprocessChangedTransactions(Long userId) {
+        List<Transaction> allTransactions = transactionRepository.findByUserId(userId);
+        String chunkingConfig = chunkingService.getChunkingConfig();
+        // Chunks of any other length are stale, including ones reduced before the dimension was set back to
+        // native; unknown (provider unreachable) skips the dimension check rather than the whole reprocess
+        Integer storedDimension = null;
+        try {
+            storedDimension = embeddingService.getStoredDimension();
+        } catch (Exception e) {
+            log.warn("Could not determine the embedding dimension, skipping the dimension check: {}", e.getMessage());
+        }
+
+        Map<Long, List<Object[]>> fingerprints = new HashMap<>();
+        for (Object[] row : chunkRepository.findFingerprintsByUserId(userId)) {
+            fingerprints.computeIfAbsent((Long) row[0], id -> new ArrayList<>()).add(row);
+        }
+
+        List<Transaction> changed = new ArrayList<>();
+        for (Transaction transaction : allTransactions) {
+            if (!transaction.isChunked()
+                    || isStale(fingerprints.get(transaction.getId()), chunkingService.summaryHash(transaction), chunkingConfig, storedDimension)) {
+                changed.add(transaction);
+            }
+        }
+
+        List<Long> changedIds = new ArrayList<>(changed.size());
+        for (Transaction transaction : changed) {
+            changedIds.add(transaction.getId());
+            transaction.setChunked(false);
+        }
+        vectorStoreService.deleteChunksByTransactionIds(changedIds);
+        if (!changedIds.isEmpty()) {
+            dataVersionService.markChanged(userId);
+        }
+        transactionRepository.saveAll(changed);
+
+        int reembedded = processInBatches(changed);
+        log.info("Incremental reprocess for user {}: {} scanned, {} changed, {} re-embedded",
+            userId, allTransactions.size(), changed.size(), reembedded);
+        return new ReprocessResult(allTransactions.size(), allTransactions.size() - changed.size(), changed.size(), reembedded);
+    }
+
+    // Chunks still waiting for a batch backfill (null dimension) are not stale on dimension alone
+    private boolean isStale(List<Object[]> chunks, String summaryHash, String chunkingConfig, Integer storedDimension) {
+        if (chunks == null || chunks.isEmpty()) {
+            return true;
+        }
+        for (Object[] chunk : chunks) {
+            Integer dimension = (Integer) chunk[3];
+            if (!summaryHash.equals(chunk[1]) || !chunkingConfig.equals(chunk[2])
+                    || (storedDimension != null && dimension != null && !storedDimension.equals(dimension))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static class ReprocessResult {
+        public final int scanned;
+        public final int unchanged;
+        public final int changed;
+        public final int reembedded;
+
+        public ReprocessResult(int scanned, int unchanged, int changed, int reembedded) {
+            this.scanned = scanned;
+            this.unchanged = unchanged;
+            this.changed = changed;
+            this.reembedded = reembedded;
+        }
+    }
+
+    private static class EmbeddedBatch {
+        final List<Transaction> transactions;
+        final List<String> chunks;
+        final List<Integer> chunkCounts;
+        final List<float[]> embeddings;
+
+        EmbeddedBatch(List<Transaction> transactions, List<String> chunks, List<Integer> chunkCounts, List<float[]> embeddings) {
+            this.transactions = transactions;
+            this.chunks = chunks;
+            this.chunkCounts = chunkCounts;
+            this.embeddings = embeddings;
+        }
+    }
+}
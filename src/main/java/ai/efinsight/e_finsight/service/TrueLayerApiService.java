@@ -19,11 +19,12 @@ public class TrueLayerApiService {
 
     private final TrueLayerConfig config;
     private final TrueLayerAuthService authService;
-    private final RestTemplate restTemplate = new RestTemplate();
+    private final RestTemplate restTemplate;
 
-    public TrueLayerApiService(TrueLayerConfig config, TrueLayerAuthService authService) {
+    public TrueLayerApiService(TrueLayerConfig config, TrueLayerAuthService authService, RestTemplate restTemplate) {
         this.config = config;
         this.authService = authService;
+        this.restTemplate = restTemplate;
     }
 
     private HttpHeaders createHeaders(String accessToken) {
@@ -27,13 +27,15 @@ public class TrueLayerAuthService {
     private final TrueLayerConfig config;
     private final UserTokenRepository tokenRepository;
     private final UserRepository userRepository;
-    private final RestTemplate restTemplate = new RestTemplate();
+    private final RestTemplate restTemplate;
 
     // Manual constructor (Lombok @RequiredArgsConstructor should generate this, but adding manually as workaround)
-    public TrueLayerAuthService(TrueLayerConfig config, UserTokenRepository tokenRepository, UserRepository userRepository) {
+    public TrueLayerAuthService(TrueLayerConfig config, UserTokenRepository tokenRepository, UserRepository userRepository,
+                                RestTemplate restTemplate) {
         this.config = config;
         this.tokenRepository = tokenRepository;
         this.userRepository = userRepository;
+        this.restTemplate = restTemplate;
     }
 
     // Temporary storage for state parameters (use Redis in production)
@@ -0,0 +1,91 @@
+package ai.efinsight.e_finsight.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls for the same key: the first caller runs the supplier,
+ * callers arriving while it is in flight wait for and share its result (or exception).
+ * Waiting can be interrupted. When the running caller is interrupted (its request was
+ * cancelled), waiters do not get that failure: one of them runs the supplier instead.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong shared = new AtomicLong();
+
+    public V execute(K key, Supplier<V> supplier) {
+        while (true) {
+            CompletableFuture<V> future = new CompletableFuture<>();
+            CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+            if (existing == null) {
+                return run(key, future, supplier);
+            }
+
+            shared.incrementAndGet();
+            try {
+                return existing.get();
+            } catch (CancellationException e) {
+                // The running caller was cancelled; take over the call (or join whoever did)
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for a shared call", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                if (e.getCause() instanceof Error error) {
+                    throw error;
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
+    private V run(K key, CompletableFuture<V> future, Supplier<V> supplier) {
+        executions.incrementAndGet();
+        try {
+            V value = supplier.get();
+            inFlight.remove(key, future);
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            // Removed before completing, so waiters that retry after a cancellation start a fresh call
+            inFlight.remove(key, future);
+            if (Thread.currentThread().isInterrupted() || causedByInterrupt(e)) {
+                future.cancel(false);
+            } else {
+                // Waiters get the same failure; an uncompleted future would leave them blocked forever
+                future.completeExceptionally(e);
+            }
+            throw e;
+        }
+    }
+
+    private static boolean causedByInterrupt(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InterruptedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    public long getExecutionCount() {
+        return executions.get();
+    }
+
+    public long getSharedCount() {
+        return shared.get();
+    }
+}
@@ -0,0 +1,41 @@
+package ai.efinsight.e_finsight.util;
+
+/**
+ * Token bucket refilled continuously at a per-minute rate. Callers reserve permits and sleep
+ * until the bucket has refilled enough, so concurrent callers queue fairly behind each other.
+ */
+public class TokenBucket {
+
+    private final double capacity;
+    private final double permitsPerNano;
+    private double available;
+    private long lastRefill;
+
+    public TokenBucket(long permitsPerMinute) {
+        if (permitsPerMinute <= 0) {
+            throw new IllegalArgumentException("permitsPerMinute must be positive");
+        }
+        this.capacity = permitsPerMinute;
+        this.permitsPerNano = permitsPerMinute / 60_000_000_000.0;
+        this.available = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    // Blocks until the permits are available; returns the time spent waiting in nanoseconds
+    public long acquire(long permits) throws InterruptedException {
+        long waitNanos = reserve(Math.min(permits, (long) capacity));
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        }
+        return waitNanos;
+    }
+
+    // Takes the permits now, possibly going into debt; the debt is the caller's wait time
+    private synchronized long reserve(long permits) {
+        long now = System.nanoTime();
+        available = Math.min(capacity, available + (now - lastRefill) * permitsPerNano);
+        lastRefill = now;
+        available -= permits;
+        return available >= 0 ? 0 : (long) Math.ceil(-available / permitsPerNano);
+    }
+}
@@ -0,0 +1,123 @@
+package ai.efinsight.e_finsight.agent;
+
+import ai.efinsight.e_finsight.config.AgentConfig;
+import ai.efinsight.e_finsight.dto.PlanResponseDto;
+import ai.efinsight.e_finsight.rag.RagService;
+import ai.efinsight.e_finsight.repository.TransactionRepository;
+import ai.efinsight.e_finsight.service.DataVersionService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AgentCoordinatorServiceTest {
+
+    private final AgentConfig config = new AgentConfig();
+    private final AgentExecutor agentExecutor = new AgentExecutor(config, new SimpleMeterRegistry());
+    // Time each agent had left before its deadline when it started
+    private final Map<String, Long> remainingMillis = new ConcurrentHashMap<>();
+
+    @AfterEach
+    void shutdown() {
+        agentExecutor.shutdown();
+    }
+
+    @Test
+    void agentFallbackAfterCombinedTimeoutGetsAFreshDeadline() throws Exception {
+        config.setTimeoutSeconds(1);
+        CombinedPlanner combinedPlanner = mock(CombinedPlanner.class);
+        when(combinedPlanner.generatePlan(any(), anyList())).thenAnswer(invocation -> {
+            Thread.sleep(30_000);
+            return "{}";
+        });
+        AgentCoordinatorService coordinator = coordinator(combinedPlanner);
+
+        PlanResponseDto plan = coordinator.generateStructuredPlan(1L, "where is my spending going, and what budget fits?",
+            AgentCoordinatorService.MODE_COMBINED);
+
+        assertEquals("spending from agent", plan.getSections().getSpendingAnalysis());
+        assertEquals("budget from agent", plan.getSections().getBudgetRecommendations());
+        // The combined call used up its whole second; the fan-out still gets most of a new one
+        assertTrue(remainingMillis.get("spending_analysis") > 500, remainingMillis.toString());
+    }
+
+    private AgentCoordinatorService coordinator(CombinedPlanner combinedPlanner) {
+        RagService ragService = mock(RagService.class);
+        when(ragService.searchWithScores(anyLong(), any(), anyInt())).thenReturn(List.of());
+        TransactionRepository transactionRepository = mock(TransactionRepository.class);
+        when(transactionRepository.findAllById(any())).thenReturn(List.of());
+        DataVersionService dataVersionService = mock(DataVersionService.class);
+        when(dataVersionService.getVersion(anyLong())).thenReturn(1L);
+        AgentRegistry registry = new AgentRegistry(List.of(
+            new FakeAgent("spending_analysis", "spending", List.of()),
+            new FakeAgent("budget_plan", "budget", List.of("spending_analysis"))));
+        return new AgentCoordinatorService(registry, ragService, transactionRepository, agentExecutor,
+            dataVersionService, combinedPlanner, config);
+    }
+
+    private class FakeAgent implements PlanAgent {
+        private final String section;
+        private final String topic;
+        private final List<String> inputs;
+
+        FakeAgent(String section, String topic, List<String> inputs) {
+            this.section = section;
+            this.topic = topic;
+            this.inputs = inputs;
+        }
+
+        @Override
+        public String name() {
+            return section;
+        }
+
+        @Override
+        public String section() {
+            return section;
+        }
+
+        @Override
+        public String topic() {
+            return topic;
+        }
+
+        @Override
+        public List<String> inputs() {
+            return inputs;
+        }
+
+        @Override
+        public String fallback() {
+            return topic + " fallback";
+        }
+
+        @Override
+        public String run(PlanExecutionContext context, Map<String, String> upstream) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(context.getDeadlineNanos() - System.nanoTime());
+            remainingMillis.put(section, remaining);
+            if (remaining <= 0) {
+                throw new IllegalStateException(section + " started past its deadline");
+            }
+            return topic + " from agent";
+        }
+
+        @Override
+        public String stream(PlanExecutionContext context, Map<String, String> upstream, Consumer<String> onToken) {
+            return run(context, upstream);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package ai.efinsight.e_finsight.agent;
+
+import ai.efinsight.e_finsight.config.AgentConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AgentExecutorTest {
+
+    private final AgentConfig config = new AgentConfig();
+    private AgentExecutor executor;
+
+    @AfterEach
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void nodeMustComeAfterTheNodesItReads() {
+        Map<String, AgentExecutor.GraphNode> nodes = new LinkedHashMap<>();
+        nodes.put("budget", node(List.of("spending"), inputs -> "budget"));
+        nodes.put("spending", node(List.of(), inputs -> "spending"));
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> executor().runGraph(nodes));
+        assertTrue(e.getMessage().contains("budget reads spending"), e.getMessage());
+
+        Map<String, AgentExecutor.GraphNode> unknown = new LinkedHashMap<>();
+        unknown.put("budget", node(List.of("missing"), inputs -> "budget"));
+        assertThrows(IllegalArgumentException.class, () -> executor().runGraph(unknown));
+    }
+
+    @Test
+    void downstreamNodeStartsAfterItsInputAndReceivesItsOutput() {
+        AtomicLong spendingFinished = new AtomicLong();
+        AtomicLong budgetStarted = new AtomicLong();
+        Map<String, AgentExecutor.GraphNode> nodes = new LinkedHashMap<>();
+        nodes.put("spending", node(List.of(), inputs -> {
+            Thread.sleep(100);
+            spendingFinished.set(System.nanoTime());
+            return "groceries up 20%";
+        }));
+        nodes.put("budget", node(List.of("spending"), inputs -> {
+            budgetStarted.set(System.nanoTime());
+            return "budget from " + inputs;
+        }));
+
+        Map<String, AgentExecutor.AgentResult> results = executor().runGraph(nodes);
+
+        assertEquals(List.of("spending", "budget"), List.copyOf(results.keySet()));
+        assertEquals("budget from {spending=groceries up 20%}", results.get("budget").content);
+        assertTrue(budgetStarted.get() >= spendingFinished.get());
+    }
+
+    @Test
+    void independentNodesRunSideBySide() {
+        // Each node waits for the other to start, so running them one after another would time out
+        CyclicBarrier bothStarted = new CyclicBarrier(2);
+        Map<String, AgentExecutor.GraphNode> nodes = new LinkedHashMap<>();
+        nodes.put("spending", node(List.of(), inputs -> {
+            bothStarted.await(5, TimeUnit.SECONDS);
+            return "spending";
+        }));
+        nodes.put("investment", node(List.of(), inputs -> {
+            bothStarted.await(5, TimeUnit.SECONDS);
+            return "investment";
+        }));
+
+        Map<String, AgentExecutor.AgentResult> results = executor().runGraph(nodes);
+
+        assertTrue(results.get("spending").isSuccess());
+        assertTrue(results.get("investment").isSuccess());
+    }
+
+    @Test
+    void failedInputStillRunsItsDownstreamNodeWithoutIt() {
+        AtomicReference<Map<String, String>> received = new AtomicReference<>();
+        Map<String, AgentExecutor.GraphNode> nodes = new LinkedHashMap<>();
+        nodes.put("spending", node(List.of(), inputs -> {
+            throw new IllegalStateException("provider down");
+        }));
+        nodes.put("budget", node(List.of("spending"), inputs -> {
+            received.set(inputs);
+            return "budget";
+        }));
+
+        Map<String, AgentExecutor.AgentResult> results = executor().runGraph(nodes);
+
+        assertFalse(results.get("spending").isSuccess());
+        assertInstanceOf(IllegalStateException.class, results.get("spending").error);
+        assertTrue(results.get("budget").isSuccess());
+        assertEquals(Map.of(), received.get());
+    }
+
+    @Test
+    void sequentialModePassesOnlySuccessfulInputs() {
+        config.setParallel(false);
+        AtomicReference<Map<String, String>> received = new AtomicReference<>();
+        Map<String, AgentExecutor.GraphNode> nodes = new LinkedHashMap<>();
+        nodes.put("spending", node(List.of(), inputs -> "spending"));
+        nodes.put("savings", node(List.of(), inputs -> {
+            throw new IllegalStateException("provider down");
+        }));
+        nodes.put("budget", node(List.of("spending", "savings"), inputs -> {
+            received.set(inputs);
+            return "budget";
+        }));
+
+        Map<String, AgentExecutor.AgentResult> results = executor().runGraph(nodes);
+
+        assertFalse(results.get("savings").isSuccess());
+        assertTrue(results.get("budget").isSuccess());
+        assertEquals(Map.of("spending", "spending"), received.get());
+    }
+
+    @Test
+    void nodesStillRunningAtTheDeadlineAreCancelled() throws InterruptedException {
+        config.setTimeoutSeconds(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Map<String, AgentExecutor.GraphNode> nodes = new LinkedHashMap<>();
+        nodes.put("spending", node(List.of(), inputs -> "spending"));
+        nodes.put("investment", node(List.of(), inputs -> {
+            try {
+                Thread.sleep(30_000);
+                return "too late";
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+        }));
+
+        long start = System.nanoTime();
+        Map<String, AgentExecutor.AgentResult> results = executor().runGraph(nodes);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(elapsedMillis < 5_000, "took " + elapsedMillis + "ms");
+        assertEquals("spending", results.get("spending").content);
+        assertInstanceOf(TimeoutException.class, results.get("investment").error);
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS), "timed-out node was not interrupted");
+    }
+
+    private AgentExecutor executor() {
+        if (executor == null) {
+            executor = new AgentExecutor(config, new SimpleMeterRegistry());
+        }
+        return executor;
+    }
+
+    private static AgentExecutor.GraphNode node(List<String> inputs, AgentExecutor.NodeCall call) {
+        return new AgentExecutor.GraphNode(inputs, call);
+    }
+}
@@ -0,0 +1,132 @@
+package ai.efinsight.e_finsight.llm;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChatCallExecutorTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<String> attempts = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    void retryableFailureFailsOverToTheNextEndpoint() {
+        ChatCallExecutor executor = executor(2, "a", "b");
+
+        String answer = executor.call(ModelRouter.Tier.LARGE, 0, (endpoint, model) -> {
+            attempts.add(endpoint.getName());
+            if (attempts.size() == 1) {
+                throw unavailable();
+            }
+            return "answer from " + endpoint.getName();
+        });
+
+        assertEquals(2, attempts.size());
+        assertNotEquals(attempts.get(0), attempts.get(1));
+        assertEquals("answer from " + attempts.get(1), answer);
+        assertEquals(1.0, meterRegistry.get("llm.chat.failovers")
+            .tag("from", attempts.get(0)).tag("to", attempts.get(1)).counter().count());
+    }
+
+    @Test
+    void everyEndpointGetsATurnBeforeAnyIsRetried() {
+        ChatCallExecutor executor = executor(3, "a", "b", "c");
+
+        assertThrows(HttpServerErrorException.class, () -> executor.call(ModelRouter.Tier.LARGE, 0, (endpoint, model) -> {
+            attempts.add(endpoint.getName());
+            throw unavailable();
+        }));
+
+        // max(1 + chatMaxRetries, endpoints) attempts, cycling through the candidates in order
+        assertEquals(4, attempts.size());
+        assertEquals(3, attempts.subList(0, 3).stream().distinct().count());
+        assertEquals(attempts.get(0), attempts.get(3));
+        assertEquals(3.0, meterRegistry.find("llm.chat.failovers").counters().stream().mapToDouble(c -> c.count()).sum());
+        assertNull(meterRegistry.find("llm.chat.retries").counter());
+    }
+
+    @Test
+    void singleEndpointIsRetriedInPlace() {
+        ChatCallExecutor executor = executor(2, "only");
+
+        String answer = executor.call(ModelRouter.Tier.LARGE, 0, (endpoint, model) -> {
+            attempts.add(endpoint.getName());
+            if (attempts.size() < 3) {
+                throw unavailable();
+            }
+            return "ok";
+        });
+
+        assertEquals("ok", answer);
+        assertEquals(List.of("only", "only", "only"), attempts);
+        assertEquals(2.0, meterRegistry.get("llm.chat.retries").tag("endpoint", "only").counter().count());
+    }
+
+    @Test
+    void nonRetryableFailuresAreNotFailedOver() {
+        ChatCallExecutor executor = executor(2, "a", "b");
+
+        assertThrows(HttpClientErrorException.class, () -> executor.call(ModelRouter.Tier.LARGE, 0, (endpoint, model) -> {
+            attempts.add(endpoint.getName());
+            throw HttpClientErrorException.create(HttpStatus.BAD_REQUEST, "Bad Request", null, null, null);
+        }));
+        assertEquals(1, attempts.size());
+    }
+
+    @Test
+    void callerDeadlineStopsRetries() {
+        ChatCallExecutor executor = executor(5, "only");
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(150);
+
+        long start = System.nanoTime();
+        RuntimeException e = assertThrows(RuntimeException.class, () -> executor.call(ModelRouter.Tier.LARGE, deadline,
+            (endpoint, model) -> {
+                attempts.add(endpoint.getName());
+                try {
+                    Thread.sleep(1_000);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                return "too late";
+            }));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(elapsedMillis < 500, "took " + elapsedMillis + "ms");
+        assertTrue(e.getMessage().contains("deadline"), e.getMessage());
+        assertEquals(1, attempts.size());
+    }
+
+    private ChatCallExecutor executor(int maxRetries, String... endpointNames) {
+        LLMConfig config = new LLMConfig();
+        config.setProvider("openai");
+        config.setChatMaxRetries(maxRetries);
+        config.setChatRetryBaseDelayMs(1);
+        config.setChatRetryMaxDelayMs(2);
+        List<ProviderEndpoint> endpoints = new ArrayList<>();
+        for (String name : endpointNames) {
+            ProviderEndpoint endpoint = new ProviderEndpoint();
+            endpoint.setName(name);
+            endpoint.setProvider("openai");
+            endpoints.add(endpoint);
+        }
+        config.setEndpoints(endpoints);
+        return new ChatCallExecutor(config, new ProviderRegistry(config, meterRegistry), meterRegistry);
+    }
+
+    private static HttpServerErrorException unavailable() {
+        return HttpServerErrorException.create(HttpStatus.SERVICE_UNAVAILABLE, "Service Unavailable", null, null, null);
+    }
+}
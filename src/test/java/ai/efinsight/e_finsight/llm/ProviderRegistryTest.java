@@ -0,0 +1,75 @@
+package ai.efinsight.e_finsight.llm;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ProviderRegistryTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void latencySamplesBlendWithTheStoredAverage() {
+        ProviderRegistry registry = registry("a");
+        ProviderEndpoint a = registry.candidates(ProviderRegistry.Kind.CHAT).get(0);
+
+        registry.onSuccess(a, ProviderRegistry.Kind.CHAT, TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(100, latencyGauge("a"), 1e-9);
+        registry.onSuccess(a, ProviderRegistry.Kind.CHAT, TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(120, latencyGauge("a"), 1e-9);
+        // Failures move the error rate, not the latency average
+        registry.onFailure(a, ProviderRegistry.Kind.CHAT);
+        assertEquals(120, latencyGauge("a"), 1e-9);
+    }
+
+    @Test
+    void fasterEndpointComesFirst() {
+        ProviderRegistry registry = registry("a", "b");
+
+        registry.onSuccess(endpoint(registry, "a"), ProviderRegistry.Kind.CHAT, TimeUnit.MILLISECONDS.toNanos(50));
+        registry.onSuccess(endpoint(registry, "b"), ProviderRegistry.Kind.CHAT, TimeUnit.MILLISECONDS.toNanos(2_000));
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals("a", registry.candidates(ProviderRegistry.Kind.CHAT).get(0).getName());
+        }
+    }
+
+    @Test
+    void endpointWithoutSamplesIsTriedFirst() {
+        ProviderRegistry registry = registry("a", "b");
+
+        registry.onSuccess(endpoint(registry, "a"), ProviderRegistry.Kind.CHAT, TimeUnit.MILLISECONDS.toNanos(50));
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals("b", registry.candidates(ProviderRegistry.Kind.CHAT).get(0).getName());
+        }
+    }
+
+    private ProviderRegistry registry(String... endpointNames) {
+        LLMConfig config = new LLMConfig();
+        config.setProvider("openai");
+        List<ProviderEndpoint> endpoints = new ArrayList<>();
+        for (String name : endpointNames) {
+            ProviderEndpoint endpoint = new ProviderEndpoint();
+            endpoint.setName(name);
+            endpoint.setProvider("openai");
+            endpoints.add(endpoint);
+        }
+        config.setEndpoints(endpoints);
+        return new ProviderRegistry(config, meterRegistry);
+    }
+
+    private static ProviderEndpoint endpoint(ProviderRegistry registry, String name) {
+        return registry.candidates(ProviderRegistry.Kind.CHAT).stream()
+            .filter(endpoint -> endpoint.getName().equals(name)).findFirst().orElseThrow();
+    }
+
+    private double latencyGauge(String endpoint) {
+        return meterRegistry.get("llm.endpoint.latency.ewma").tag("endpoint", endpoint).tag("kind", "chat").gauge().value();
+    }
+}
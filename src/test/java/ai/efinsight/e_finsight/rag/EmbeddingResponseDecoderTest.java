@@ -0,0 +1,157 @@
+package ai.efinsight.e_finsight.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EmbeddingResponseDecoderTest {
+
+    private final EmbeddingResponseDecoder decoder = new EmbeddingResponseDecoder();
+
+    @Test
+    void parseFloatMatchesFloatParseFloatOnEdgeCases() {
+        String[] inputs = {
+            "0", "-0", "0.0", "-0.0", "1", "-1", "+1.5", "0.1", "0.2", "0.3", "1e10", "1E-10",
+            "3.4028235e38", "-3.4028235e38", "3.4028236e38", "3.5e38", "1e39",
+            "1.17549435e-38", "1.1754942e-38", "1.4e-45", "1e-45", "7e-46", "1e-46", "-1e-45",
+            "0.000000000000000000000000000000000000000000001",
+            "00000.00012345", "007", "-0000.5", "0.00000000000000000001",
+            "123456789012345678901234567890", "0.123456789012345678901234567890",
+            "1.00000005960464477539062500", "1.0000000596046448", "1.0000000596046447",
+            "16777217", "16777217.0000000001", "33554431", "9007199254740993",
+            "-0.023410385", "0.0074891234", "0.99999999", "1.5e+3", "2.5E+22", "1e22", "1e23", "1e-22", "1e-23",
+            "4.9e-324", "1e400", "-1e400", "1e-400",
+        };
+        for (String input : inputs) {
+            assertParity(input);
+        }
+    }
+
+    @Test
+    void parseFloatMatchesFloatParseFloatOnRandomInputs() {
+        Random random = new Random(20251119);
+        for (int i = 0; i < 200_000; i++) {
+            float f = Float.intBitsToFloat(random.nextInt());
+            if (Float.isNaN(f) || Float.isInfinite(f)) {
+                continue;
+            }
+            assertParity(Float.toString(f));
+            assertParity(String.format(Locale.ROOT, "%.9e", f));
+            assertParity(new BigDecimal(f).toPlainString());
+        }
+        // Embedding-like values: 6-12 significant digits in (-1, 1), with and without exponents
+        for (int i = 0; i < 200_000; i++) {
+            int digits = 6 + random.nextInt(7);
+            double value = (random.nextDouble() * 2 - 1) * Math.pow(10, -random.nextInt(4));
+            assertParity(String.format(Locale.ROOT, "%." + digits + "f", value));
+            assertParity(String.format(Locale.ROOT, "%." + digits + "e", value));
+        }
+        // Random digit strings, including more digits than a double holds exactly
+        for (int i = 0; i < 100_000; i++) {
+            StringBuilder number = new StringBuilder(random.nextBoolean() ? "-" : "");
+            int integerDigits = random.nextInt(4);
+            for (int d = 0; d < integerDigits; d++) {
+                number.append((char) ('0' + random.nextInt(10)));
+            }
+            number.append(integerDigits == 0 ? "0." : ".");
+            int fractionDigits = 1 + random.nextInt(25);
+            for (int d = 0; d < fractionDigits; d++) {
+                number.append((char) ('0' + random.nextInt(10)));
+            }
+            if (random.nextBoolean()) {
+                number.append('e').append(random.nextInt(90) - 50);
+            }
+            assertParity(number.toString());
+        }
+    }
+
+    @Test
+    void parseFloatMatchesFloatParseFloatNearFloatHalfwayPoints() {
+        Random random = new Random(7);
+        for (int i = 0; i < 50_000; i++) {
+            float f = Math.abs(Float.intBitsToFloat(random.nextInt()));
+            if (Float.isNaN(f) || Float.isInfinite(f) || f == Float.MAX_VALUE) {
+                continue;
+            }
+            BigDecimal halfway = new BigDecimal(f)
+                .add(new BigDecimal(Math.nextUp(f))).divide(BigDecimal.valueOf(2));
+            assertParity(halfway.toString());
+            assertParity(halfway.round(new MathContext(15)).toString());
+            assertParity(halfway.round(new MathContext(9)).toString());
+        }
+    }
+
+    @Test
+    void decodeOpenAIOrdersByIndexAndReportsUsage() throws IOException {
+        String body = """
+            {"object":"list","data":[
+              {"object":"embedding","index":2,"embedding":[3.0,3.5]},
+              {"object":"embedding","index":0,"embedding":[1.0,1.5]},
+              {"object":"embedding","index":1,"embedding":[2.0,-2.5e-1]}
+            ],"model":"text-embedding-3-small","usage":{"prompt_tokens":12,"total_tokens":12}}
+            """;
+        AtomicLong promptTokens = new AtomicLong(-1);
+        List<float[]> embeddings = decoder.decodeOpenAI(stream(body), 3, promptTokens::set);
+
+        assertArrayEquals(new float[]{1.0f, 1.5f}, embeddings.get(0));
+        assertArrayEquals(new float[]{2.0f, -0.25f}, embeddings.get(1));
+        assertArrayEquals(new float[]{3.0f, 3.5f}, embeddings.get(2));
+        assertEquals(12, promptTokens.get());
+    }
+
+    @Test
+    void decodeOpenAIFillsGapsInResponseOrderWhenIndexesAreMissing() throws IOException {
+        String body = """
+            {"data":[{"embedding":[1]},{"index":1,"embedding":[2]},{"embedding":[3]}]}
+            """;
+        List<float[]> embeddings = decoder.decodeOpenAI(stream(body), 3);
+
+        assertArrayEquals(new float[]{1f}, embeddings.get(0));
+        assertArrayEquals(new float[]{2f}, embeddings.get(1));
+        assertArrayEquals(new float[]{3f}, embeddings.get(2));
+    }
+
+    @Test
+    void decodeOpenAIRejectsShortResponses() {
+        String body = """
+            {"data":[{"index":0,"embedding":[1]}]}
+            """;
+        assertThrows(IOException.class, () -> decoder.decodeOpenAI(stream(body), 2));
+    }
+
+    @Test
+    void decodeGeminiKeepsResponseOrder() throws IOException {
+        String body = """
+            {"embeddings":[{"values":[0.5,-1]},{"values":[2,1e-3]}]}
+            """;
+        List<float[]> embeddings = decoder.decodeGemini(stream(body), 2);
+
+        assertArrayEquals(new float[]{0.5f, -1f}, embeddings.get(0));
+        assertArrayEquals(new float[]{2f, 0.001f}, embeddings.get(1));
+        assertThrows(IOException.class, () -> decoder.decodeGemini(stream(body), 3));
+    }
+
+    private static void assertParity(String input) {
+        char[] padded = ("[" + input + "]").toCharArray();
+        float expected = Float.parseFloat(input);
+        float actual = EmbeddingResponseDecoder.parseFloat(padded, 1, input.length());
+        assertEquals(Float.floatToRawIntBits(expected), Float.floatToRawIntBits(actual), () -> "parseFloat(" + input + ")");
+    }
+
+    private static InputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,43 @@
+package ai.efinsight.e_finsight.rag;
+
+import ai.efinsight.e_finsight.repository.TransactionChunkRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+
+class RetrievalStatsServiceTest {
+
+    @SuppressWarnings("unchecked")
+    private final RetrievalStatsService stats = new RetrievalStatsService(
+        mock(TransactionChunkRepository.class),
+        mock(EmbeddingService.class),
+        mock(ObjectProvider.class),
+        new SimpleMeterRegistry(),
+        Optional.empty());
+
+    @Test
+    void dropsTheLeastRecentlyActiveUserOnceTheLimitIsReached() {
+        for (long userId = 1; userId <= 4096; userId++) {
+            stats.recordSearch(userId, RetrievalStatsService.ROUTE_POSTGRES, 5, 1_000_000);
+        }
+        // User 1 searches again, so user 2 is now the least recently active
+        stats.recordSearch(1L, RetrievalStatsService.ROUTE_POSTGRES, 5, 1_000_000);
+        stats.recordSearch(4097L, RetrievalStatsService.ROUTE_POSTGRES, 5, 1_000_000);
+
+        assertEquals(2L, totalSearches(1L));
+        assertEquals(0L, totalSearches(2L));
+        assertEquals(1L, totalSearches(4097L));
+    }
+
+    @SuppressWarnings("unchecked")
+    private long totalSearches(Long userId) {
+        Map<String, Object> latency = (Map<String, Object>) stats.getUserStats(userId).get("searchLatency");
+        return (Long) latency.get("totalSearches");
+    }
+}
@@ -0,0 +1,96 @@
+package ai.efinsight.e_finsight.resilience;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AimdLimiterTest {
+
+    private static final long LATENCY = TimeUnit.MILLISECONDS.toNanos(5);
+
+    @Test
+    void growsWhileTheLimitIsInUse() throws InterruptedException {
+        AimdLimiter limiter = new AimdLimiter(2, 1, 10);
+        for (int round = 0; round < 3; round++) {
+            int limit = limiter.getLimit();
+            for (int i = 0; i < limit; i++) {
+                limiter.acquire();
+            }
+            for (int i = 0; i < limit; i++) {
+                limiter.onSuccess(LATENCY);
+            }
+        }
+        // Growth is 1/limit per success made while the limit was (nearly) full: 2 -> 2.9 -> 3.24 -> 3.83
+        assertEquals(3, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void doesNotGrowWhenTheLimitIsNotUsed() throws InterruptedException {
+        AimdLimiter limiter = new AimdLimiter(8, 1, 16);
+        for (int i = 0; i < 50; i++) {
+            limiter.acquire();
+            limiter.onSuccess(LATENCY);
+        }
+        assertEquals(8, limiter.getLimit());
+    }
+
+    @Test
+    void overloadHalvesOncePerWindowAndStopsAtTheMinimum() throws InterruptedException {
+        AimdLimiter limiter = new AimdLimiter(8, 3, 16);
+        limiter.acquire();
+        limiter.onOverload();
+        assertEquals(4, limiter.getLimit());
+
+        // Responses that were already in flight when it backed off do not halve it again
+        limiter.acquire();
+        limiter.onOverload();
+        assertEquals(4, limiter.getLimit());
+
+        Thread.sleep(120);
+        limiter.acquire();
+        limiter.onOverload();
+        assertEquals(3, limiter.getLimit());
+    }
+
+    @Test
+    void latencyWellAboveBaselineCountsAsOverload() throws InterruptedException {
+        AimdLimiter limiter = new AimdLimiter(8, 1, 16);
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire();
+            limiter.onSuccess(LATENCY);
+        }
+        for (int i = 0; i < 10 && limiter.getLimit() == 8; i++) {
+            limiter.acquire();
+            limiter.onSuccess(LATENCY * 20);
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    void callersBeyondTheLimitWaitForARelease() throws InterruptedException {
+        AimdLimiter limiter = new AimdLimiter(1, 1, 1);
+        limiter.acquire();
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = Thread.ofVirtual().start(() -> {
+            try {
+                limiter.acquire();
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+
+        limiter.onIgnore();
+        assertTrue(acquired.await(1, TimeUnit.SECONDS));
+        assertEquals(1, limiter.getInFlight());
+        waiter.join();
+    }
+}
@@ -0,0 +1,102 @@
+package ai.efinsight.e_finsight.resilience;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CircuitBreakerTest {
+
+    private static final long OPEN_MILLIS = 50;
+
+    private final CircuitBreaker breaker = new CircuitBreaker("test", 4, 0.5, OPEN_MILLIS);
+
+    @Test
+    void staysClosedBelowTheFailureRate() {
+        call(false);
+        call(false);
+        call(true);
+        call(false);
+        call(false);
+        call(false);
+        call(true);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertDoesNotThrow(breaker::acquirePermission);
+    }
+
+    @Test
+    void opensAtTheFailureRateAndRejectsCalls() {
+        call(true);
+        call(true);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertThrows(CircuitBreakerOpenException.class, breaker::acquirePermission);
+    }
+
+    @Test
+    void failuresOutsideTheWindowAreForgotten() {
+        call(true);
+        call(false);
+        call(false);
+        call(false);
+        call(false);
+        // Window is now four successes; one more failure is 25%
+        call(true);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void halfOpenLetsOneTrialThroughAndClosesOnSuccess() throws InterruptedException {
+        call(true);
+        call(true);
+        Thread.sleep(OPEN_MILLIS + 10);
+
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.acquirePermission();
+        assertThrows(CircuitBreakerOpenException.class, breaker::acquirePermission);
+
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        // The window starts empty again: one failure does not reopen it
+        call(true);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void failedTrialReopens() throws InterruptedException {
+        call(true);
+        call(true);
+        Thread.sleep(OPEN_MILLIS + 10);
+
+        breaker.acquirePermission();
+        breaker.onFailure();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertThrows(CircuitBreakerOpenException.class, breaker::acquirePermission);
+    }
+
+    @Test
+    void ignoredTrialFreesTheSlotForAnotherTrial() throws InterruptedException {
+        call(true);
+        call(true);
+        Thread.sleep(OPEN_MILLIS + 10);
+
+        breaker.acquirePermission();
+        breaker.onIgnore();
+
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertDoesNotThrow(breaker::acquirePermission);
+    }
+
+    private void call(boolean failure) {
+        breaker.acquirePermission();
+        if (failure) {
+            breaker.onFailure();
+        } else {
+            breaker.onSuccess();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package ai.efinsight.e_finsight.resilience;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetryPolicyTest {
+
+    private final RetryPolicy policy = new RetryPolicy(2, 100, 1_000);
+
+    @Test
+    void attemptsIncludeTheFirstCall() {
+        assertEquals(3, policy.getMaxAttempts());
+        assertEquals(1, new RetryPolicy(-1, 100, 1_000).getMaxAttempts());
+    }
+
+    @Test
+    void overloadAndTimeoutsAreRetryable() {
+        assertTrue(RetryPolicy.isRetryable(status(HttpStatus.TOO_MANY_REQUESTS, null)));
+        assertTrue(RetryPolicy.isRetryable(status(HttpStatus.SERVICE_UNAVAILABLE, null)));
+        assertTrue(RetryPolicy.isRetryable(status(HttpStatus.INTERNAL_SERVER_ERROR, null)));
+        assertTrue(RetryPolicy.isRetryable(new ResourceAccessException("read timed out", new SocketTimeoutException())));
+        assertTrue(RetryPolicy.isRetryable(new RetryableException("stream stalled")));
+    }
+
+    @Test
+    void causesAreInspected() {
+        assertTrue(RetryPolicy.isRetryable(new RuntimeException("wrapped", status(HttpStatus.BAD_GATEWAY, null))));
+        assertFalse(RetryPolicy.isRetryable(new RuntimeException("wrapped", status(HttpStatus.UNAUTHORIZED, null))));
+    }
+
+    @Test
+    void clientErrorsAndBugsAreNotRetryable() {
+        assertFalse(RetryPolicy.isRetryable(status(HttpStatus.BAD_REQUEST, null)));
+        assertFalse(RetryPolicy.isRetryable(status(HttpStatus.UNAUTHORIZED, null)));
+        assertFalse(RetryPolicy.isRetryable(new IllegalStateException("bug")));
+        assertFalse(RetryPolicy.isRetryable(null));
+    }
+
+    @Test
+    void backoffIsJitteredWithinTheUpperHalfOfTheExponentialCeiling() {
+        RuntimeException failure = status(HttpStatus.SERVICE_UNAVAILABLE, null);
+        for (int i = 0; i < 1_000; i++) {
+            assertBetween(50, 100, policy.delayMillis(failure, 1));
+            assertBetween(100, 200, policy.delayMillis(failure, 2));
+            assertBetween(200, 400, policy.delayMillis(failure, 3));
+            // Capped at the maximum delay
+            assertBetween(500, 1_000, policy.delayMillis(failure, 8));
+            assertBetween(500, 1_000, policy.delayMillis(failure, 40));
+        }
+    }
+
+    @Test
+    void retryAfterSecondsWinsAndIsCapped() {
+        assertEquals(1_000, policy.delayMillis(status(HttpStatus.TOO_MANY_REQUESTS, "1"), 1));
+        assertEquals(1_000, policy.delayMillis(status(HttpStatus.TOO_MANY_REQUESTS, "30"), 1));
+        assertEquals(0, policy.delayMillis(status(HttpStatus.TOO_MANY_REQUESTS, " 0 "), 1));
+    }
+
+    @Test
+    void retryAfterHttpDateFallsBackToBackoff() {
+        long delay = policy.delayMillis(status(HttpStatus.SERVICE_UNAVAILABLE, "Wed, 21 Oct 2026 07:28:00 GMT"), 1);
+        assertBetween(50, 100, delay);
+    }
+
+    private static RuntimeException status(HttpStatus status, String retryAfter) {
+        HttpHeaders headers = new HttpHeaders();
+        if (retryAfter != null) {
+            headers.set(HttpHeaders.RETRY_AFTER, retryAfter);
+        }
+        byte[] body = new byte[0];
+        return status.is4xxClientError()
+            ? HttpClientErrorException.create(status, status.getReasonPhrase(), headers, body, StandardCharsets.UTF_8)
+            : HttpServerErrorException.create(status, status.getReasonPhrase(), headers, body, StandardCharsets.UTF_8);
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual >= min && actual <= max, actual + " not in [" + min + ", " + max + "]");
+    }
+}
@@ -0,0 +1,201 @@
+package ai.efinsight.e_finsight.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightTest {
+
+    private static final int CALLERS = 8;
+
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @Test
+    void concurrentCallsForOneKeyShareOneExecution() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+
+        List<Future<String>> results = submitCallers("key", () -> {
+            calls.incrementAndGet();
+            await(release);
+            return "value";
+        });
+        awaitWaiters(CALLERS - 1);
+        release.countDown();
+
+        for (Future<String> result : results) {
+            assertEquals("value", result.get(1, TimeUnit.SECONDS));
+        }
+        assertEquals(1, calls.get());
+        assertEquals(1, singleFlight.getExecutionCount());
+        assertEquals(CALLERS - 1, singleFlight.getSharedCount());
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    void waitersGetTheSameException() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        IllegalStateException failure = new IllegalStateException("provider down");
+
+        List<Future<String>> results = submitCallers("key", () -> {
+            await(release);
+            throw failure;
+        });
+        awaitWaiters(CALLERS - 1);
+        release.countDown();
+
+        for (Future<String> result : results) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(1, TimeUnit.SECONDS));
+            assertSame(failure, e.getCause());
+        }
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    void waitersAreReleasedWhenTheCallThrowsAnError() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> results = submitCallers("key", () -> {
+            await(release);
+            throw new AssertionError("boom");
+        });
+        awaitWaiters(CALLERS - 1);
+        release.countDown();
+
+        for (Future<String> result : results) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(1, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof AssertionError);
+        }
+    }
+
+    @Test
+    void cancelledCallIsRunAgainByAWaiter() throws Exception {
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        Supplier<String> supplier = () -> {
+            if (calls.incrementAndGet() == 1) {
+                leaderStarted.countDown();
+                await(new CountDownLatch(1));
+            }
+            return "value";
+        };
+
+        Future<String> leader = executor.submit(() -> singleFlight.execute("key", supplier));
+        await(leaderStarted);
+        Future<String> follower = executor.submit(() -> singleFlight.execute("key", supplier));
+        awaitWaiters(1);
+        leader.cancel(true);
+
+        assertEquals("value", follower.get(1, TimeUnit.SECONDS));
+        assertEquals(2, calls.get());
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    void waitingCanBeInterrupted() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        Future<String> leader = executor.submit(() -> singleFlight.execute("key", () -> {
+            leaderStarted.countDown();
+            await(release);
+            return "value";
+        }));
+        await(leaderStarted);
+        CountDownLatch followerDone = new CountDownLatch(1);
+        Future<?> follower = executor.submit(() -> {
+            try {
+                singleFlight.execute("key", () -> "unused");
+            } finally {
+                followerDone.countDown();
+            }
+            return null;
+        });
+        awaitWaiters(1);
+
+        follower.cancel(true);
+        // The interrupted waiter returns while the call it shared is still running
+        assertTrue(followerDone.await(1, TimeUnit.SECONDS));
+        assertFalse(leader.isDone());
+        release.countDown();
+        assertEquals("value", leader.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void completedCallsAreNotCached() {
+        AtomicInteger calls = new AtomicInteger();
+        singleFlight.execute("key", () -> "v" + calls.incrementAndGet());
+
+        assertEquals("v2", singleFlight.execute("key", () -> "v" + calls.incrementAndGet()));
+        assertEquals(0, singleFlight.getSharedCount());
+    }
+
+    @Test
+    void failedCallsAreRetriedByTheNextCaller() {
+        assertThrows(IllegalStateException.class, () -> singleFlight.execute("key", () -> {
+            throw new IllegalStateException("first");
+        }));
+        assertEquals("ok", singleFlight.execute("key", () -> "ok"));
+    }
+
+    @Test
+    void differentKeysDoNotCoalesce() throws Exception {
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        Future<String> a = executor.submit(() -> singleFlight.execute("a", () -> {
+            bothStarted.countDown();
+            await(bothStarted);
+            return "A";
+        }));
+        Future<String> b = executor.submit(() -> singleFlight.execute("b", () -> {
+            bothStarted.countDown();
+            await(bothStarted);
+            return "B";
+        }));
+
+        assertEquals("A", a.get(1, TimeUnit.SECONDS));
+        assertEquals("B", b.get(1, TimeUnit.SECONDS));
+        assertEquals(2, singleFlight.getExecutionCount());
+    }
+
+    private List<Future<String>> submitCallers(String key, Supplier<String> supplier) {
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(executor.submit(() -> singleFlight.execute(key, supplier)));
+        }
+        return results;
+    }
+
+    private void awaitWaiters(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (singleFlight.getSharedCount() < count && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, singleFlight.getSharedCount());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(2, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("latch not released");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package ai.efinsight.e_finsight.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTest {
+
+    // One permit per millisecond
+    private static final long PER_MINUTE = 60_000;
+
+    @Test
+    void startsFullSoTheFirstBurstDoesNotWait() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(PER_MINUTE);
+        assertEquals(0, bucket.acquire(PER_MINUTE));
+    }
+
+    @Test
+    void waitsForTheRefillOnceEmpty() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(PER_MINUTE);
+        bucket.acquire(PER_MINUTE);
+
+        long start = System.nanoTime();
+        long waited = bucket.acquire(50);
+        long elapsed = System.nanoTime() - start;
+
+        assertTrue(waited > TimeUnit.MILLISECONDS.toNanos(40), "waited " + waited);
+        assertTrue(waited <= TimeUnit.MILLISECONDS.toNanos(50), "waited " + waited);
+        assertTrue(elapsed >= waited - TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @Test
+    void concurrentCallersQueueBehindEachOther() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(PER_MINUTE);
+        bucket.acquire(PER_MINUTE);
+
+        long first = bucket.acquire(20);
+        long second = bucket.acquire(20);
+        // Each reservation is paid back in turn, so waits do not overlap into a double spend
+        assertTrue(first > TimeUnit.MILLISECONDS.toNanos(10), "first " + first);
+        assertTrue(second > TimeUnit.MILLISECONDS.toNanos(10), "second " + second);
+    }
+
+    @Test
+    void requestsLargerThanCapacityAreCapped() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(100);
+        assertEquals(0, bucket.acquire(1_000));
+    }
+
+    @Test
+    void rejectsNonPositiveRates() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0));
+    }
+}